@@ -32,7 +32,7 @@ import java.util.ArrayList;
  * right as child nodes are added (to the right).
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  */
 public class Analyzer {
 
@@ -66,7 +66,39 @@ public class Analyzer {
     public Node analyze(Node node) throws ParserLogException {
         ParserLogException  log = new ParserLogException();
 
-        node = analyze(node, log);
+        node = analyze(node, false, log, null);
+        if (log.getErrorCount() > 0) {
+            throw log;
+        }
+        return node;
+    }
+
+    /**
+     * Analyzes a parse tree node in place by traversing all it's
+     * child nodes. The tree traversal is depth-first, and the
+     * appropriate callback methods will be called. Contrary to
+     * analyze(), no new production nodes are created. Instead the
+     * computed values and child nodes are removed from each
+     * production node before it is entered, and the child nodes are
+     * then added back through the child() callbacks. The tree is
+     * thus only modified where the exit() callbacks return a
+     * different node (or null). This method is used to analyze the
+     * same parse tree repeatedly, and cannot be used with read-only
+     * node views.
+     *
+     * @param node           the parse tree node to process
+     *
+     * @return the resulting parse tree node
+     *
+     * @throws ParserLogException if the node analysis discovered
+     *             errors
+     *
+     * @since 1.6
+     */
+    public Node analyzeInPlace(Node node) throws ParserLogException {
+        ParserLogException  log = new ParserLogException();
+
+        node = analyze(node, true, log, null);
         if (log.getErrorCount() > 0) {
             throw log;
         }
@@ -77,61 +109,191 @@ public class Analyzer {
      * Analyzes a parse tree node by traversing all it's child nodes.
      * The tree traversal is depth-first, and the appropriate
      * callback methods will be called. If the node is a production
-     * node, a new production node will be created and children will
-     * be added by recursively processing the children of the
-     * specified production node. This method is used to process a
+     * node, the children will be added to either a new or the
+     * existing production node by processing the children of the
+     * specified production node. The traversal uses an explicit
+     * stack instead of recursion, so trees of any depth can be
+     * processed. If a parallel analyzer driver is specified, the
+     * results for any split subtrees below the root node are
+     * retrieved from it instead. This method is used to process a
      * parse tree after creation.
      *
      * @param node           the parse tree node to process
+     * @param inPlace        the in-place analysis flag
      * @param log            the parser error log
+     * @param parallel       the parallel analyzer driver, or null
      *
      * @return the resulting parse tree node
      */
-    private Node analyze(Node node, ParserLogException log) {
+    Node analyze(Node node,
+                 boolean inPlace,
+                 ParserLogException log,
+                 ParallelAnalyzer parallel) {
+
+        Node[]      children = new Node[64];
+        Node[]      prods = new Node[16];
+        int[]       pos = new int[16];
+        int[]       ends = new int[16];
+        int[]       errors = new int[16];
+        int         depth = 0;
+        int         base;
+        int         count;
         Production  prod;
-        int         errorCount;
-
-        errorCount = log.getErrorCount();
-        if (node instanceof Production) {
-            prod = (Production) node;
-            prod = newProduction(prod.getPattern());
-            try {
-                enter(prod);
-            } catch (ParseException e) {
-                log.addError(e);
-            }
-            for (int i = 0; i < node.getChildCount(); i++) {
+        Node        result;
+
+        if (!(node instanceof Production)) {
+            return analyzeToken(node, log);
+        }
+        while (true) {
+            if (parallel != null && depth > 0 && parallel.isSplit(node)) {
+                result = parallel.join(log);
+                analyzeChild((Production) prods[depth - 1], result, log);
+            } else if (node instanceof Production) {
+                if (depth >= prods.length) {
+                    prods = grow(prods);
+                    pos = grow(pos);
+                    ends = grow(ends);
+                    errors = grow(errors);
+                }
+                base = (depth > 0) ? ends[depth - 1] : 0;
+                count = node.getChildCount();
+                while (base + count > children.length) {
+                    children = grow(children);
+                }
+                for (int i = 0; i < count; i++) {
+                    children[base + i] = node.getChildAt(i);
+                }
+                pos[depth] = base;
+                ends[depth] = base + count;
+                errors[depth] = log.getErrorCount();
+                prod = (Production) node;
+                if (inPlace) {
+                    prod.removeAllValues();
+                    prod.removeAllChildren();
+                    prods[depth] = prod;
+                } else {
+                    prods[depth] = newProduction(prod.getPattern());
+                }
                 try {
-                    child(prod, analyze(node.getChildAt(i), log));
+                    enter(prods[depth]);
                 } catch (ParseException e) {
                     log.addError(e);
                 }
+                depth++;
+            } else if (node != null) {
+                result = analyzeToken(node, log);
+                analyzeChild((Production) prods[depth - 1], result, log);
             }
-            try {
-                return exit(prod);
-            } catch (ParseException e) {
-                if (errorCount == log.getErrorCount()) {
-                    log.addError(e);
+            if (pos[depth - 1] < ends[depth - 1]) {
+                node = children[pos[depth - 1]];
+                children[pos[depth - 1]++] = null;
+            } else {
+                depth--;
+                result = analyzeExit(prods[depth], errors[depth], log);
+                prods[depth] = null;
+                if (depth == 0) {
+                    return result;
                 }
+                analyzeChild((Production) prods[depth - 1], result, log);
+                node = null;
             }
-        } else {
-            node.removeAllValues();
-            try {
-                enter(node);
-            } catch (ParseException e) {
+        }
+    }
+
+    /**
+     * Analyzes a token node. Any previous values are removed from
+     * the token before calling the enter() and exit() callbacks.
+     *
+     * @param node           the token node to process
+     * @param log            the parser error log
+     *
+     * @return the resulting parse tree node
+     */
+    private Node analyzeToken(Node node, ParserLogException log) {
+        int  errorCount = log.getErrorCount();
+
+        node.removeAllValues();
+        try {
+            enter(node);
+        } catch (ParseException e) {
+            log.addError(e);
+        }
+        return analyzeExit(node, errorCount, log);
+    }
+
+    /**
+     * Calls the exit() callback for a node. Any error thrown is only
+     * added to the log if no other errors have been added since the
+     * node was entered.
+     *
+     * @param node           the node being exited
+     * @param errorCount     the error count when entering the node
+     * @param log            the parser error log
+     *
+     * @return the resulting parse tree node, or
+     *         null if no node should be added
+     */
+    private Node analyzeExit(Node node,
+                             int errorCount,
+                             ParserLogException log) {
+
+        try {
+            return exit(node);
+        } catch (ParseException e) {
+            if (errorCount == log.getErrorCount()) {
                 log.addError(e);
             }
-            try {
-                return exit(node);
-            } catch (ParseException e) {
-                if (errorCount == log.getErrorCount()) {
-                    log.addError(e);
-                }
-            }
         }
         return null;
     }
 
+    /**
+     * Calls the child() callback for a node. Any error thrown is
+     * added to the log.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     * @param log            the parser error log
+     */
+    private void analyzeChild(Production node,
+                              Node child,
+                              ParserLogException log) {
+
+        try {
+            child(node, child);
+        } catch (ParseException e) {
+            log.addError(e);
+        }
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     *
+     * @return the new array
+     */
+    private static Node[] grow(Node[] array) {
+        Node[]  copy = new Node[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     *
+     * @return the new array
+     */
+    private static int[] grow(int[] array) {
+        int[]  copy = new int[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
     /**
      * Factory method to create a new production node. This method
      * can be overridden to provide other production implementations
@@ -195,6 +357,30 @@ public class Analyzer {
         node.addChild(child);
     }
 
+    /**
+     * Called when a detachable production node has been removed from
+     * its parent node. This method is called by the parser after the
+     * child() callback for the parent node, and can be used to
+     * process each detached subtree separately. After this call the
+     * parser will keep no reference to the detached node, so the
+     * memory used by the subtree can be reclaimed. The default
+     * implementation of this method does nothing.
+     *
+     * @param parent         the parent node
+     * @param node           the detached child node
+     *
+     * @throws ParseException if the node analysis discovered errors
+     *
+     * @see ProductionPattern#setDetachable(boolean)
+     *
+     * @since 1.6
+     */
+    protected void detach(Production parent, Node node)
+        throws ParseException {
+
+        // Default implementation does nothing
+    }
+
     /**
      * Returns a child at the specified position. If either the node
      * or the child node is null, this method will throw a parse
@@ -333,6 +519,80 @@ public class Analyzer {
         }
     }
 
+    /**
+     * Returns the node integer value slot at the specified position.
+     * If either the node is null, or the node has no integer slot at
+     * the position, this method will throw a parse exception with
+     * the internal error type.
+     *
+     * @param node           the parse tree node
+     * @param pos            the slot position
+     *
+     * @return the integer slot value
+     *
+     * @throws ParseException if either the node was null, or the
+     *             integer slot didn't exist
+     *
+     * @see Node#addIntSlot(int)
+     *
+     * @since 1.6
+     */
+    protected int getIntSlot(Node node, int pos) throws ParseException {
+        if (node == null) {
+            throw new ParseException(
+                ParseException.INTERNAL_ERROR,
+                "attempt to read 'null' parse tree node",
+                -1,
+                -1);
+        } else if (pos < 0 || pos >= node.getIntSlotCount()) {
+            throw new ParseException(
+                ParseException.INTERNAL_ERROR,
+                "node '" + node.getName() + "' has no integer slot " +
+                "at position " + pos,
+                node.getStartLine(),
+                node.getStartColumn());
+        }
+        return node.getIntSlot(pos);
+    }
+
+    /**
+     * Returns the node floating-point value slot at the specified
+     * position. If either the node is null, or the node has no
+     * floating-point slot at the position, this method will throw a
+     * parse exception with the internal error type.
+     *
+     * @param node           the parse tree node
+     * @param pos            the slot position
+     *
+     * @return the floating-point slot value
+     *
+     * @throws ParseException if either the node was null, or the
+     *             floating-point slot didn't exist
+     *
+     * @see Node#addDoubleSlot(double)
+     *
+     * @since 1.6
+     */
+    protected double getDoubleSlot(Node node, int pos)
+        throws ParseException {
+
+        if (node == null) {
+            throw new ParseException(
+                ParseException.INTERNAL_ERROR,
+                "attempt to read 'null' parse tree node",
+                -1,
+                -1);
+        } else if (pos < 0 || pos >= node.getDoubleSlotCount()) {
+            throw new ParseException(
+                ParseException.INTERNAL_ERROR,
+                "node '" + node.getName() + "' has no floating-point " +
+                "slot at position " + pos,
+                node.getStartLine(),
+                node.getStartColumn());
+        }
+        return node.getDoubleSlot(pos);
+    }
+
     /**
      * Returns the node string value at the specified position. If
      * either the node is null, or the value is not an instance of
@@ -0,0 +1,373 @@
+/*
+ * CompositeAnalyzer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * A composite parse tree analyzer. This class forwards all the
+ * callback methods to a list of analyzers, so that several analyzers
+ * can be run in a single tree traversal or during a single parse.
+ * The callbacks are forwarded to each analyzer in list order.<p>
+ *
+ * Each analyzer uses a separate value space, identified by the
+ * analyzer index in the list. The node values for the first
+ * analyzer are stored in the parse tree nodes as usual, while the
+ * values for the other analyzers are kept in this class. The node
+ * values are switched to the corresponding value space before each
+ * callback, so the analyzers cannot see the values computed by each
+ * other. After the analysis, the values for a specific analyzer are
+ * retrieved by first calling setValueSpace() with the node and the
+ * analyzer index. The stored values are kept until reset() is
+ * called.<p>
+ *
+ * The parse tree structure is determined by the first analyzer in
+ * the list. All analyzers are called with the same nodes, and only
+ * the node returned from the first exit() callback and the child
+ * nodes added by the first child() callback are kept in the tree.
+ * Errors thrown by the analyzers are collected, so that all
+ * analyzers are called for each callback. All errors are then added
+ * together to the error log.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class CompositeAnalyzer extends Analyzer {
+
+    /**
+     * The analyzers to forward callbacks to.
+     */
+    private Analyzer[] analyzers;
+
+    /**
+     * The value spaces for the nodes. This map contains a value
+     * space entry for each node having been switched to another
+     * value space than the first one.
+     */
+    private IdentityHashMap spaces = new IdentityHashMap();
+
+    /**
+     * Creates a new composite analyzer.
+     *
+     * @param analyzers      the analyzers to forward callbacks to
+     */
+    public CompositeAnalyzer(Analyzer[] analyzers) {
+        this.analyzers = (Analyzer[]) analyzers.clone();
+    }
+
+    /**
+     * Returns the number of analyzers.
+     *
+     * @return the number of analyzers
+     */
+    public int getAnalyzerCount() {
+        return analyzers.length;
+    }
+
+    /**
+     * Returns the analyzer with the specified index. The index is
+     * also the value space number used by the analyzer.
+     *
+     * @param index          the analyzer index, starting at 0
+     *
+     * @return the analyzer found
+     */
+    public Analyzer getAnalyzer(int index) {
+        return analyzers[index];
+    }
+
+    /**
+     * Sets the current value space for a node. All the node value
+     * methods will then access the values computed by the analyzer
+     * with the specified index. The values in the other spaces are
+     * kept unmodified.
+     *
+     * @param node           the parse tree node
+     * @param index          the analyzer index, starting at 0
+     */
+    public void setValueSpace(Node node, int index) {
+        Spaces  entry;
+
+        synchronized (spaces) {
+            entry = (Spaces) spaces.get(node);
+            if (entry == null) {
+                if (index == 0) {
+                    return;
+                }
+                entry = new Spaces(analyzers.length);
+                spaces.put(node, entry);
+            }
+        }
+        if (entry.current != index) {
+            node.swapValues(entry.saved[entry.current]);
+            node.swapValues(entry.saved[index]);
+            entry.current = index;
+        }
+    }
+
+    /**
+     * Resets all the analyzers when the parser is reset for another
+     * input stream. All the stored node values for the other value
+     * spaces are also removed.
+     */
+    public void reset() {
+        synchronized (spaces) {
+            spaces.clear();
+        }
+        for (int i = 0; i < analyzers.length; i++) {
+            analyzers[i].reset();
+        }
+    }
+
+    /**
+     * Creates a new production node. The production node is created
+     * by the first analyzer.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the new production node
+     */
+    protected Production newProduction(ProductionPattern pattern) {
+        if (analyzers.length > 0) {
+            return analyzers[0].newProduction(pattern);
+        } else {
+            return super.newProduction(pattern);
+        }
+    }
+
+    /**
+     * Called when entering a parse tree node. The callback is
+     * forwarded to all analyzers. Any previously stored values for
+     * the node in the other value spaces are removed first.
+     *
+     * @param node           the node being entered
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void enter(Node node) throws ParseException {
+        ArrayList  errors = null;
+
+        synchronized (spaces) {
+            spaces.remove(node);
+        }
+        for (int i = 0; i < analyzers.length; i++) {
+            setValueSpace(node, i);
+            try {
+                analyzers[i].enter(node);
+            } catch (ParseException e) {
+                errors = collect(errors, e);
+            }
+        }
+        throwErrors(errors);
+    }
+
+    /**
+     * Called when exiting a parse tree node. The callback is
+     * forwarded to all analyzers with the same node, and the node
+     * returned by the first analyzer is added to the parse tree. If
+     * that is another node, the values in the other value spaces
+     * are moved to it.
+     *
+     * @param node           the node being exited
+     *
+     * @return the node to add to the parse tree, or
+     *         null if no parse tree should be created
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected Node exit(Node node) throws ParseException {
+        ArrayList  errors = null;
+        Node       result = null;
+        Node       other;
+
+        for (int i = 0; i < analyzers.length; i++) {
+            setValueSpace(node, i);
+            for (int j = 0; j < node.getChildCount(); j++) {
+                setValueSpace(node.getChildAt(j), i);
+            }
+            try {
+                other = analyzers[i].exit(node);
+                if (i == 0) {
+                    result = other;
+                }
+            } catch (ParseException e) {
+                errors = collect(errors, e);
+            }
+        }
+        if (analyzers.length == 0) {
+            result = node;
+        } else if (result != null && result != node) {
+            setValueSpace(node, 0);
+            synchronized (spaces) {
+                if (spaces.containsKey(node)) {
+                    spaces.put(result, spaces.remove(node));
+                }
+            }
+        }
+        throwErrors(errors);
+        return result;
+    }
+
+    /**
+     * Called when adding a child to a parse tree node. The callback
+     * is forwarded to all analyzers, but only the child nodes added
+     * by the first analyzer are kept. The parent reference of the
+     * child node is also restored after the other analyzers.
+     *
+     * @param node           the parent node
+     * @param child          the child node, or null
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void child(Production node, Node child)
+        throws ParseException {
+
+        ArrayList  errors = null;
+        Node       parent = null;
+        int        count = 0;
+
+        for (int i = 0; i < analyzers.length; i++) {
+            setValueSpace(node, i);
+            if (child != null) {
+                setValueSpace(child, i);
+            }
+            try {
+                analyzers[i].child(node, child);
+            } catch (ParseException e) {
+                errors = collect(errors, e);
+            }
+            if (i == 0) {
+                count = node.getChildCount();
+                parent = (child == null) ? null : child.getParent();
+            } else if (node.getChildCount() > count) {
+                node.removeChildren(count);
+                if (child != null) {
+                    child.setParent(parent);
+                }
+            }
+        }
+        throwErrors(errors);
+    }
+
+    /**
+     * Called when a detachable production node has been removed from
+     * its parent node. The callback is forwarded to all analyzers.
+     *
+     * @param parent         the parent node
+     * @param node           the detached child node
+     *
+     * @throws ParseException if the node analysis discovered errors
+     */
+    protected void detach(Production parent, Node node)
+        throws ParseException {
+
+        ArrayList  errors = null;
+
+        for (int i = 0; i < analyzers.length; i++) {
+            setValueSpace(parent, i);
+            setValueSpace(node, i);
+            try {
+                analyzers[i].detach(parent, node);
+            } catch (ParseException e) {
+                errors = collect(errors, e);
+            }
+        }
+        throwErrors(errors);
+    }
+
+    /**
+     * Adds an error to a list of errors.
+     *
+     * @param errors         the list of errors, or null
+     * @param e              the error to add
+     *
+     * @return the list of errors
+     */
+    private ArrayList collect(ArrayList errors, ParseException e) {
+        if (errors == null) {
+            errors = new ArrayList();
+        }
+        errors.add(e);
+        return errors;
+    }
+
+    /**
+     * Throws the errors in a list of errors. A single error is
+     * thrown unmodified, while several errors are copied into a new
+     * chain of errors. The errors thrown by the analyzers are never
+     * modified, as they may be reused by the analyzers.
+     *
+     * @param errors         the list of errors, or null
+     *
+     * @throws ParseException if the list contained any errors
+     */
+    private void throwErrors(ArrayList errors) throws ParseException {
+        ParseException  first = null;
+        ParseException  last = null;
+        ParseException  e;
+
+        if (errors == null) {
+            return;
+        } else if (errors.size() == 1) {
+            throw (ParseException) errors.get(0);
+        }
+        for (int i = 0; i < errors.size(); i++) {
+            e = (ParseException) errors.get(i);
+            for (; e != null; e = e.getNext()) {
+                if (first == null) {
+                    first = e.copy();
+                    last = first;
+                } else {
+                    last.setNext(e.copy());
+                    last = last.getNext();
+                }
+            }
+        }
+        throw first;
+    }
+
+
+    /**
+     * The stored node values for all value spaces of a node.
+     */
+    private static class Spaces {
+
+        /**
+         * The current value space number.
+         */
+        public int current = 0;
+
+        /**
+         * The stored node values for each value space. The values
+         * for the current value space are stored in the node, so
+         * that entry is always empty.
+         */
+        public Node.Values[] saved;
+
+        /**
+         * Creates a new value space entry.
+         *
+         * @param count          the number of value spaces
+         */
+        public Spaces(int count) {
+            saved = new Node.Values[count];
+            for (int i = 0; i < count; i++) {
+                saved[i] = new Node.Values();
+            }
+        }
+    }
+}
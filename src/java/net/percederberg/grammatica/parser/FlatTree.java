@@ -0,0 +1,804 @@
+/*
+ * FlatTree.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.HashMap;
+
+/**
+ * A compact array-backed parse tree. This class stores the parse
+ * tree nodes in parallel integer arrays instead of as separate
+ * objects, using only a few integers per node. Each node is
+ * identified by its index, with the root node at index zero (0).
+ * The node id is stored together with the node kind, so that token
+ * ids are stored as the bitwise complement (~id) of the id. The tree
+ * is built from the parse events, without creating any parse tree
+ * nodes:
+ *
+ * <pre>
+ *     FlatTree  tree = new FlatTree(parser, input);
+ *
+ *     parser.parse(tree);
+ *     ... tree.getRoot() ...
+ * </pre>
+ *
+ * The tree can be traversed either by node index, or through
+ * read-only node views. The views are created on demand and are
+ * compatible with the normal parse tree nodes, so that the tree can
+ * be processed by an analyzer. The node views are not retained by
+ * the tree, and any values added to them will be lost. The token
+ * images and the line and column numbers are computed from the
+ * input characters, if available.<p>
+ *
+ * Subclasses may store the node data elsewhere by overriding the
+ * storage methods.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ *
+ * @see RecursiveDescentParser#parse(ParseListener)
+ */
+public class FlatTree implements ParseListener {
+
+    /**
+     * The node type field. This field contains the production id,
+     * or the bitwise complement of the token id.
+     */
+    protected static final int TYPE = 0;
+
+    /**
+     * The parent node index field.
+     */
+    protected static final int PARENT = 1;
+
+    /**
+     * The first child node index field.
+     */
+    protected static final int FIRST_CHILD = 2;
+
+    /**
+     * The next sibling node index field.
+     */
+    protected static final int NEXT_SIBLING = 3;
+
+    /**
+     * The start character offset field.
+     */
+    protected static final int OFFSET = 4;
+
+    /**
+     * The character length field.
+     */
+    protected static final int LENGTH = 5;
+
+    /**
+     * The number of fields stored for each node.
+     */
+    protected static final int FIELD_COUNT = 6;
+
+    /**
+     * The parser providing the production and token patterns.
+     */
+    private Parser parser;
+
+    /**
+     * The input characters, or null if not available.
+     */
+    private CharSequence input;
+
+    /**
+     * The node data arrays, indexed first by field and then by node
+     * index. The arrays are created when the first node is added.
+     */
+    private int[][] data = new int[FIELD_COUNT][];
+
+    /**
+     * The number of nodes in the tree.
+     */
+    private int count = 0;
+
+    /**
+     * The indices of the open production nodes while building the
+     * tree.
+     */
+    private int[] open = new int[32];
+
+    /**
+     * The index of the last child for each open production node, or
+     * -1 if no children have been added.
+     */
+    private int[] last = new int[32];
+
+    /**
+     * The number of open production nodes while building the tree.
+     */
+    private int depth = 0;
+
+    /**
+     * The character offsets of the line starts in the input. This
+     * array is created when first needed.
+     */
+    private int[] lines = null;
+
+    /**
+     * The token patterns found, indexed by the token id.
+     */
+    private HashMap tokenPatterns = new HashMap();
+
+    /**
+     * The node index to fill while building, or null for none.
+     */
+    private NodeIndex nodeIndex = null;
+
+    /**
+     * Creates a new empty array-backed parse tree.
+     *
+     * @param parser         the parser providing the patterns
+     * @param input          the input characters, or null
+     */
+    public FlatTree(Parser parser, CharSequence input) {
+        this.parser = parser;
+        this.input = input;
+    }
+
+    /**
+     * Removes all nodes from the tree.
+     */
+    public void clear() {
+        count = 0;
+        depth = 0;
+        clearStorage();
+        if (nodeIndex != null) {
+            nodeIndex.clear();
+        }
+    }
+
+    /**
+     * Returns the node index filled while building the tree.
+     *
+     * @return the node index, or
+     *         null if no index is used
+     */
+    public NodeIndex getNodeIndex() {
+        return nodeIndex;
+    }
+
+    /**
+     * Sets the node index to fill while building the tree. The index
+     * is cleared together with the tree, and the indices of all
+     * added nodes are then added to it in document order.
+     *
+     * @param index          the node index, or null for none
+     */
+    public void setNodeIndex(NodeIndex index) {
+        this.nodeIndex = index;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return the number of nodes in the tree
+     */
+    public int getNodeCount() {
+        return count;
+    }
+
+    /**
+     * Returns a node view of the root node.
+     *
+     * @return the root node view, or
+     *         null if the tree is empty
+     */
+    public Node getRoot() {
+        return getNode(0);
+    }
+
+    /**
+     * Returns a node view of the specified node. A new view is
+     * created for each call. The view will have no parent node,
+     * unless created from the parent node view.
+     *
+     * @param node           the node index
+     *
+     * @return the node view, or
+     *         null if the index was out of bounds
+     */
+    public Node getNode(int node) {
+        if (node < 0 || node >= count) {
+            return null;
+        } else {
+            return createView(node, null);
+        }
+    }
+
+    /**
+     * Checks if a node is a token.
+     *
+     * @param node           the node index
+     *
+     * @return true if the node is a token, or
+     *         false if it is a production
+     */
+    public boolean isToken(int node) {
+        return get(node, TYPE) < 0;
+    }
+
+    /**
+     * Returns the token or production id of a node.
+     *
+     * @param node           the node index
+     *
+     * @return the token or production id
+     */
+    public int getId(int node) {
+        int  type = get(node, TYPE);
+
+        return (type < 0) ? ~type : type;
+    }
+
+    /**
+     * Returns the parent of a node.
+     *
+     * @param node           the node index
+     *
+     * @return the parent node index, or
+     *         -1 for the root node
+     */
+    public int getParent(int node) {
+        return get(node, PARENT);
+    }
+
+    /**
+     * Returns the first child of a node.
+     *
+     * @param node           the node index
+     *
+     * @return the first child node index, or
+     *         -1 if the node has no children
+     */
+    public int getFirstChild(int node) {
+        return get(node, FIRST_CHILD);
+    }
+
+    /**
+     * Returns the next sibling of a node.
+     *
+     * @param node           the node index
+     *
+     * @return the next sibling node index, or
+     *         -1 if the node is the last child
+     */
+    public int getNextSibling(int node) {
+        return get(node, NEXT_SIBLING);
+    }
+
+    /**
+     * Returns the start character offset of a node. For production
+     * nodes, this is the offset of the first token.
+     *
+     * @param node           the node index
+     *
+     * @return the start character offset, or
+     *         -1 if unknown
+     */
+    public int getOffset(int node) {
+        return get(node, OFFSET);
+    }
+
+    /**
+     * Returns the character length of a node. For production nodes,
+     * this is the length from the start of the first token to the
+     * end of the last token.
+     *
+     * @param node           the node index
+     *
+     * @return the character length
+     */
+    public int getLength(int node) {
+        return get(node, LENGTH);
+    }
+
+    /**
+     * Adds a production node to the tree. All the following nodes
+     * will be added as children to this node, until the production
+     * is ended. If no production is open, any previous tree content
+     * is removed first.
+     *
+     * @param id             the production pattern id
+     */
+    public void startProduction(int id) {
+        int  node;
+
+        if (depth == 0) {
+            clear();
+        }
+        node = add(id, -1, 0);
+        if (depth >= open.length) {
+            open = grow(open);
+            last = grow(last);
+        }
+        open[depth] = node;
+        last[depth] = -1;
+        depth++;
+    }
+
+    /**
+     * Adds a token node to the tree.
+     *
+     * @param id             the token pattern id
+     * @param offset         the token start character offset
+     * @param length         the token length in characters
+     */
+    public void token(int id, int offset, int length) {
+        add(~id, offset, length);
+    }
+
+    /**
+     * Ends the current production node. The production character
+     * offset and length are calculated from the child nodes.
+     *
+     * @param id             the production pattern id
+     */
+    public void endProduction(int id) {
+        int  node;
+        int  first;
+        int  end;
+
+        depth--;
+        node = open[depth];
+        first = get(node, FIRST_CHILD);
+        if (first >= 0 && get(first, OFFSET) >= 0) {
+            end = get(last[depth], OFFSET) + get(last[depth], LENGTH);
+            set(node, OFFSET, get(first, OFFSET));
+            set(node, LENGTH, end - get(first, OFFSET));
+        }
+    }
+
+    /**
+     * Adds a node last in the current production node.
+     *
+     * @param type           the node type
+     * @param offset         the start character offset
+     * @param length         the character length
+     *
+     * @return the index of the new node
+     */
+    private int add(int type, int offset, int length) {
+        int  node = count;
+        int  parent = (depth > 0) ? open[depth - 1] : -1;
+
+        ensureCapacity(node + 1);
+        set(node, TYPE, type);
+        set(node, PARENT, parent);
+        set(node, FIRST_CHILD, -1);
+        set(node, NEXT_SIBLING, -1);
+        set(node, OFFSET, offset);
+        set(node, LENGTH, length);
+        if (nodeIndex != null) {
+            nodeIndex.add((type < 0) ? ~type : type, node);
+        }
+        if (depth > 0) {
+            if (last[depth - 1] < 0) {
+                set(parent, FIRST_CHILD, node);
+            } else {
+                set(last[depth - 1], NEXT_SIBLING, node);
+            }
+            last[depth - 1] = node;
+        }
+        count++;
+        return node;
+    }
+
+    /**
+     * Returns a node field value. This method can be overridden to
+     * store the node data elsewhere.
+     *
+     * @param node           the node index
+     * @param field          the field number
+     *
+     * @return the field value
+     */
+    protected int get(int node, int field) {
+        return data[field][node];
+    }
+
+    /**
+     * Sets a node field value. This method can be overridden to
+     * store the node data elsewhere.
+     *
+     * @param node           the node index
+     * @param field          the field number
+     * @param value          the new field value
+     */
+    protected void set(int node, int field, int value) {
+        data[field][node] = value;
+    }
+
+    /**
+     * Ensures that the storage has room for the specified number of
+     * nodes. This method can be overridden to store the node data
+     * elsewhere.
+     *
+     * @param size           the minimum number of nodes
+     */
+    protected void ensureCapacity(int size) {
+        int    length = (data[0] == null) ? 0 : data[0].length;
+        int[]  copy;
+
+        if (size > length) {
+            length = Math.max(length, 1024);
+            while (size > length) {
+                length *= 2;
+            }
+            for (int i = 0; i < FIELD_COUNT; i++) {
+                copy = new int[length];
+                if (data[i] != null) {
+                    System.arraycopy(data[i], 0, copy, 0, count);
+                }
+                data[i] = copy;
+            }
+        }
+    }
+
+    /**
+     * Removes all node data from the storage. This method can be
+     * overridden to store the node data elsewhere.
+     */
+    protected void clearStorage() {
+        // Nothing to clear, the arrays are overwritten
+    }
+
+    /**
+     * Doubles the size of an integer array.
+     *
+     * @param array          the array to copy
+     *
+     * @return the new array
+     */
+    private int[] grow(int[] array) {
+        int[]  copy = new int[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Creates a node view.
+     *
+     * @param node           the node index
+     * @param parent         the parent node view, or null
+     *
+     * @return the node view created
+     */
+    private Node createView(int node, Node parent) {
+        Node          view;
+        Token         token;
+        TokenPattern  pattern;
+        int           offset;
+        int           length;
+        String        image;
+
+        if (isToken(node)) {
+            pattern = getTokenPattern(getId(node));
+            offset = get(node, OFFSET);
+            length = get(node, LENGTH);
+            if (input == null) {
+                image = "";
+            } else {
+                image = input.subSequence(offset, offset + length).toString();
+            }
+            token = new Token(pattern,
+                              image,
+                              getLine(offset),
+                              getColumn(offset));
+            token.setStartOffset(offset);
+            view = token;
+        } else {
+            view = new ProductionView(node);
+        }
+        view.setParent(parent);
+        return view;
+    }
+
+    /**
+     * Returns the token pattern with the specified id.
+     *
+     * @param id             the token pattern id
+     *
+     * @return the token pattern
+     */
+    private TokenPattern getTokenPattern(int id) {
+        Integer       key = Integer.valueOf(id);
+        TokenPattern  pattern = (TokenPattern) tokenPatterns.get(key);
+
+        if (pattern == null) {
+            pattern = parser.getTokenizer().getPattern(id);
+            tokenPatterns.put(key, pattern);
+        }
+        return pattern;
+    }
+
+    /**
+     * Returns the line number of a character offset.
+     *
+     * @param offset         the character offset
+     *
+     * @return the line number, or
+     *         -1 if unknown
+     */
+    private int getLine(int offset) {
+        return (input == null) ? -1 : findLine(offset) + 1;
+    }
+
+    /**
+     * Returns the column number of a character offset.
+     *
+     * @param offset         the character offset
+     *
+     * @return the column number, or
+     *         -1 if unknown
+     */
+    private int getColumn(int offset) {
+        return (input == null) ? -1 : offset - lines[findLine(offset)] + 1;
+    }
+
+    /**
+     * Finds the line containing a character offset. The line starts
+     * array is created if needed.
+     *
+     * @param offset         the character offset
+     *
+     * @return the line index, starting from zero (0)
+     */
+    private int findLine(int offset) {
+        int  low = 0;
+        int  high;
+        int  mid;
+
+        if (lines == null) {
+            lines = findLineStarts(input);
+        }
+        high = lines.length - 1;
+        while (low < high) {
+            mid = (low + high + 1) / 2;
+            if (lines[mid] <= offset) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the character offsets of all line starts in a character
+     * sequence.
+     *
+     * @param str            the character sequence
+     *
+     * @return the line start offsets
+     */
+    private static int[] findLineStarts(CharSequence str) {
+        int[]  result = new int[16];
+        int[]  copy;
+        int    size = 1;
+
+        result[0] = 0;
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) == '\n') {
+                if (size >= result.length) {
+                    copy = new int[result.length * 2];
+                    System.arraycopy(result, 0, copy, 0, size);
+                    result = copy;
+                }
+                result[size++] = i + 1;
+            }
+        }
+        copy = new int[size];
+        System.arraycopy(result, 0, copy, 0, size);
+        return copy;
+    }
+
+    /**
+     * A read-only production node view. The child node indices are
+     * collected when first needed, and new child node views are
+     * created for each call to getChildAt().
+     */
+    private class ProductionView extends Production {
+
+        /**
+         * The node index.
+         */
+        private int node;
+
+        /**
+         * The child node indices, or null if not yet collected.
+         */
+        private int[] children = null;
+
+        /**
+         * Creates a new production node view.
+         *
+         * @param node           the node index
+         */
+        public ProductionView(int node) {
+            super(parser.getNodePattern(FlatTree.this.getId(node)));
+            this.node = node;
+        }
+
+        /**
+         * Returns the number of child nodes.
+         *
+         * @return the number of child nodes
+         */
+        public int getChildCount() {
+            return getChildren().length;
+        }
+
+        /**
+         * Returns a view of the child node with the specified index.
+         *
+         * @param index          the child index, starting at 0
+         *
+         * @return the child node view, or
+         *         null if index out of bounds
+         */
+        public Node getChildAt(int index) {
+            int[]  list = getChildren();
+
+            if (index < 0 || index >= list.length) {
+                return null;
+            } else {
+                return createView(list[index], this);
+            }
+        }
+
+        /**
+         * The line number of the first character in this node.
+         *
+         * @return the line number of the first character, or
+         *         -1 if not applicable
+         */
+        public int getStartLine() {
+            return isEmpty() ? -1 : getLine(getStartOffset());
+        }
+
+        /**
+         * The column number of the first character in this node.
+         *
+         * @return the column number of the first character, or
+         *         -1 if not applicable
+         */
+        public int getStartColumn() {
+            return isEmpty() ? -1 : getColumn(getStartOffset());
+        }
+
+        /**
+         * The line number of the last character in this node.
+         *
+         * @return the line number of the last character, or
+         *         -1 if not applicable
+         */
+        public int getEndLine() {
+            return isEmpty() ? -1 : getLine(getEndOffset() - 1);
+        }
+
+        /**
+         * The column number of the last character in this node.
+         *
+         * @return the column number of the last character, or
+         *         -1 if not applicable
+         */
+        public int getEndColumn() {
+            return isEmpty() ? -1 : getColumn(getEndOffset() - 1);
+        }
+
+        /**
+         * The character offset of the first character in this node.
+         *
+         * @return the character offset of the first character, or
+         *         -1 if not applicable
+         */
+        public int getStartOffset() {
+            return getOffset(node);
+        }
+
+        /**
+         * The character offset following the last character in this
+         * node.
+         *
+         * @return the character offset following the last character,
+         *         or -1 if not applicable
+         */
+        public int getEndOffset() {
+            int  offset = getOffset(node);
+
+            return (offset < 0) ? -1 : offset + getLength(node);
+        }
+
+        /**
+         * Checks if the position span is read from the child nodes.
+         *
+         * @return false, as the position span is computed
+         */
+        boolean isSpanFromChildren() {
+            return false;
+        }
+
+        /**
+         * Returns the number of descendant nodes. As the nodes are
+         * stored in depth-first order, this is the distance to the
+         * next node outside this subtree.
+         *
+         * @return the number of descendant nodes
+         */
+        public int getDescendantCount() {
+            int  next;
+
+            for (int n = node; n >= 0; n = FlatTree.this.getParent(n)) {
+                next = getNextSibling(n);
+                if (next >= 0) {
+                    return next - node - 1;
+                }
+            }
+            return getNodeCount() - node - 1;
+        }
+
+        /**
+         * Throws an exception, as the node view is read-only.
+         *
+         * @param child          the child node to add
+         *
+         * @throws UnsupportedOperationException always
+         */
+        public void addChild(Node child) {
+            throw new UnsupportedOperationException("read-only node view");
+        }
+
+        /**
+         * Checks if this node has no characters.
+         *
+         * @return true if the node has no characters, or
+         *         false otherwise
+         */
+        private boolean isEmpty() {
+            return getOffset(node) < 0 || getLength(node) <= 0;
+        }
+
+        /**
+         * Returns the child node indices.
+         *
+         * @return the child node indices
+         */
+        private int[] getChildren() {
+            int  size = 0;
+            int  child;
+
+            if (children == null) {
+                child = getFirstChild(node);
+                for (; child >= 0; child = getNextSibling(child)) {
+                    size++;
+                }
+                children = new int[size];
+                size = 0;
+                child = getFirstChild(node);
+                for (; child >= 0; child = getNextSibling(child)) {
+                    children[size++] = child;
+                }
+            }
+            return children;
+        }
+    }
+}
@@ -0,0 +1,666 @@
+/*
+ * GrammarOptimizer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+/**
+ * A grammar optimizer. This class simplifies a set of production
+ * patterns before the look-ahead analysis, reducing the number of
+ * productions that must be analyzed and parsed. The following
+ * optimizations are performed:
+ *
+ * <ul>
+ *   <li>Chains of single-child productions (i.e. "A = B") are
+ *       collapsed, so that references to A refer directly to B.
+ *   <li>Productions with a single alternative consisting only of
+ *       tokens are inlined into every reference that isn't repeated
+ *       or optional (i.e. "A = B" with "B = X Y" becomes "A = X Y").
+ *   <li>Productions where each alternative is a single token (i.e.
+ *       "A = X | Y") are inlined into alternatives consisting only
+ *       of a reference to the production.
+ *   <li>Identical alternatives created by inlining single token
+ *       alternatives are merged. Any other identical alternatives
+ *       are reported as an inherent ambiguity, as they would have
+ *       been without the optimizer.
+ *   <li>Productions not reachable from the start production are
+ *       removed.
+ * </ul>
+ *
+ * Removing a production that isn't synthetic changes the parse
+ * tree. If the original production ids should be preserved, only
+ * chains of single-child productions will be collapsed and the
+ * removed productions are recorded in the referring elements. The
+ * parser will then create the production nodes for them as before.
+ *
+ * The optimizer never modifies the production patterns passed to
+ * it, but creates new patterns with the same ids and names.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class GrammarOptimizer {
+
+    /**
+     * The preserve production ids flag.
+     */
+    private boolean preserveIds;
+
+    /**
+     * The ordered list of original production patterns.
+     */
+    private ArrayList patterns = new ArrayList();
+
+    /**
+     * The map with production alternatives for each pattern id. Each
+     * alternative is represented by an ArrayList of production
+     * pattern elements.
+     */
+    private HashMap alternatives = new HashMap();
+
+    /**
+     * The set of alternatives created by inlining single token
+     * alternatives. The alternative element lists are used as keys.
+     */
+    private IdentityHashMap inlined = new IdentityHashMap();
+
+    /**
+     * Creates a new grammar optimizer.
+     *
+     * @param preserveIds    the preserve production ids flag
+     */
+    public GrammarOptimizer(boolean preserveIds) {
+        this.preserveIds = preserveIds;
+    }
+
+    /**
+     * Optimizes a set of production patterns. The first pattern is
+     * assumed to be the start pattern, and will never be removed.
+     *
+     * @param list           the ordered set of production patterns
+     *
+     * @return the ordered set of optimized production patterns
+     *
+     * @throws ParserCreationException if the optimized production
+     *             patterns couldn't be created
+     */
+    public ArrayList optimize(Collection list)
+        throws ParserCreationException {
+
+        boolean  changed;
+
+        load(list);
+        do {
+            changed = collapseChains();
+            if (inlineTokens()) {
+                changed = true;
+            }
+        } while (changed);
+        mergeAlternatives();
+        return createPatterns(findReachable());
+    }
+
+    /**
+     * Loads the production patterns into the internal mutable
+     * representation.
+     *
+     * @param list           the ordered set of production patterns
+     */
+    private void load(Collection list) {
+        Iterator                      iter = list.iterator();
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ArrayList                     alts;
+        ArrayList                     elems;
+
+        while (iter.hasNext()) {
+            pattern = (ProductionPattern) iter.next();
+            alts = new ArrayList();
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                alt = pattern.getAlternative(i);
+                elems = new ArrayList();
+                for (int j = 0; j < alt.getElementCount(); j++) {
+                    elems.add(alt.getElement(j));
+                }
+                alts.add(elems);
+            }
+            patterns.add(pattern);
+            alternatives.put(Integer.valueOf(pattern.getId()), alts);
+        }
+    }
+
+    /**
+     * Collapses chains of single-child productions. All references to
+     * a production consisting of a single reference to another
+     * production are replaced by references to the other production.
+     *
+     * @return true if any reference was replaced, or
+     *         false otherwise
+     */
+    private boolean collapseChains() {
+        ProductionPattern         pattern;
+        ProductionPatternElement  target;
+        ProductionPattern[]       chain;
+        boolean                   changed = false;
+
+        for (int i = 1; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            target = getCollapseTarget(pattern);
+            if (target != null) {
+                chain = target.getCollapsed();
+                if (preserveIds && !pattern.isSynthetic()) {
+                    chain = concat(new ProductionPattern[] { pattern }, chain);
+                }
+                if (replaceReferences(pattern.getId(), target, chain)) {
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the single production element of a production pattern
+     * that can be collapsed. A production can be collapsed if it has
+     * a single alternative, consisting of a single required
+     * reference to another production that isn't synthetic.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the production element to replace references with, or
+     *         null if the production cannot be collapsed
+     */
+    private ProductionPatternElement getCollapseTarget(
+        ProductionPattern pattern) {
+
+        ArrayList                 alts = getAlternatives(pattern.getId());
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+
+        if (alts.size() != 1) {
+            return null;
+        }
+        elems = (ArrayList) alts.get(0);
+        if (elems.size() != 1) {
+            return null;
+        }
+        elem = (ProductionPatternElement) elems.get(0);
+        if (elem.isToken()
+         || elem.getMinCount() != 1
+         || elem.getMaxCount() != 1
+         || elem.getId() == pattern.getId()
+         || getPattern(elem.getId()).isSynthetic()) {
+
+            return null;
+        }
+        return elem;
+    }
+
+    /**
+     * Replaces all references to a production pattern with
+     * references to another production.
+     *
+     * @param id             the production pattern id to replace
+     * @param target         the target production element
+     * @param chain          the collapsed patterns, or null
+     *
+     * @return true if any reference was replaced, or
+     *         false otherwise
+     */
+    private boolean replaceReferences(int id,
+                                      ProductionPatternElement target,
+                                      ProductionPattern[] chain) {
+
+        ArrayList                 alts;
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+        ProductionPatternElement  copy;
+        boolean                   changed = false;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            alts = getPatternAlternatives(i);
+            for (int j = 0; j < alts.size(); j++) {
+                elems = (ArrayList) alts.get(j);
+                for (int k = 0; k < elems.size(); k++) {
+                    elem = (ProductionPatternElement) elems.get(k);
+                    if (elem.isProduction() && elem.getId() == id) {
+                        copy = new ProductionPatternElement(false,
+                                                            target.getId(),
+                                                            elem.getMinCount(),
+                                                            elem.getMaxCount());
+                        copy.setCollapsed(concat(elem.getCollapsed(), chain));
+                        elems.set(k, copy);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Inlines token-only productions. Productions with a single
+     * alternative consisting of tokens are inlined into every
+     * reference that isn't repeated or optional. Productions with
+     * only single token alternatives are inlined into alternatives
+     * consisting only of a reference to the production. If the
+     * production ids should be preserved, only synthetic productions
+     * are inlined.
+     *
+     * @return true if any production was inlined, or
+     *         false otherwise
+     */
+    private boolean inlineTokens() {
+        ProductionPattern  pattern;
+        ArrayList          alts;
+        boolean            changed = false;
+
+        for (int i = 1; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            alts = getAlternatives(pattern.getId());
+            if (preserveIds && !pattern.isSynthetic()) {
+                // Inlining would remove production nodes
+            } else if (alts.size() == 1 && isTokenSequence(alts.get(0))) {
+                if (inlineSequence(pattern.getId(), (ArrayList) alts.get(0))) {
+                    changed = true;
+                }
+            } else if (alts.size() > 1 && isSingleTokens(alts)) {
+                if (inlineAlternatives(pattern.getId(), alts)) {
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if an alternative consists only of token elements.
+     *
+     * @param obj            the alternative element list
+     *
+     * @return true if the alternative only contains tokens, or
+     *         false otherwise
+     */
+    private boolean isTokenSequence(Object obj) {
+        ArrayList  elems = (ArrayList) obj;
+
+        for (int i = 0; i < elems.size(); i++) {
+            if (!((ProductionPatternElement) elems.get(i)).isToken()) {
+                return false;
+            }
+        }
+        return elems.size() > 0;
+    }
+
+    /**
+     * Checks if all alternatives consist of a single required token.
+     *
+     * @param alts           the list of alternatives
+     *
+     * @return true if all alternatives are single tokens, or
+     *         false otherwise
+     */
+    private boolean isSingleTokens(ArrayList alts) {
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+
+        for (int i = 0; i < alts.size(); i++) {
+            elems = (ArrayList) alts.get(i);
+            if (elems.size() != 1) {
+                return false;
+            }
+            elem = (ProductionPatternElement) elems.get(0);
+            if (!elem.isToken()
+             || elem.getMinCount() != 1
+             || elem.getMaxCount() != 1) {
+
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Inlines a token sequence into all elements referring to the
+     * production. Only references with both a minimum and maximum
+     * count of one (1) are inlined, as repeated or optional
+     * references cannot be replaced by a token sequence.
+     *
+     * @param id             the production pattern id
+     * @param sequence       the token sequence elements
+     *
+     * @return true if any reference was inlined, or
+     *         false otherwise
+     */
+    private boolean inlineSequence(int id, ArrayList sequence) {
+        ArrayList                 alts;
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+        boolean                   changed = false;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            alts = getPatternAlternatives(i);
+            for (int j = 0; j < alts.size(); j++) {
+                elems = (ArrayList) alts.get(j);
+                for (int k = 0; k < elems.size(); k++) {
+                    elem = (ProductionPatternElement) elems.get(k);
+                    if (elem.isProduction()
+                     && elem.getId() == id
+                     && elem.getMinCount() == 1
+                     && elem.getMaxCount() == 1
+                     && elem.getCollapsed() == null) {
+
+                        elems.remove(k);
+                        elems.addAll(k, sequence);
+                        k += sequence.size() - 1;
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Inlines a set of single token alternatives into all
+     * alternatives consisting only of a reference to the production.
+     *
+     * @param id             the production pattern id
+     * @param tokens         the single token alternatives
+     *
+     * @return true if any reference was inlined, or
+     *         false otherwise
+     */
+    private boolean inlineAlternatives(int id, ArrayList tokens) {
+        ArrayList                 alts;
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+        boolean                   changed = false;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            alts = getPatternAlternatives(i);
+            for (int j = 0; j < alts.size(); j++) {
+                elems = (ArrayList) alts.get(j);
+                if (elems.size() != 1) {
+                    continue;
+                }
+                elem = (ProductionPatternElement) elems.get(0);
+                if (elem.isProduction()
+                 && elem.getId() == id
+                 && elem.getMinCount() == 1
+                 && elem.getMaxCount() == 1
+                 && elem.getCollapsed() == null) {
+
+                    alts.remove(j);
+                    for (int k = 0; k < tokens.size(); k++) {
+                        elems = new ArrayList((ArrayList) tokens.get(k));
+                        inlined.put(elems, Boolean.TRUE);
+                        alts.add(j + k, elems);
+                    }
+                    j += tokens.size() - 1;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Merges identical alternatives in all productions. Only the
+     * first of a set of identical alternatives is kept. Alternatives
+     * are only merged if both were created by inlining single token
+     * alternatives. Other identical alternatives are ambiguous in
+     * the original grammar, and are reported as such.
+     *
+     * @throws ParserCreationException if two identical alternatives
+     *             weren't both created by inlining
+     */
+    private void mergeAlternatives() throws ParserCreationException {
+        ProductionPattern  pattern;
+        ArrayList          alts;
+        Object             alt;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            alts = getAlternatives(pattern.getId());
+            for (int j = alts.size() - 1; j > 0; j--) {
+                alt = alts.get(j);
+                for (int k = 0; k < j; k++) {
+                    if (!alts.get(k).equals(alt)) {
+                        continue;
+                    } else if (inlined.containsKey(alts.get(k))
+                            && inlined.containsKey(alt)
+                            && isIdentical(alts.get(k), alt)) {
+
+                        alts.remove(j);
+                        break;
+                    }
+                    throw new ParserCreationException(
+                        ParserCreationException.INHERENT_AMBIGUITY_ERROR,
+                        pattern.getName(),
+                        "at alternative " + (j + 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if two alternatives are identical. The alternatives are
+     * only identical if all the elements are equal and have the same
+     * collapsed production patterns.
+     *
+     * @param first          the first alternative element list
+     * @param second         the second alternative element list
+     *
+     * @return true if the alternatives are identical, or
+     *         false otherwise
+     */
+    private boolean isIdentical(Object first, Object second) {
+        ArrayList                 a = (ArrayList) first;
+        ArrayList                 b = (ArrayList) second;
+        ProductionPatternElement  elem;
+        ProductionPatternElement  other;
+
+        if (!a.equals(b)) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            elem = (ProductionPatternElement) a.get(i);
+            other = (ProductionPatternElement) b.get(i);
+            if (!Arrays.equals(elem.getCollapsed(), other.getCollapsed())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds all production patterns reachable from the start
+     * pattern.
+     *
+     * @return the set of reachable production pattern ids
+     */
+    private HashSet findReachable() {
+        HashSet                   result = new HashSet();
+        ArrayList                 queue = new ArrayList();
+        ProductionPattern         pattern;
+        Integer                   id;
+        ArrayList                 alts;
+        ArrayList                 elems;
+        ProductionPatternElement  elem;
+
+        if (patterns.size() > 0) {
+            pattern = (ProductionPattern) patterns.get(0);
+            queue.add(Integer.valueOf(pattern.getId()));
+        }
+        while (queue.size() > 0) {
+            id = (Integer) queue.remove(queue.size() - 1);
+            if (!result.add(id)) {
+                continue;
+            }
+            alts = (ArrayList) alternatives.get(id);
+            for (int i = 0; i < alts.size(); i++) {
+                elems = (ArrayList) alts.get(i);
+                for (int j = 0; j < elems.size(); j++) {
+                    elem = (ProductionPatternElement) elems.get(j);
+                    if (elem.isProduction()) {
+                        queue.add(Integer.valueOf(elem.getId()));
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates the optimized production patterns.
+     *
+     * @param reachable      the set of reachable pattern ids
+     *
+     * @return the ordered list of optimized production patterns
+     *
+     * @throws ParserCreationException if the optimized production
+     *             patterns couldn't be created
+     */
+    private ArrayList createPatterns(HashSet reachable)
+        throws ParserCreationException {
+
+        ArrayList                     result = new ArrayList();
+        ProductionPattern             pattern;
+        ProductionPattern             copy;
+        ProductionPatternAlternative  alt;
+        ArrayList                     alts;
+        ArrayList                     elems;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            if (!reachable.contains(Integer.valueOf(pattern.getId()))) {
+                continue;
+            }
+            copy = new ProductionPattern(pattern.getId(), pattern.getName());
+            copy.setSynthetic(pattern.isSynthetic());
+            copy.setDetachable(pattern.isDetachable());
+            copy.setLazy(pattern.getLazyOpen(), pattern.getLazyClose());
+            alts = getAlternatives(pattern.getId());
+            for (int j = 0; j < alts.size(); j++) {
+                elems = (ArrayList) alts.get(j);
+                alt = new ProductionPatternAlternative();
+                for (int k = 0; k < elems.size(); k++) {
+                    alt.addElement(copyElement(elems.get(k)));
+                }
+                copy.addAlternative(alt);
+            }
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a copy of a production pattern element. The copy will
+     * not include any look-ahead set.
+     *
+     * @param obj            the production pattern element
+     *
+     * @return the new production pattern element
+     */
+    private ProductionPatternElement copyElement(Object obj) {
+        ProductionPatternElement  elem = (ProductionPatternElement) obj;
+        ProductionPatternElement  copy;
+
+        copy = new ProductionPatternElement(elem.isToken(),
+                                            elem.getId(),
+                                            elem.getMinCount(),
+                                            elem.getMaxCount());
+        copy.setCollapsed(elem.getCollapsed());
+        return copy;
+    }
+
+    /**
+     * Returns an original production pattern.
+     *
+     * @param id             the production pattern id
+     *
+     * @return the production pattern, or
+     *         null if not found
+     */
+    private ProductionPattern getPattern(int id) {
+        ProductionPattern  pattern;
+
+        for (int i = 0; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            if (pattern.getId() == id) {
+                return pattern;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current list of alternatives for a production.
+     *
+     * @param id             the production pattern id
+     *
+     * @return the list of alternative element lists
+     */
+    private ArrayList getAlternatives(int id) {
+        return (ArrayList) alternatives.get(Integer.valueOf(id));
+    }
+
+    /**
+     * Returns the current list of alternatives for a production at
+     * the specified position.
+     *
+     * @param index          the production pattern position
+     *
+     * @return the list of alternative element lists
+     */
+    private ArrayList getPatternAlternatives(int index) {
+        ProductionPattern  pattern = (ProductionPattern) patterns.get(index);
+
+        return getAlternatives(pattern.getId());
+    }
+
+    /**
+     * Concatenates two production pattern arrays.
+     *
+     * @param first          the first array, or null
+     * @param second         the second array, or null
+     *
+     * @return the concatenated array, or
+     *         null if both arrays were null
+     */
+    private ProductionPattern[] concat(ProductionPattern[] first,
+                                       ProductionPattern[] second) {
+
+        ProductionPattern[]  result;
+
+        if (first == null) {
+            return second;
+        } else if (second == null) {
+            return first;
+        }
+        result = new ProductionPattern[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * LazyProduction.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A lazy production node. This class represents a delimited region
+ * that was skipped while parsing. The region tokens are stored in
+ * the node, and are parsed the first time the child nodes are
+ * accessed. The position span of the node is available without
+ * parsing the region.<p>
+ *
+ * The parser analyzer is only called for the lazy node itself, never
+ * for the nodes inside the region. When the child nodes are accessed
+ * the region is parsed with a default analyzer, so no analyzer
+ * callbacks are made. To analyze the region nodes while parsing,
+ * call expand(Analyzer) explicitly before accessing the child nodes.
+ * If the region contains parse errors, the node will have no child
+ * nodes. The errors can be retrieved by calling expand() explicitly.
+ * Until the region has been parsed, the descendant count doesn't
+ * include any nodes inside the region.<p>
+ *
+ * The node only refers to a stripped copy of the parser, holding the
+ * production patterns and token descriptions, so the parser and its
+ * tokenizer aren't kept in memory by the lazy nodes. Lazy nodes may
+ * be expanded from several threads, for example by a parallel
+ * analyzer. Each region is parsed by a private parser copy, and the
+ * child nodes are then added while holding a lock shared by all the
+ * lazy nodes from the same parser. Adding the child nodes updates
+ * the descendant counts of all ancestor nodes, so these values
+ * shouldn't be read by other threads while lazy nodes are being
+ * expanded.
+ *
+ * @see Parser#setLazy(int, boolean)
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class LazyProduction extends Production {
+
+    /**
+     * The region parser to use. The region parser also provides the
+     * lock used when adding the child nodes.
+     */
+    private RegionParser parser;
+
+    /**
+     * The region tokens, or null if already parsed.
+     */
+    private volatile Token[] region;
+
+    /**
+     * The region parse errors, or null if none. This value is set
+     * before the region is cleared.
+     */
+    private ParserLogException errors = null;
+
+    /**
+     * Creates a new lazy production node.
+     *
+     * @param parser         the region parser to use
+     * @param pattern        the production pattern
+     * @param region         the region tokens, including delimiters
+     */
+    LazyProduction(RegionParser parser,
+                   ProductionPattern pattern,
+                   Token[] region) {
+
+        super(pattern);
+        this.parser = parser;
+        this.region = region;
+    }
+
+    /**
+     * Checks if the region has been parsed.
+     *
+     * @return true if the region has been parsed, or
+     *         false otherwise
+     */
+    public boolean isExpanded() {
+        return region == null;
+    }
+
+    /**
+     * Parses the region and adds the child nodes. No analyzer
+     * callbacks are made for the region nodes. This method does
+     * nothing if the region has already been parsed, except for
+     * throwing any errors found when parsing. If several threads
+     * expand the same node concurrently, the child nodes are only
+     * added once.
+     *
+     * @throws ParserLogException if the region couldn't be parsed
+     *             correctly
+     */
+    public void expand() throws ParserLogException {
+        expand(new Analyzer());
+    }
+
+    /**
+     * Parses the region with an analyzer and adds the child nodes.
+     * The analyzer callbacks are made for all the nodes inside the
+     * region, and for a separate root production node, whose child
+     * nodes are then moved to this node. This method does nothing if
+     * the region has already been parsed, except for throwing any
+     * errors found when parsing. If several threads expand the same
+     * node concurrently, the child nodes are only added once, but
+     * the analyzer callbacks may still be made in each thread.
+     *
+     * @param analyzer       the analyzer to use for the region
+     *
+     * @throws ParserLogException if the region couldn't be parsed
+     *             correctly
+     */
+    public void expand(Analyzer analyzer) throws ParserLogException {
+        Token[]             tokens = region;
+        Node                node = null;
+        ParserLogException  log = null;
+        Node[]              children;
+
+        if (tokens != null) {
+            try {
+                node = parser.parse(getPattern(), tokens, analyzer);
+            } catch (ParserLogException e) {
+                log = e;
+            }
+            synchronized (parser.getLock()) {
+                if (region != null) {
+                    if (log != null) {
+                        errors = log;
+                    } else if (node instanceof Production) {
+                        children = new Node[node.getChildCount()];
+                        for (int i = 0; i < children.length; i++) {
+                            children[i] = node.getChildAt(i);
+                        }
+                        ((Production) node).removeAllChildren();
+                        for (int i = 0; i < children.length; i++) {
+                            super.addChild(children[i]);
+                        }
+                    }
+                    region = null;
+                }
+            }
+        }
+        if (errors != null) {
+            throw errors;
+        }
+    }
+
+    /**
+     * The line number of the first character in this node.
+     *
+     * @return the line number of the first character, or
+     *         -1 if not applicable
+     */
+    public int getStartLine() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getStartLine()
+                                : tokens[0].getStartLine();
+    }
+
+    /**
+     * The column number of the first character in this node.
+     *
+     * @return the column number of the first token character, or
+     *         -1 if not applicable
+     */
+    public int getStartColumn() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getStartColumn()
+                                : tokens[0].getStartColumn();
+    }
+
+    /**
+     * The line number of the last character in this node.
+     *
+     * @return the line number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndLine() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getEndLine()
+                                : tokens[tokens.length - 1].getEndLine();
+    }
+
+    /**
+     * The column number of the last character in this node.
+     *
+     * @return the column number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndColumn() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getEndColumn()
+                                : tokens[tokens.length - 1].getEndColumn();
+    }
+
+    /**
+     * The character offset of the first character in this node.
+     *
+     * @return the character offset of the first character, or
+     *         -1 if not applicable
+     */
+    public int getStartOffset() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getStartOffset()
+                                : tokens[0].getStartOffset();
+    }
+
+    /**
+     * The character offset following the last character in this
+     * node.
+     *
+     * @return the character offset following the last character, or
+     *         -1 if not applicable
+     */
+    public int getEndOffset() {
+        Token[]  tokens = region;
+
+        return (tokens == null) ? super.getEndOffset()
+                                : tokens[tokens.length - 1].getEndOffset();
+    }
+
+    /**
+     * Checks if the position span is read from the child nodes.
+     * Lazy productions read it from the region tokens until parsed,
+     * so the region must not be parsed when searching for positions.
+     *
+     * @return false, as the position span is computed
+     */
+    boolean isSpanFromChildren() {
+        return false;
+    }
+
+    /**
+     * Returns the number of child nodes. The region is parsed if
+     * not already done.
+     *
+     * @return the number of child nodes
+     */
+    public int getChildCount() {
+        expandQuietly();
+        return super.getChildCount();
+    }
+
+    /**
+     * Returns the child node with the specified index. The region is
+     * parsed if not already done.
+     *
+     * @param index          the child index, starting at 0
+     *
+     * @return the child node found, or
+     *         null if index out of bounds
+     */
+    public Node getChildAt(int index) {
+        expandQuietly();
+        return super.getChildAt(index);
+    }
+
+    /**
+     * Adds a child node. The region is parsed if not already done,
+     * and the node is then added last in the list of children.
+     *
+     * @param child          the child node to add
+     */
+    public void addChild(Node child) {
+        expandQuietly();
+        super.addChild(child);
+    }
+
+    /**
+     * Parses the region if not already done. Any parse errors are
+     * ignored, leaving the node without child nodes.
+     */
+    private void expandQuietly() {
+        if (region != null) {
+            try {
+                expand();
+            } catch (ParserLogException ignore) {
+                // Errors are thrown again by expand()
+            }
+        }
+    }
+}
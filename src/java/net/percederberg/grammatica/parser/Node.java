@@ -24,7 +24,7 @@ import java.util.Vector;
  * in the parse tree, i.e. by the token and production classes.
  *
  * @author   Per Cederberg
- * @version  1.2
+ * @version  1.6
  */
 public abstract class Node {
 
@@ -38,6 +38,12 @@ public abstract class Node {
      */
     private ArrayList values = null;
 
+    /**
+     * The computed integer and floating-point node values, or null
+     * if none have been added.
+     */
+    private Slots slots = null;
+
     /**
      * Checks if this node is hidden, i.e. if it should not be visible
      * outside the parser.
@@ -145,6 +151,50 @@ public abstract class Node {
         return -1;
     }
 
+    /**
+     * The character offset of the first character in this node. If
+     * the node has child elements, this value will be fetched from
+     * the first child.
+     *
+     * @return the character offset of the first character, or
+     *         -1 if not applicable
+     *
+     * @since 1.6
+     */
+    public int getStartOffset() {
+        int  offset;
+
+        for (int i = 0; i < getChildCount(); i++) {
+            offset = getChildAt(i).getStartOffset();
+            if (offset >= 0) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The character offset following the last character in this
+     * node. If the node has child elements, this value will be
+     * fetched from the last child.
+     *
+     * @return the character offset following the last character, or
+     *         -1 if not applicable
+     *
+     * @since 1.6
+     */
+    public int getEndOffset() {
+        int  offset;
+
+        for (int i = getChildCount() - 1; i >= 0; i--) {
+            offset = getChildAt(i).getEndOffset();
+            if (offset >= 0) {
+                return offset;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Returns the parent node.
      *
@@ -292,10 +342,150 @@ public abstract class Node {
     }
 
     /**
-     * Removes all computed values stored in this node.
+     * Returns the number of integer value slots in this node. The
+     * integer slots are stored separately from the object values,
+     * and are added through calls to addIntSlot().
+     *
+     * @return the number of integer value slots in this node
+     *
+     * @since 1.6
+     */
+    public int getIntSlotCount() {
+        return (slots == null) ? 0 : slots.intCount;
+    }
+
+    /**
+     * Returns an integer value slot of this node, if previously set.
+     * Integer slots may be used for storing intermediate results in
+     * the parse tree without allocating any objects.
+     *
+     * @param pos             the slot position, starting at 0
+     *
+     * @return the integer slot value, or
+     *         zero (0) if not set
+     *
+     * @since 1.6
+     */
+    public int getIntSlot(int pos) {
+        if (pos < 0 || pos >= getIntSlotCount()) {
+            return 0;
+        } else {
+            return slots.ints[pos];
+        }
+    }
+
+    /**
+     * Adds an integer value slot to this node. The integer value is
+     * stored without boxing and is not included among the object
+     * values.
+     *
+     * @param value          the integer slot value
+     *
+     * @since 1.6
+     */
+    public void addIntSlot(int value) {
+        int[]  copy;
+
+        if (slots == null) {
+            slots = new Slots();
+        }
+        if (slots.ints == null) {
+            slots.ints = new int[2];
+        } else if (slots.intCount >= slots.ints.length) {
+            copy = new int[slots.ints.length * 2];
+            System.arraycopy(slots.ints, 0, copy, 0, slots.intCount);
+            slots.ints = copy;
+        }
+        slots.ints[slots.intCount++] = value;
+    }
+
+    /**
+     * Returns the number of floating-point value slots in this node.
+     * The floating-point slots are stored separately from the object
+     * values, and are added through calls to addDoubleSlot().
+     *
+     * @return the number of floating-point value slots in this node
+     *
+     * @since 1.6
+     */
+    public int getDoubleSlotCount() {
+        return (slots == null) ? 0 : slots.doubleCount;
+    }
+
+    /**
+     * Returns a floating-point value slot of this node, if previously
+     * set. Floating-point slots may be used for storing intermediate
+     * results in the parse tree without allocating any objects.
+     *
+     * @param pos             the slot position, starting at 0
+     *
+     * @return the floating-point slot value, or
+     *         zero (0) if not set
+     *
+     * @since 1.6
+     */
+    public double getDoubleSlot(int pos) {
+        if (pos < 0 || pos >= getDoubleSlotCount()) {
+            return 0;
+        } else {
+            return slots.doubles[pos];
+        }
+    }
+
+    /**
+     * Adds a floating-point value slot to this node. The value is
+     * stored without boxing and is not included among the object
+     * values.
+     *
+     * @param value          the floating-point slot value
+     *
+     * @since 1.6
+     */
+    public void addDoubleSlot(double value) {
+        double[]  copy;
+
+        if (slots == null) {
+            slots = new Slots();
+        }
+        if (slots.doubles == null) {
+            slots.doubles = new double[2];
+        } else if (slots.doubleCount >= slots.doubles.length) {
+            copy = new double[slots.doubles.length * 2];
+            System.arraycopy(slots.doubles, 0, copy, 0, slots.doubleCount);
+            slots.doubles = copy;
+        }
+        slots.doubles[slots.doubleCount++] = value;
+    }
+
+    /**
+     * Removes all computed values stored in this node. This includes
+     * both the object values and the integer and floating-point
+     * value slots.
      */
     public void removeAllValues() {
         values = null;
+        slots = null;
+    }
+
+    /**
+     * Swaps the computed values of this node with the values in a
+     * value holder. This is used for keeping several independent
+     * sets of values for a node outside of the parse tree.
+     *
+     * @param other          the value holder to swap with
+     *
+     * @see CompositeAnalyzer
+     *
+     * @since 1.6
+     */
+    void swapValues(Values other) {
+        ArrayList  list = values;
+        Slots      saved = slots;
+
+        values = other.values;
+        slots = other.slots;
+        other.values = list;
+        other.slots = saved;
     }
 
     /**
@@ -333,4 +523,50 @@ public abstract class Node {
             getChildAt(i).printTo(output, indent);
         }
     }
+
+
+    /**
+     * A holder for a set of computed node values.
+     */
+    static class Values {
+
+        /**
+         * The computed node values.
+         */
+        ArrayList values;
+
+        /**
+         * The computed integer and floating-point node values.
+         */
+        Slots slots;
+    }
+
+
+    /**
+     * The integer and floating-point value slots of a node. This
+     * holder is only allocated once a value slot has been added, so
+     * nodes without value slots only need a single null reference.
+     */
+    private static class Slots {
+
+        /**
+         * The integer value slots.
+         */
+        int[] ints;
+
+        /**
+         * The number of integer value slots.
+         */
+        int intCount;
+
+        /**
+         * The floating-point value slots.
+         */
+        double[] doubles;
+
+        /**
+         * The number of floating-point value slots.
+         */
+        int doubleCount;
+    }
 }
@@ -0,0 +1,363 @@
+/*
+ * NodeIndex.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A parse tree node index. This class maps each production or token
+ * id to the parse tree nodes with that id, in document order. The
+ * index is filled while parsing, either by a parser or by a flat
+ * tree, so that all nodes with a specific id can be retrieved
+ * without traversing the parse tree.<p>
+ *
+ * When filled by a parser, the index contains the nodes returned by
+ * the analyzer exit() callbacks. Nodes for which exit() returned
+ * null are omitted. When filled by a flat tree, the index contains
+ * the flat tree node indices instead.
+ *
+ * @see Parser#setNodeIndex(NodeIndex)
+ * @see FlatTree#setNodeIndex(NodeIndex)
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class NodeIndex {
+
+    /**
+     * The hash table ids. Each id is stored at the same position as
+     * its index entry.
+     */
+    private int[] ids = new int[64];
+
+    /**
+     * The hash table index entries. Unused positions are null.
+     */
+    private Entry[] entries = new Entry[64];
+
+    /**
+     * The number of index entries.
+     */
+    private int size = 0;
+
+    /**
+     * The stack of index entries for the currently open nodes.
+     */
+    private Entry[] openEntries = new Entry[16];
+
+    /**
+     * The stack of reserved entry positions for the currently open
+     * nodes.
+     */
+    private int[] openSlots = new int[16];
+
+    /**
+     * The number of currently open nodes.
+     */
+    private int depth = 0;
+
+    /**
+     * Removes all nodes from the index.
+     */
+    public void clear() {
+        ids = new int[64];
+        entries = new Entry[64];
+        size = 0;
+        openEntries = new Entry[16];
+        openSlots = new int[16];
+        depth = 0;
+    }
+
+    /**
+     * Returns the number of indexed nodes with the specified id.
+     *
+     * @param id             the production or token id
+     *
+     * @return the number of indexed nodes
+     */
+    public int getCount(int id) {
+        Entry  entry = find(id, false);
+
+        if (entry == null) {
+            return 0;
+        }
+        compact(entry);
+        return entry.count;
+    }
+
+    /**
+     * Returns all indexed nodes with the specified id. The nodes are
+     * returned in document order. This method only returns nodes
+     * added by a parser.
+     *
+     * @param id             the production or token id
+     *
+     * @return an array with the indexed nodes
+     */
+    public Node[] getNodes(int id) {
+        Entry   entry = find(id, false);
+        Node[]  result;
+
+        if (entry == null || entry.nodes == null) {
+            return new Node[0];
+        }
+        compact(entry);
+        result = new Node[entry.count];
+        System.arraycopy(entry.nodes, 0, result, 0, entry.count);
+        return result;
+    }
+
+    /**
+     * Returns the indices of all indexed flat tree nodes with the
+     * specified id. The node indices are returned in document order.
+     * This method only returns nodes added by a flat tree.
+     *
+     * @param id             the production or token id
+     *
+     * @return an array with the indexed flat tree node indices
+     */
+    public int[] getNodeIndices(int id) {
+        Entry  entry = find(id, false);
+        int[]  result;
+
+        if (entry == null || entry.indices == null) {
+            return new int[0];
+        }
+        result = new int[entry.count];
+        System.arraycopy(entry.indices, 0, result, 0, entry.count);
+        return result;
+    }
+
+    /**
+     * Handles the parser entering a node. A position for the node is
+     * reserved in the index, so that the nodes are kept in document
+     * order.
+     *
+     * @param node           the parse tree node
+     */
+    void enter(Node node) {
+        Entry  entry = find(node.getId(), true);
+        int    slot;
+
+        if (entry.nodes == null) {
+            entry.nodes = new Node[8];
+        } else if (entry.count >= entry.nodes.length) {
+            entry.nodes = grow(entry.nodes, entry.count);
+        }
+        slot = entry.count++;
+        entry.nodes[slot] = node;
+        if (depth >= openSlots.length) {
+            openEntries = grow(openEntries, depth);
+            openSlots = grow(openSlots, depth);
+        }
+        openEntries[depth] = entry;
+        openSlots[depth] = slot;
+        depth++;
+        entry.holes++;
+    }
+
+    /**
+     * Handles the parser leaving a node. The node returned from the
+     * analyzer is stored in the position reserved for the node.
+     *
+     * @param node           the resulting parse tree node, or null
+     */
+    void exit(Node node) {
+        Entry  entry;
+
+        if (depth > 0) {
+            depth--;
+            entry = openEntries[depth];
+            openEntries[depth] = null;
+            entry.nodes[openSlots[depth]] = node;
+            if (node != null) {
+                entry.holes--;
+            }
+        }
+    }
+
+    /**
+     * Adds a flat tree node to the index. The nodes must be added in
+     * document order.
+     *
+     * @param id             the production or token id
+     * @param node           the flat tree node index
+     */
+    void add(int id, int node) {
+        Entry  entry = find(id, true);
+
+        if (entry.indices == null) {
+            entry.indices = new int[8];
+        } else if (entry.count >= entry.indices.length) {
+            entry.indices = grow(entry.indices, entry.count);
+        }
+        entry.indices[entry.count++] = node;
+    }
+
+    /**
+     * Removes all null nodes from an index entry. This is only done
+     * once all nodes have been exited.
+     *
+     * @param entry          the index entry
+     */
+    private void compact(Entry entry) {
+        int  count = 0;
+
+        if (depth == 0 && entry.holes > 0 && entry.nodes != null) {
+            for (int i = 0; i < entry.count; i++) {
+                if (entry.nodes[i] != null) {
+                    entry.nodes[count++] = entry.nodes[i];
+                }
+            }
+            for (int i = count; i < entry.count; i++) {
+                entry.nodes[i] = null;
+            }
+            entry.count = count;
+            entry.holes = 0;
+        }
+    }
+
+    /**
+     * Finds the index entry for an id. The hash table uses open
+     * addressing with linear probing, in order to avoid creating
+     * key objects for each lookup.
+     *
+     * @param id             the production or token id
+     * @param create         the flag for creating missing entries
+     *
+     * @return the index entry found, or
+     *         null if not found and not created
+     */
+    private Entry find(int id, boolean create) {
+        int    mask = entries.length - 1;
+        int    pos = (id * 0x9E3779B9) >>> 16 & mask;
+        Entry  entry;
+
+        while (entries[pos] != null) {
+            if (ids[pos] == id) {
+                return entries[pos];
+            }
+            pos = (pos + 1) & mask;
+        }
+        if (!create) {
+            return null;
+        }
+        if (size * 2 >= entries.length) {
+            rehash();
+            return find(id, true);
+        }
+        entry = new Entry();
+        ids[pos] = id;
+        entries[pos] = entry;
+        size++;
+        return entry;
+    }
+
+    /**
+     * Doubles the size of the hash table.
+     */
+    private void rehash() {
+        int[]    oldIds = ids;
+        Entry[]  oldEntries = entries;
+        int      mask;
+        int      pos;
+
+        ids = new int[oldIds.length * 2];
+        entries = new Entry[oldEntries.length * 2];
+        mask = entries.length - 1;
+        for (int i = 0; i < oldEntries.length; i++) {
+            if (oldEntries[i] != null) {
+                pos = (oldIds[i] * 0x9E3779B9) >>> 16 & mask;
+                while (entries[pos] != null) {
+                    pos = (pos + 1) & mask;
+                }
+                ids[pos] = oldIds[i];
+                entries[pos] = oldEntries[i];
+            }
+        }
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     * @param count          the number of elements to copy
+     *
+     * @return the new array
+     */
+    private static Node[] grow(Node[] array, int count) {
+        Node[]  copy = new Node[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     * @param count          the number of elements to copy
+     *
+     * @return the new array
+     */
+    private static Entry[] grow(Entry[] array, int count) {
+        Entry[]  copy = new Entry[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     * @param count          the number of elements to copy
+     *
+     * @return the new array
+     */
+    private static int[] grow(int[] array, int count) {
+        int[]  copy = new int[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, count);
+        return copy;
+    }
+
+
+    /**
+     * An index entry. This class contains the indexed nodes for a
+     * single id.
+     */
+    private static class Entry {
+
+        /**
+         * The indexed parse tree nodes, or null if not used.
+         */
+        Node[] nodes = null;
+
+        /**
+         * The indexed flat tree node indices, or null if not used.
+         */
+        int[] indices = null;
+
+        /**
+         * The number of indexed nodes.
+         */
+        int count = 0;
+
+        /**
+         * The number of reserved or null node positions.
+         */
+        int holes = 0;
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * OffHeapTree.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An off-heap array-backed parse tree. This class stores the parse
+ * tree nodes outside of the Java heap, so that the tree size is
+ * limited neither by the heap size nor adds to the garbage
+ * collection work. The node data is stored in fixed-size chunks of
+ * direct memory. Once the allocated memory exceeds a threshold, any
+ * further chunks are instead mapped from a temporary file, leaving
+ * it to the operating system to page the data to disk.<p>
+ *
+ * The tree is built and read just like the flat tree, using
+ * read-only node views. The close() method should be called once
+ * the tree is no longer used, in order to remove the temporary file.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class OffHeapTree extends FlatTree {
+
+    /**
+     * The default memory threshold in bytes.
+     */
+    public static final int DEFAULT_THRESHOLD = 64 * 1024 * 1024;
+
+    /**
+     * The number of bits in the node index within a chunk.
+     */
+    private static final int CHUNK_BITS = 16;
+
+    /**
+     * The number of nodes in each chunk.
+     */
+    private static final int CHUNK_NODES = 1 << CHUNK_BITS;
+
+    /**
+     * The number of bytes in each chunk.
+     */
+    private static final int CHUNK_BYTES = CHUNK_NODES * FIELD_COUNT * 4;
+
+    /**
+     * The direct memory threshold in bytes. Chunks allocated beyond
+     * this threshold are mapped from the temporary file.
+     */
+    private long threshold;
+
+    /**
+     * The node data chunks.
+     */
+    private IntBuffer[] chunks = new IntBuffer[16];
+
+    /**
+     * The number of allocated chunks.
+     */
+    private int chunkCount = 0;
+
+    /**
+     * The number of chunks allocated in direct memory.
+     */
+    private int directCount = 0;
+
+    /**
+     * The temporary file, or null if not created.
+     */
+    private File file = null;
+
+    /**
+     * The temporary file channel, or null if not opened.
+     */
+    private FileChannel channel = null;
+
+    /**
+     * Creates a new empty off-heap parse tree. The default memory
+     * threshold will be used.
+     *
+     * @param parser         the parser providing the patterns
+     * @param input          the input characters, or null
+     */
+    public OffHeapTree(Parser parser, CharSequence input) {
+        this(parser, input, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Creates a new empty off-heap parse tree.
+     *
+     * @param parser         the parser providing the patterns
+     * @param input          the input characters, or null
+     * @param threshold      the direct memory threshold in bytes
+     */
+    public OffHeapTree(Parser parser, CharSequence input, long threshold) {
+        super(parser, input);
+        this.threshold = threshold;
+    }
+
+    /**
+     * Checks if the tree has been spilled to a temporary file.
+     *
+     * @return true if any nodes are stored in a temporary file, or
+     *         false otherwise
+     */
+    public boolean isMapped() {
+        return chunkCount > directCount;
+    }
+
+    /**
+     * Releases all resources used by the tree. This removes all the
+     * nodes and deletes the temporary file, if one was created. The
+     * tree may be filled again after this call.
+     */
+    public void close() {
+        clear();
+        chunks = new IntBuffer[16];
+        chunkCount = 0;
+        directCount = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+                // Do nothing
+            }
+            channel = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+
+    /**
+     * Returns a node field value.
+     *
+     * @param node           the node index
+     * @param field          the field number
+     *
+     * @return the field value
+     */
+    protected int get(int node, int field) {
+        int  pos = (node & (CHUNK_NODES - 1)) * FIELD_COUNT + field;
+
+        return chunks[node >>> CHUNK_BITS].get(pos);
+    }
+
+    /**
+     * Sets a node field value.
+     *
+     * @param node           the node index
+     * @param field          the field number
+     * @param value          the new field value
+     */
+    protected void set(int node, int field, int value) {
+        int  pos = (node & (CHUNK_NODES - 1)) * FIELD_COUNT + field;
+
+        chunks[node >>> CHUNK_BITS].put(pos, value);
+    }
+
+    /**
+     * Ensures that the storage has room for the specified number of
+     * nodes. New chunks are allocated as needed, either in direct
+     * memory or mapped from the temporary file.
+     *
+     * @param size           the minimum number of nodes
+     *
+     * @throws IllegalStateException if the temporary file couldn't
+     *             be created or mapped
+     */
+    protected void ensureCapacity(int size) {
+        IntBuffer[]  copy;
+
+        while (chunkCount * (long) CHUNK_NODES < size) {
+            if (chunkCount >= chunks.length) {
+                copy = new IntBuffer[chunks.length * 2];
+                System.arraycopy(chunks, 0, copy, 0, chunkCount);
+                chunks = copy;
+            }
+            if ((chunkCount + 1) * (long) CHUNK_BYTES <= threshold) {
+                chunks[chunkCount++] = allocateDirect();
+                directCount++;
+            } else {
+                chunks[chunkCount] = allocateMapped(chunkCount - directCount);
+                chunkCount++;
+            }
+        }
+    }
+
+    /**
+     * Allocates a new chunk in direct memory.
+     *
+     * @return the new chunk buffer
+     */
+    private IntBuffer allocateDirect() {
+        return ByteBuffer.allocateDirect(CHUNK_BYTES).asIntBuffer();
+    }
+
+    /**
+     * Allocates a new chunk mapped from the temporary file. The
+     * temporary file is created if needed.
+     *
+     * @param index          the chunk index in the file
+     *
+     * @return the new chunk buffer
+     *
+     * @throws IllegalStateException if the temporary file couldn't
+     *             be created or mapped
+     */
+    private IntBuffer allocateMapped(int index) {
+        RandomAccessFile  raf;
+
+        try {
+            if (channel == null) {
+                file = File.createTempFile("grammatica", ".tree");
+                file.deleteOnExit();
+                raf = new RandomAccessFile(file, "rw");
+                channel = raf.getChannel();
+            }
+            return channel.map(FileChannel.MapMode.READ_WRITE,
+                               index * (long) CHUNK_BYTES,
+                               CHUNK_BYTES).asIntBuffer();
+        } catch (IOException e) {
+            throw new IllegalStateException("couldn't map parse tree file: " +
+                                            e.getMessage());
+        }
+    }
+}
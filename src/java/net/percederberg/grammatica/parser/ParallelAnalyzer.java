@@ -0,0 +1,381 @@
+/*
+ * ParallelAnalyzer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A parallel parse tree analyzer driver. This class splits a parse
+ * tree at production nodes with specified ids, and analyzes each
+ * such subtree as a separate task in a pool of worker threads. The
+ * remaining nodes at the top of the tree are then analyzed in the
+ * calling thread, using the subtree results in the original order.
+ * The resulting parse tree and error log are therefore the same as
+ * for a normal analysis, with the errors in source order.<p>
+ *
+ * The analyzer callbacks for different subtrees will be called
+ * concurrently from the worker threads, so the analyzer must not
+ * modify any shared state in those callbacks. Also, the enter()
+ * callbacks for the nodes above the split subtrees may be called
+ * after some of the subtrees have been analyzed. The close() method
+ * should be called once the driver is no longer used, in order to
+ * stop the worker threads.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class ParallelAnalyzer {
+
+    /**
+     * The analyzer to use.
+     */
+    private Analyzer analyzer;
+
+    /**
+     * The number of worker threads.
+     */
+    private int threads;
+
+    /**
+     * The sorted split production ids.
+     */
+    private int[] splitIds = new int[0];
+
+    /**
+     * The worker thread pool, or null if not yet started.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * The pending subtree task results, in source order.
+     */
+    private LinkedList pending = new LinkedList();
+
+    /**
+     * Creates a new parallel analyzer driver. One worker thread will
+     * be used for each available processor.
+     *
+     * @param analyzer       the analyzer to use
+     */
+    public ParallelAnalyzer(Analyzer analyzer) {
+        this(analyzer, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new parallel analyzer driver.
+     *
+     * @param analyzer       the analyzer to use
+     * @param threads        the number of worker threads
+     */
+    public ParallelAnalyzer(Analyzer analyzer, int threads) {
+        this.analyzer = analyzer;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Adds a split production id. All production nodes with this id
+     * will be analyzed as separate tasks, unless located inside
+     * another split subtree.
+     *
+     * @param id             the production pattern id
+     */
+    public void addSplitId(int id) {
+        int[]  copy;
+
+        if (Arrays.binarySearch(splitIds, id) < 0) {
+            copy = new int[splitIds.length + 1];
+            System.arraycopy(splitIds, 0, copy, 0, splitIds.length);
+            copy[splitIds.length] = id;
+            Arrays.sort(copy);
+            splitIds = copy;
+        }
+    }
+
+    /**
+     * Analyzes a parse tree node in parallel. A new parse tree is
+     * created as in Analyzer.analyze().
+     *
+     * @param node           the parse tree node to process
+     *
+     * @return the resulting parse tree node
+     *
+     * @throws ParserLogException if the node analysis discovered
+     *             errors
+     *
+     * @see Analyzer#analyze(Node)
+     */
+    public Node analyze(Node node) throws ParserLogException {
+        return analyze(node, false);
+    }
+
+    /**
+     * Analyzes a parse tree node in parallel. The existing parse
+     * tree nodes are reused as in Analyzer.analyzeInPlace().
+     *
+     * @param node           the parse tree node to process
+     *
+     * @return the resulting parse tree node
+     *
+     * @throws ParserLogException if the node analysis discovered
+     *             errors
+     *
+     * @see Analyzer#analyzeInPlace(Node)
+     */
+    public Node analyzeInPlace(Node node) throws ParserLogException {
+        return analyze(node, true);
+    }
+
+    /**
+     * Stops all worker threads. Any further analysis will start new
+     * worker threads.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Analyzes a parse tree node in parallel. The split subtrees
+     * are first submitted to the worker threads, and the remaining
+     * tree is then analyzed in the calling thread.
+     *
+     * @param node           the parse tree node to process
+     * @param inPlace        the in-place analysis flag
+     *
+     * @return the resulting parse tree node
+     *
+     * @throws ParserLogException if the node analysis discovered
+     *             errors
+     */
+    private synchronized Node analyze(Node node, boolean inPlace)
+        throws ParserLogException {
+
+        ParserLogException  log = new ParserLogException();
+
+        try {
+            submit(node, inPlace);
+            node = analyzer.analyze(node, inPlace, log, this);
+        } finally {
+            while (pending.size() > 0) {
+                ((Future) pending.removeFirst()).cancel(true);
+            }
+        }
+        if (log.getErrorCount() > 0) {
+            throw log;
+        }
+        return node;
+    }
+
+    /**
+     * Submits all split subtrees to the worker threads. The tree is
+     * traversed depth-first, so the subtree tasks are submitted in
+     * the same order as they are encountered in the analysis. For
+     * in-place analysis, each split subtree is first detached from
+     * its parent and replaced by an empty placeholder node, so that
+     * the calling thread never modifies a submitted subtree.
+     *
+     * @param root           the parse tree root node
+     * @param inPlace        the in-place analysis flag
+     */
+    private void submit(Node root, boolean inPlace) {
+        ArrayList  stack = new ArrayList();
+        Node       node;
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                threads,
+                new WorkerFactory("grammatica-analyzer"));
+        }
+        push(stack, root, inPlace);
+        while (stack.size() > 0) {
+            node = (Node) stack.remove(stack.size() - 1);
+            if (isSplit(node)) {
+                pending.add(executor.submit(new SubtreeTask(node, inPlace)));
+            } else {
+                push(stack, node, inPlace);
+            }
+        }
+    }
+
+    /**
+     * Pushes the child nodes of a node onto the traversal stack, in
+     * reverse order. For in-place analysis, any split subtree is
+     * detached from the node and replaced by a placeholder node with
+     * the same production pattern. The placeholder is only used for
+     * finding the subtree result when the parent node is analyzed.
+     *
+     * @param stack          the traversal stack
+     * @param node           the parent node
+     * @param inPlace        the in-place analysis flag
+     */
+    private void push(ArrayList stack, Node node, boolean inPlace) {
+        Node  child;
+
+        for (int i = node.getChildCount() - 1; i >= 0; i--) {
+            child = node.getChildAt(i);
+            if (inPlace && isSplit(child)) {
+                ((Production) node).detachChild(i);
+            }
+            stack.add(child);
+        }
+    }
+
+    /**
+     * Checks if a node is the root of a split subtree.
+     *
+     * @param node           the parse tree node, or null
+     *
+     * @return true if the node is a split production node, or
+     *         false otherwise
+     */
+    boolean isSplit(Node node) {
+        return node instanceof Production &&
+               Arrays.binarySearch(splitIds, node.getId()) >= 0;
+    }
+
+    /**
+     * Waits for the next split subtree result. Any errors from the
+     * subtree analysis are added to the error log.
+     *
+     * @param log            the parser error log
+     *
+     * @return the resulting parse tree node, or
+     *         null if no node should be added
+     */
+    Node join(ParserLogException log) {
+        Future       future = (Future) pending.removeFirst();
+        SubtreeTask  task;
+        Throwable    cause;
+
+        try {
+            task = (SubtreeTask) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.addError(new ParseException(ParseException.INTERNAL_ERROR,
+                                            "analysis interrupted",
+                                            -1,
+                                            -1));
+            return null;
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+        log.addErrors(task.log);
+        return task.result;
+    }
+
+
+    /**
+     * A split subtree analysis task.
+     */
+    private class SubtreeTask implements Callable {
+
+        /**
+         * The subtree root node.
+         */
+        private Node node;
+
+        /**
+         * The in-place analysis flag.
+         */
+        private boolean inPlace;
+
+        /**
+         * The resulting parse tree node.
+         */
+        public Node result = null;
+
+        /**
+         * The subtree error log.
+         */
+        public ParserLogException log = new ParserLogException();
+
+        /**
+         * Creates a new subtree analysis task.
+         *
+         * @param node           the subtree root node
+         * @param inPlace        the in-place analysis flag
+         */
+        public SubtreeTask(Node node, boolean inPlace) {
+            this.node = node;
+            this.inPlace = inPlace;
+        }
+
+        /**
+         * Analyzes the subtree.
+         *
+         * @return this task
+         */
+        public Object call() {
+            result = analyzer.analyze(node, inPlace, log, null);
+            node = null;
+            return this;
+        }
+    }
+
+
+    /**
+     * A worker thread factory. The worker threads are created as
+     * daemon threads, so that they don't prevent the program from
+     * exiting.
+     */
+    static class WorkerFactory implements ThreadFactory {
+
+        /**
+         * The worker thread name.
+         */
+        private String name;
+
+        /**
+         * Creates a new worker thread factory.
+         *
+         * @param name           the worker thread name
+         */
+        public WorkerFactory(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Creates a new worker thread.
+         *
+         * @param r              the runnable to execute
+         *
+         * @return the new worker thread
+         */
+        public Thread newThread(Runnable r) {
+            Thread  thread = new Thread(r, name);
+
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
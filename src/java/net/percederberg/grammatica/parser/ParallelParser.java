@@ -0,0 +1,434 @@
+/*
+ * ParallelParser.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A parallel parser driver. This class parses grammars where the
+ * start production is a single repetition, such as "File =
+ * Statement+", by splitting the input between the repeated
+ * productions. All tokens are first read from the tokenizer, and
+ * the input is then split after the specified sync tokens (such as
+ * ";"), unless enclosed by any of the specified bracket tokens. Each
+ * segment is parsed as a separate task in a pool of worker threads,
+ * and the resulting nodes are added to the parse tree root in the
+ * calling thread, in input order.<p>
+ *
+ * The resulting parse tree is the same as for a normal parse,
+ * provided that the sync tokens always end a repeated production
+ * when found outside brackets. A segment is rejected if it cannot
+ * be parsed without errors, or if a look-ahead of more than one
+ * token reached the segment end. The whole input is then parsed
+ * again in the calling thread, so that the parse tree and error log
+ * are the same as for a normal parse. The parallel parsing is also
+ * skipped if the start production has another form, or if the
+ * parser uses a node index.<p>
+ *
+ * Each segment is parsed with a separate analyzer created by
+ * newAnalyzer(), so no analyzer is called from several threads. By
+ * default the segments are only parsed in parallel if the parser
+ * uses a default analyzer, and a subclass must otherwise provide
+ * the segment analyzers. The parser analyzer is only called from
+ * the calling thread once all segments have been parsed, in order
+ * to enter the parse tree root, add the repeated nodes as children
+ * and exit the root. It therefore sees the same callbacks as in a
+ * normal parse, except for the ones inside the repeated nodes. If
+ * the input has to be parsed again, the segment analyzer results
+ * are discarded and the parser analyzer sees all the callbacks of a
+ * normal parse. The close() method should be called once the driver
+ * is no longer used, in order to stop the worker threads.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class ParallelParser {
+
+    /**
+     * The minimum number of tokens in each segment.
+     */
+    private static final int MIN_SEGMENT_SIZE = 256;
+
+    /**
+     * The parser to use.
+     */
+    private RecursiveDescentParser parser;
+
+    /**
+     * The number of worker threads.
+     */
+    private int threads;
+
+    /**
+     * The sorted sync token ids.
+     */
+    private int[] syncIds = new int[0];
+
+    /**
+     * The sorted opening bracket token ids.
+     */
+    private int[] openIds = new int[0];
+
+    /**
+     * The sorted closing bracket token ids.
+     */
+    private int[] closeIds = new int[0];
+
+    /**
+     * The worker thread pool, or null if not yet started.
+     */
+    private ExecutorService executor = null;
+
+    /**
+     * Creates a new parallel parser driver. One worker thread will
+     * be used for each available processor.
+     *
+     * @param parser         the parser to use
+     */
+    public ParallelParser(RecursiveDescentParser parser) {
+        this(parser, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new parallel parser driver.
+     *
+     * @param parser         the parser to use
+     * @param threads        the number of worker threads
+     */
+    public ParallelParser(RecursiveDescentParser parser, int threads) {
+        this.parser = parser;
+        this.threads = Math.max(threads, 1);
+    }
+
+    /**
+     * Adds a sync token id. The input may be split after each token
+     * with this id, unless enclosed by brackets.
+     *
+     * @param id             the token pattern id
+     */
+    public void addSyncId(int id) {
+        syncIds = add(syncIds, id);
+    }
+
+    /**
+     * Adds a pair of bracket token ids. The input will not be split
+     * between an opening and a closing bracket token. All bracket
+     * pairs share the same nesting depth.
+     *
+     * @param open           the opening bracket token pattern id
+     * @param close          the closing bracket token pattern id
+     */
+    public void addBrackets(int open, int close) {
+        openIds = add(openIds, open);
+        closeIds = add(closeIds, close);
+    }
+
+    /**
+     * Parses the input stream in parallel and returns a parse tree.
+     * The tokens are read from the parser tokenizer as in
+     * Parser.parse().
+     *
+     * @return the parse tree
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see Parser#parse()
+     */
+    public synchronized Node parse()
+        throws ParserCreationException, ParserLogException {
+
+        ProductionPatternElement  elem;
+        Object[]                  list;
+        int[]                     bounds;
+        Analyzer[]                analyzers;
+        Future[]                  futures;
+        ArrayList                 nodes = new ArrayList();
+        SegmentTask               task;
+
+        parser.initParse();
+        list = readTokens();
+        elem = parser.getRepetition();
+        bounds = split(list);
+        if (elem == null
+         || parser.getNodeIndex() != null
+         || bounds.length <= 2) {
+
+            return parser.parseList(list);
+        }
+        analyzers = new Analyzer[bounds.length - 1];
+        for (int i = 0; i < analyzers.length; i++) {
+            analyzers[i] = newAnalyzer();
+            if (analyzers[i] == null) {
+                return parser.parseList(list);
+            }
+        }
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                threads,
+                new ParallelAnalyzer.WorkerFactory("grammatica-parser"));
+        }
+        // Shares the lazy region lock between the parser copies
+        parser.getRegionParser();
+        futures = new Future[bounds.length - 1];
+        try {
+            for (int i = 0; i < futures.length; i++) {
+                task = new SegmentTask(list,
+                                       bounds[i],
+                                       bounds[i + 1],
+                                       analyzers[i],
+                                       elem);
+                futures[i] = executor.submit(task);
+            }
+            for (int i = 0; i < futures.length; i++) {
+                task = join(futures[i]);
+                if (task.result == null) {
+                    return parser.parseList(list);
+                }
+                nodes.addAll(task.result);
+            }
+        } finally {
+            for (int i = 0; i < futures.length; i++) {
+                if (futures[i] != null) {
+                    futures[i].cancel(true);
+                }
+            }
+        }
+        if (nodes.size() < elem.getMinCount()) {
+            return parser.parseList(list);
+        }
+        return parser.exitStart(parser.enterStart(), nodes);
+    }
+
+    /**
+     * Creates a new analyzer for parsing a segment. A separate
+     * analyzer is created for each segment, and is only called from
+     * the worker thread parsing the segment. The default
+     * implementation returns a new default analyzer if the parser
+     * uses one, and null otherwise. A subclass can override this
+     * method to parse the segments in parallel with another analyzer.
+     *
+     * @return the new analyzer, or
+     *         null to parse the input in the calling thread
+     */
+    protected Analyzer newAnalyzer() {
+        if (parser.getAnalyzer().getClass() == Analyzer.class) {
+            return new Analyzer();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Stops all worker threads. Any further parsing will start new
+     * worker threads.
+     */
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Reads all tokens from the parser tokenizer. Any tokenizer
+     * errors are stored in the list, at the position where they
+     * occurred.
+     *
+     * @return an array with the tokens and tokenizer errors
+     */
+    private Object[] readTokens() {
+        Tokenizer  tokenizer = parser.getTokenizer();
+        ArrayList  list = new ArrayList();
+        Token      token;
+
+        while (true) {
+            try {
+                token = tokenizer.next();
+                if (token == null) {
+                    break;
+                }
+                list.add(token);
+            } catch (ParseException e) {
+                list.add(e);
+            }
+        }
+        return list.toArray();
+    }
+
+    /**
+     * Splits a token list into segments. The segments are split after
+     * sync tokens outside brackets, with roughly the same number of
+     * tokens in each segment.
+     *
+     * @param list           the tokens and tokenizer errors
+     *
+     * @return an array with the segment boundaries, starting with
+     *         zero (0) and ending with the list length
+     */
+    private int[] split(Object[] list) {
+        ArrayList  bounds = new ArrayList();
+        int        size = list.length / (threads * 4);
+        int        start = 0;
+        int        depth = 0;
+        int        id;
+        int[]      result;
+
+        size = Math.max(size, MIN_SEGMENT_SIZE);
+        bounds.add(Integer.valueOf(0));
+        for (int i = 0; i < list.length; i++) {
+            if (list[i] instanceof Token) {
+                id = ((Token) list[i]).getId();
+                if (Arrays.binarySearch(openIds, id) >= 0) {
+                    depth++;
+                } else if (Arrays.binarySearch(closeIds, id) >= 0) {
+                    depth--;
+                } else if (depth == 0
+                        && i + 1 - start >= size
+                        && i + 1 < list.length
+                        && Arrays.binarySearch(syncIds, id) >= 0) {
+
+                    start = i + 1;
+                    bounds.add(Integer.valueOf(start));
+                }
+            }
+        }
+        bounds.add(Integer.valueOf(list.length));
+        result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ((Integer) bounds.get(i)).intValue();
+        }
+        return result;
+    }
+
+    /**
+     * Waits for a segment task to complete.
+     *
+     * @param future         the segment task future
+     *
+     * @return the completed segment task
+     *
+     * @throws ParserLogException if the parsing was interrupted
+     */
+    private SegmentTask join(Future future) throws ParserLogException {
+        ParserLogException  log;
+        Throwable           cause;
+
+        try {
+            return (SegmentTask) future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log = new ParserLogException();
+            log.addError(new ParseException(ParseException.INTERNAL_ERROR,
+                                            "parsing interrupted",
+                                            -1,
+                                            -1));
+            throw log;
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
+    /**
+     * Returns a sorted array with an added id. If the id is already
+     * present, the same array is returned.
+     *
+     * @param ids            the sorted array of ids
+     * @param id             the id to add
+     *
+     * @return the sorted array with the id
+     */
+    private static int[] add(int[] ids, int id) {
+        int[]  copy;
+
+        if (Arrays.binarySearch(ids, id) >= 0) {
+            return ids;
+        }
+        copy = new int[ids.length + 1];
+        System.arraycopy(ids, 0, copy, 0, ids.length);
+        copy[ids.length] = id;
+        Arrays.sort(copy);
+        return copy;
+    }
+
+
+    /**
+     * A segment parsing task.
+     */
+    private class SegmentTask implements Callable {
+
+        /**
+         * The parser copy to use.
+         */
+        private Parser copy;
+
+        /**
+         * The repeated production element.
+         */
+        private ProductionPatternElement elem;
+
+        /**
+         * The list of parsed nodes, or null if the segment couldn't
+         * be parsed without errors.
+         */
+        public ArrayList result = null;
+
+        /**
+         * Creates a new segment parsing task.
+         *
+         * @param list           the tokens and tokenizer errors
+         * @param start          the position of the first entry
+         * @param end            the position following the last entry
+         * @param analyzer       the analyzer to use for the segment
+         * @param elem           the repeated production element
+         */
+        public SegmentTask(Object[] list,
+                           int start,
+                           int end,
+                           Analyzer analyzer,
+                           ProductionPatternElement elem) {
+
+            this.copy = parser.copy(list, start, end, analyzer);
+            this.elem = elem;
+        }
+
+        /**
+         * Parses the segment.
+         *
+         * @return this task
+         */
+        public Object call() {
+            result = ((RecursiveDescentParser) copy).parseSegment(elem);
+            copy = null;
+            return this;
+        }
+    }
+}
@@ -20,7 +20,7 @@ import java.util.ArrayList;
  * A parse exception.
  *
  * @author   Per Cederberg
- * @version  1.1
+ * @version  1.6
  */
 public class ParseException extends Exception {
 
@@ -97,6 +97,17 @@ public class ParseException extends Exception {
      */
     private int column;
 
+    /**
+     * The character offset.
+     */
+    private int offset;
+
+    /**
+     * The next error in a chain of errors, or null. This is used
+     * when a single callback reports several errors.
+     */
+    private ParseException next = null;
+
     /**
      * Creates a new parse exception.
      *
@@ -131,12 +142,36 @@ public class ParseException extends Exception {
                           int line,
                           int column) {
 
+        this(type, info, details, line, column, -1);
+    }
+
+    /**
+     * Creates a new parse exception. This constructor is used to
+     * also supply the character offset of the error.
+     *
+     * @param type           the parse error type
+     * @param info           the additional information
+     * @param details        the additional detailed information, or null
+     * @param line           the line number, or -1 for unknown
+     * @param column         the column number, or -1 for unknown
+     * @param offset         the character offset, or -1 for unknown
+     *
+     * @since 1.6
+     */
+    public ParseException(int type,
+                          String info,
+                          ArrayList details,
+                          int line,
+                          int column,
+                          int offset) {
+
         super();
         this.type = type;
         this.info = info;
         this.details = details;
         this.line = line;
         this.column = column;
+        this.offset = offset;
     }
 
     /**
@@ -186,6 +221,59 @@ public class ParseException extends Exception {
         return column;
     }
 
+    /**
+     * Returns the character offset where the error occured. The
+     * offset is counted from the start of the input stream.
+     *
+     * @return the character offset of the error, or
+     *         -1 if unknown
+     *
+     * @since 1.6
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the next error in a chain of errors. Chained errors
+     * are added to the error log together with the first one.
+     *
+     * @return the next parse error, or
+     *         null if none
+     *
+     * @since 1.6
+     */
+    ParseException getNext() {
+        return next;
+    }
+
+    /**
+     * Sets the next error in a chain of errors.
+     *
+     * @param next           the next parse error, or null
+     *
+     * @since 1.6
+     */
+    void setNext(ParseException next) {
+        this.next = next;
+    }
+
+    /**
+     * Returns a copy of this error. The copy is not linked to any
+     * chain of errors.
+     *
+     * @return a copy of this parse error
+     *
+     * @since 1.6
+     */
+    ParseException copy() {
+        ParseException  e;
+
+        e = new ParseException(type, info, details, line, column, offset);
+        e.setStackTrace(getStackTrace());
+        return e;
+    }
+
     /**
      * Returns the detailed error message. This message will contain
      * the same string as getErrorMessage(), but with line number and
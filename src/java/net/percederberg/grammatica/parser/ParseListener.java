@@ -0,0 +1,68 @@
+/*
+ * ParseListener.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A parse event listener. This interface receives the parse events
+ * from a streaming parse, where no parse tree is created. The events
+ * are delivered in document order as the input is parsed, similar to
+ * the SAX interface for XML parsing.<p>
+ *
+ * The events for each production are always in the order
+ * startProduction(), any number of token() and nested production
+ * events, and finally endProduction(). No events are generated for
+ * synthetic productions. Once a parse error has been encountered, no
+ * further events will be delivered.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ *
+ * @see RecursiveDescentParser#parse(ParseListener)
+ */
+public interface ParseListener {
+
+    /**
+     * Called when the parser starts parsing a production.
+     *
+     * @param id             the production pattern id
+     *
+     * @throws ParseException if the event couldn't be handled
+     *             correctly
+     */
+    void startProduction(int id) throws ParseException;
+
+    /**
+     * Called when the parser has parsed a token.
+     *
+     * @param id             the token pattern id
+     * @param offset         the token start character offset
+     * @param length         the token length in characters
+     *
+     * @throws ParseException if the event couldn't be handled
+     *             correctly
+     */
+    void token(int id, int offset, int length) throws ParseException;
+
+    /**
+     * Called when the parser has finished parsing a production.
+     *
+     * @param id             the production pattern id
+     *
+     * @throws ParseException if the event couldn't be handled
+     *             correctly
+     */
+    void endProduction(int id) throws ParseException;
+}
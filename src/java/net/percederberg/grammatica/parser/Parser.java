@@ -16,8 +16,10 @@ package net.percederberg.grammatica.parser;
 
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 
 /**
  * A base parser class. This class provides the standard parser
@@ -26,7 +28,7 @@ import java.util.HashMap;
  * @author   Per Cederberg
  * @version  1.6
  */
-public abstract class Parser {
+public abstract class Parser implements Cloneable {
 
     /**
      * The parser initialization flag.
@@ -55,10 +57,10 @@ public abstract class Parser {
     private HashMap patternIds = new HashMap();
 
     /**
-     * The list of buffered tokens. This list will contain tokens that
-     * have been read from the tokenizer, but not yet consumed.
+     * The queue of buffered tokens. This queue will contain tokens
+     * that have been read from the tokenizer, but not yet consumed.
      */
-    private ArrayList tokens = new ArrayList();
+    private TokenQueue tokens = new TokenQueue();
 
     /**
      * The error log. All parse errors will be added to this log as
@@ -77,6 +79,90 @@ public abstract class Parser {
      */
     private int errorRecovery = -1;
 
+    /**
+     * The recognizer flag. This flag is set while recognize() is
+     * running, so that no more tokens are read once an error has
+     * been found.
+     */
+    private boolean recognizing = false;
+
+    /**
+     * The node index to fill while parsing, or null for none.
+     */
+    private NodeIndex nodeIndex = null;
+
+    /**
+     * The sorted production and token ids to keep in the parse
+     * tree, or null to keep all nodes.
+     */
+    private int[] keptIds = null;
+
+    /**
+     * The root production created flag. This flag is set when the
+     * first production node has been created in a parse.
+     */
+    private boolean rootCreated = false;
+
+    /**
+     * The token replay flag. This flag is set while parsing a lazy
+     * production region, as the tokens are then read from the token
+     * queue only.
+     */
+    private boolean replay = false;
+
+    /**
+     * The next token list token to read when replaying, or null for
+     * none. When replaying a token list, the ignored tokens are
+     * skipped and the error tokens are reported as errors.
+     */
+    private Token replayToken = null;
+
+    /**
+     * The token list array to read when replaying, or null for none.
+     * The array contains tokens and tokenizer errors, in the order
+     * returned by the tokenizer.
+     */
+    private Object[] replayList = null;
+
+    /**
+     * The position of the next token list array entry to read.
+     */
+    private int replayPos = 0;
+
+    /**
+     * The position following the last token list array entry to
+     * read.
+     */
+    private int replayEnd = 0;
+
+    /**
+     * The replay overrun flag. This flag is set if a look-ahead of
+     * more than one token reached the end of a replayed token list
+     * segment, before the end of the whole token list.
+     */
+    private boolean replayOverrun = false;
+
+    /**
+     * The lazy production region parser, or null if not yet created.
+     */
+    private RegionParser regionParser = null;
+
+    /**
+     * The token pattern descriptions, indexed by token id. This map
+     * is only used by region parser copies, which have no tokenizer.
+     */
+    private HashMap tokenDescriptions = null;
+
+    /**
+     * The token pipeline flag.
+     */
+    private boolean usePipeline = false;
+
+    /**
+     * The token pipeline used, or null if not started.
+     */
+    private TokenPipeline pipeline = null;
+
     /**
      * Creates a new parser.
      *
@@ -182,6 +268,101 @@ public abstract class Parser {
         return analyzer;
     }
 
+    /**
+     * Returns the node index filled while parsing.
+     *
+     * @return the node index, or
+     *         null if no index is used
+     *
+     * @since 1.6
+     */
+    public NodeIndex getNodeIndex() {
+        return nodeIndex;
+    }
+
+    /**
+     * Sets the node index to fill while parsing. The index is
+     * cleared at the start of each parse, and all parse tree nodes
+     * are then added to it in document order. Hidden nodes are not
+     * indexed.
+     *
+     * @param index          the node index, or null for none
+     *
+     * @since 1.6
+     */
+    public void setNodeIndex(NodeIndex index) {
+        this.nodeIndex = index;
+    }
+
+    /**
+     * Returns the production and token ids to keep in the parse
+     * tree.
+     *
+     * @return the ids of the nodes to keep, or
+     *         null if all nodes are kept
+     *
+     * @since 1.6
+     */
+    public int[] getKeptIds() {
+        return (keptIds == null) ? null : (int[]) keptIds.clone();
+    }
+
+    /**
+     * Sets the production and token ids to keep in the parse tree.
+     * All other nodes will be hidden in the same way as synthetic
+     * productions, i.e. their kept child nodes will be added to the
+     * nearest kept ancestor node instead. No analyzer callbacks are
+     * made for hidden nodes, but the input is still parsed and
+     * checked for errors as usual. The root production node is
+     * always kept. This setting doesn't affect the parse events.
+     *
+     * @param ids            the ids of the nodes to keep, or
+     *                       null to keep all nodes
+     *
+     * @since 1.6
+     */
+    public void setKeptIds(int[] ids) {
+        if (ids == null) {
+            keptIds = null;
+        } else {
+            keptIds = (int[]) ids.clone();
+            Arrays.sort(keptIds);
+        }
+    }
+
+    /**
+     * Checks if the token pipeline is used.
+     *
+     * @return true if the token pipeline is used, or
+     *         false otherwise
+     *
+     * @since 1.6
+     */
+    public boolean getUsePipeline() {
+        return usePipeline;
+    }
+
+    /**
+     * Sets the token pipeline flag. When the token pipeline is used,
+     * the tokenizer is run in a separate thread during each parse,
+     * reading ahead of the parser. The tokens are passed to the
+     * parser in batches through a bounded queue, so the tokenizer
+     * will never be far ahead. Any tokenizer errors are still
+     * reported in the same order as usual.<p>
+     *
+     * The tokenizer must not be accessed by other threads while
+     * parsing, and the tokenizer may have read past the last token
+     * used if the parse was stopped before the end of the input. By
+     * default the token pipeline is not used.
+     *
+     * @param usePipeline    the token pipeline flag
+     *
+     * @since 1.6
+     */
+    public void setUsePipeline(boolean usePipeline) {
+        this.usePipeline = usePipeline;
+    }
+
     /**
      * Sets the parser initialized flag. Normally this flag is set by
      * the prepare() method, but this method allows further
@@ -227,6 +408,154 @@ public abstract class Parser {
         setInitialized(false);
     }
 
+    /**
+     * Sets the detachable flag for a production pattern. Detachable
+     * production nodes are removed from their parent node once they
+     * have been analyzed, so that the parse tree will not keep them
+     * in memory. This is useful for parsing very large inputs
+     * consisting of many independent parts, such as statements.
+     *
+     * @param id             the production pattern id
+     * @param detachable     the new detachable flag
+     *
+     * @throws ParserCreationException if no production pattern with
+     *             the specified id has been added
+     *
+     * @see ProductionPattern#setDetachable(boolean)
+     * @see Analyzer#detach(Production, Node)
+     *
+     * @since 1.6
+     */
+    public void setDetachable(int id, boolean detachable)
+        throws ParserCreationException {
+
+        ProductionPattern  pattern = getPattern(id);
+
+        if (pattern == null) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PARSER_ERROR,
+                "no production pattern with id " + id +
+                " has been added");
+        }
+        pattern.setDetachable(detachable);
+    }
+
+    /**
+     * Sets the lazy flag for a production pattern. Lazy production
+     * regions are skipped while parsing by counting balanced pairs of
+     * delimiter tokens, and are only parsed once the child nodes are
+     * accessed. This is useful for large inputs where only some parts
+     * will be inspected, such as the function bodies in a source
+     * file.<p>
+     *
+     * The delimiter tokens are given by the production alternatives
+     * starting with a token, which must all be on the form "open ...
+     * close". Other alternatives are parsed normally, and must not
+     * start with the opening delimiter through any production
+     * reference. This is checked once the look-ahead sets have been
+     * calculated when preparing the parser. Lazy productions are
+     * only skipped when creating a parse tree, and the regions
+     * aren't checked for syntax errors until parsed. The parser
+     * analyzer isn't called for the nodes inside the regions.
+     *
+     * @param id             the production pattern id
+     * @param lazy           the new lazy flag
+     *
+     * @throws ParserCreationException if no production pattern with
+     *             the specified id has been added, or if the
+     *             production wasn't delimited correctly
+     *
+     * @see LazyProduction
+     *
+     * @since 1.6
+     */
+    public void setLazy(int id, boolean lazy)
+        throws ParserCreationException {
+
+        ProductionPattern  pattern = getPattern(id);
+
+        if (pattern == null) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PARSER_ERROR,
+                "no production pattern with id " + id +
+                " has been added");
+        }
+        setLazy(pattern, lazy);
+    }
+
+    /**
+     * Sets the lazy flag for a production pattern. The delimiter
+     * tokens are found in the production pattern alternatives. If
+     * the look-ahead sets have been calculated, the other
+     * alternatives are also checked not to start with the opening
+     * delimiter.
+     *
+     * @param pattern        the production pattern
+     * @param lazy           the new lazy flag
+     *
+     * @throws ParserCreationException if the production wasn't
+     *             delimited correctly
+     *
+     * @see #setLazy(int, boolean)
+     */
+    void setLazy(ProductionPattern pattern, boolean lazy)
+        throws ParserCreationException {
+
+        ProductionPatternAlternative  alt;
+        LookAheadSet                  set;
+        int[]                         initials;
+        int                           open = -1;
+        int                           close = -1;
+
+        if (!lazy) {
+            pattern.setLazy(-1, -1);
+            return;
+        }
+        for (int i = 0; open < 0 && i < pattern.getAlternativeCount(); i++) {
+            alt = pattern.getAlternative(i);
+            if (isDelimited(alt)) {
+                open = alt.getElement(0).getId();
+                close = alt.getElement(alt.getElementCount() - 1).getId();
+            }
+        }
+        for (int i = 0; open >= 0 && i < pattern.getAlternativeCount(); i++) {
+            alt = pattern.getAlternative(i);
+            if (alt.getElement(0).isToken()
+             && alt.getElement(0).getId() == open
+             && (!isDelimited(alt)
+              || alt.getElement(alt.getElementCount() - 1).getId() != close)) {
+
+                open = -1;
+            }
+        }
+        if (open < 0 || pattern.isSynthetic()) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PRODUCTION_ERROR,
+                pattern.getName(),
+                "lazy productions must be enclosed by a pair of " +
+                "distinct delimiter tokens");
+        }
+        for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+            alt = pattern.getAlternative(i);
+            set = alt.getLookAhead();
+            if (alt.getElement(0).isToken() || set == null) {
+                continue;
+            }
+            initials = set.getInitialTokens();
+            for (int j = 0; j < initials.length; j++) {
+                if (initials[j] == open) {
+                    throw new ParserCreationException(
+                        ParserCreationException.INVALID_PRODUCTION_ERROR,
+                        pattern.getName(),
+                        "only the delimited alternatives of lazy " +
+                        "productions may start with the opening " +
+                        "delimiter token");
+                }
+            }
+        }
+        pattern.setLazy(open, close);
+    }
+
     /**
      * Initializes the parser. All the added production patterns will
      * be analyzed for ambiguities and errors. This method also
@@ -244,6 +573,7 @@ public abstract class Parser {
         for (int i = 0; i < patterns.size(); i++) {
             checkPattern((ProductionPattern) patterns.get(i));
         }
+        regionParser = null;
         setInitialized(true);
     }
 
@@ -325,6 +655,7 @@ public abstract class Parser {
      * @since 1.5
      */
     public void reset(Reader input) {
+        closePipeline();
         this.tokenizer.reset(input);
         this.analyzer.reset();
     }
@@ -346,6 +677,7 @@ public abstract class Parser {
      * @since 1.6
      */
     public void reset(Reader input, Analyzer analyzer) {
+        closePipeline();
         this.tokenizer.reset(input);
         this.analyzer = analyzer;
     }
@@ -375,12 +707,7 @@ public abstract class Parser {
         Node  root = null;
 
         // Initialize parser
-        if (!initialized) {
-            prepare();
-        }
-        this.tokens.clear();
-        this.errorLog = new ParserLogException();
-        this.errorRecovery = -1;
+        initParse();
 
         // Parse input
         try {
@@ -390,13 +717,214 @@ public abstract class Parser {
         }
 
         // Check for errors
+        checkErrors();
+
+        return root;
+    }
+
+    /**
+     * Checks if the token stream matches the grammar. This method
+     * works like parse(), but doesn't create any parse tree, doesn't
+     * call the analyzer, and stops at the first error found instead
+     * of attempting to recover. This includes tokenizer errors, after
+     * which no more tokens are read. It is intended for bulk validation,
+     * where only a yes or no answer is needed together with the
+     * location of the first error.
+     *
+     * @return the first parse error found, or
+     *         null if the input matched the grammar
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     *
+     * @see #parse
+     * @see ParseException#getOffset()
+     *
+     * @since 1.6
+     */
+    public ParseException recognize() throws ParserCreationException {
+        initParse();
+        recognizing = true;
+        try {
+            recognizeStart();
+        } catch (ParseException e) {
+            addError(e, true);
+        } finally {
+            recognizing = false;
+        }
+        closePipeline();
+        if (errorLog.getErrorCount() > 0) {
+            return errorLog.getError(0);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Checks if the token stream matches the grammar. The default
+     * implementation parses the token stream normally, discarding
+     * the parse tree. Subclasses should override this method with
+     * an implementation that doesn't create any parse tree.
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    protected void recognizeStart() throws ParseException {
+        parseStart();
+    }
+
+    /**
+     * Initializes the parser for parsing a new input stream. This
+     * method will call prepare() if not previously called, and
+     * clears the token queue and the error log.
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     *
+     * @since 1.6
+     */
+    void initParse() throws ParserCreationException {
+        if (!initialized) {
+            prepare();
+        }
+        closePipeline();
+        this.tokens.clear();
+        this.errorLog = new ParserLogException();
+        this.errorRecovery = -1;
+        this.rootCreated = false;
+        if (nodeIndex != null) {
+            nodeIndex.clear();
+        }
+    }
+
+    /**
+     * Checks the error log after parsing. If any errors were found,
+     * the error log is thrown. Any token pipeline is stopped first.
+     *
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    void checkErrors() throws ParserLogException {
+        closePipeline();
         if (errorLog.getErrorCount() > 0) {
             throw errorLog;
         }
+    }
+
+    /**
+     * Initializes the parser for parsing a token list. The tokens
+     * will be read from the token list instead of the tokenizer,
+     * until endReplay() is called.
+     *
+     * @param first          the first token to read, or null
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     *
+     * @see Tokenizer#setUseTokenList(boolean)
+     *
+     * @since 1.6
+     */
+    void initReplay(Token first) throws ParserCreationException {
+        initParse();
+        this.replay = true;
+        this.replayToken = first;
+    }
+
+    /**
+     * Stops parsing a token list. Any buffered tokens are discarded,
+     * and the tokens will again be read from the tokenizer.
+     *
+     * @since 1.6
+     */
+    void endReplay() {
+        this.tokens.clear();
+        this.replay = false;
+        this.replayToken = null;
+        this.replayList = null;
+    }
+
+    /**
+     * Parses a list of tokens read in advance from the tokenizer.
+     * The result is the same as if the tokens had been read during
+     * the parse.
+     *
+     * @param list           the tokens and tokenizer errors
+     *
+     * @return the parse tree
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    Node parseList(Object[] list)
+        throws ParserCreationException, ParserLogException {
+
+        Node  root = null;
 
+        initParse();
+        replay = true;
+        replayList = list;
+        replayPos = 0;
+        replayEnd = list.length;
+        try {
+            root = parseStart();
+        } catch (ParseException e) {
+            addError(e, true);
+        } finally {
+            endReplay();
+        }
+        checkErrors();
         return root;
     }
 
+    /**
+     * Creates a copy of this parser for parsing a part of a token
+     * list concurrently. The copy shares the production patterns and
+     * the tokenizer with this parser, but has a separate analyzer and
+     * parsing state. The copy will not fill any node index, and
+     * assumes that the parse tree root has already been created.
+     *
+     * @param list           the tokens and tokenizer errors
+     * @param start          the position of the first entry to read
+     * @param end            the position following the last entry
+     * @param analyzer       the analyzer to use in the copy
+     *
+     * @return the new parser copy
+     *
+     * @since 1.6
+     */
+    Parser copy(Object[] list, int start, int end, Analyzer analyzer) {
+        Parser  parser;
+
+        try {
+            parser = (Parser) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e.getMessage());
+        }
+        parser.analyzer = analyzer;
+        parser.tokens = new TokenQueue();
+        parser.errorLog = new ParserLogException();
+        parser.errorRecovery = -1;
+        parser.nodeIndex = null;
+        parser.rootCreated = true;
+        parser.replay = true;
+        parser.replayToken = null;
+        parser.replayList = list;
+        parser.replayPos = start;
+        parser.replayEnd = end;
+        parser.replayOverrun = false;
+        parser.pipeline = null;
+        return parser;
+    }
+
     /**
      * Parses the token stream and returns a parse tree.
      *
@@ -422,6 +950,256 @@ public abstract class Parser {
         return analyzer.newProduction(pattern);
     }
 
+    /**
+     * Creates a new production node while parsing. The production
+     * node is created with newProduction(), and is then hidden if
+     * not among the kept node ids. The first production node created
+     * in a parse is always kept, as it is the root node.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the new production node
+     *
+     * @since 1.6
+     */
+    Production createProduction(ProductionPattern pattern) {
+        Production  node = newProduction(pattern);
+
+        if (keptIds != null && rootCreated && !isKept(pattern.getId())) {
+            node.setHidden(true);
+        }
+        rootCreated = true;
+        return node;
+    }
+
+    /**
+     * Checks if a production pattern alternative is enclosed by a
+     * pair of distinct delimiter tokens.
+     *
+     * @param alt            the production pattern alternative
+     *
+     * @return true if the alternative is delimited, or
+     *         false otherwise
+     */
+    private boolean isDelimited(ProductionPatternAlternative alt) {
+        ProductionPatternElement  first = alt.getElement(0);
+        ProductionPatternElement  last;
+
+        last = alt.getElement(alt.getElementCount() - 1);
+        return alt.getElementCount() >= 2
+            && first.isToken()
+            && first.getMinCount() == 1
+            && first.getMaxCount() == 1
+            && last.isToken()
+            && last.getMinCount() == 1
+            && last.getMaxCount() == 1
+            && first.getId() != last.getId();
+    }
+
+    /**
+     * Checks if a lazy production region should be skipped. This is
+     * the case when the next token is the opening delimiter of a
+     * lazy production that would be visible in the parse tree.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return true if the production region should be skipped, or
+     *         false otherwise
+     *
+     * @see #setLazy(int, boolean)
+     */
+    boolean isLazy(ProductionPattern pattern) {
+        Token  token;
+
+        if (!pattern.isLazy() || errorRecovery >= 0
+         || !isKept(pattern.getId())) {
+
+            return false;
+        }
+        token = peekToken(0);
+        return token != null && token.getId() == pattern.getLazyOpen();
+    }
+
+    /**
+     * Skips a lazy production region. The tokens are consumed until
+     * the balancing closing delimiter, and are then stored in a lazy
+     * production node. The analyzer callbacks are called for the
+     * lazy production node, but not for the skipped tokens.
+     *
+     * @param pattern        the lazy production pattern
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input ended before the closing
+     *             delimiter
+     */
+    Node skipLazy(ProductionPattern pattern) throws ParseException {
+        ArrayList       list = new ArrayList();
+        Token           token = nextToken(pattern.getLazyOpen());
+        int             level = 1;
+        LazyProduction  node;
+
+        list.add(token);
+        while (level > 0) {
+            token = nextToken();
+            if (token.getId() == pattern.getLazyOpen()) {
+                level++;
+            } else if (token.getId() == pattern.getLazyClose()) {
+                level--;
+            }
+            list.add(token);
+        }
+        node = new LazyProduction(getRegionParser(),
+                                  pattern,
+                                  (Token[]) list.toArray(new Token[0]));
+        enterNode(node);
+        return exitNode(node);
+    }
+
+    /**
+     * Returns the lazy production region parser. The region parser
+     * is created on first use, and is then shared by all copies of
+     * this parser, so that all lazy nodes use the same lock.
+     *
+     * @return the lazy production region parser
+     *
+     * @since 1.6
+     */
+    RegionParser getRegionParser() {
+        if (regionParser == null) {
+            regionParser = new RegionParser(this);
+        }
+        return regionParser;
+    }
+
+    /**
+     * Creates a stripped copy of this parser for parsing lazy
+     * production regions. The copy keeps no reference to the
+     * tokenizer, the analyzer or any parsing state. Instead the
+     * descriptions of the token patterns in the grammar are copied,
+     * so that the same error messages can be created.
+     *
+     * @param handle         the region parser using the copy
+     *
+     * @return the new parser copy
+     *
+     * @see RegionParser
+     *
+     * @since 1.6
+     */
+    Parser copyForRegions(RegionParser handle) {
+        Parser                        parser;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+
+        parser = copy(new Object[0], 0, 0, null);
+        parser.tokenizer = null;
+        parser.regionParser = handle;
+        parser.tokenDescriptions = new HashMap();
+        for (int i = 0; i < patterns.size(); i++) {
+            pattern = (ProductionPattern) patterns.get(i);
+            for (int j = 0; j < pattern.getAlternativeCount(); j++) {
+                alt = pattern.getAlternative(j);
+                for (int k = 0; k < alt.getElementCount(); k++) {
+                    elem = alt.getElement(k);
+                    if (elem.isToken()) {
+                        parser.tokenDescriptions.put(
+                            Integer.valueOf(elem.getId()),
+                            getTokenDescription(elem.getId()));
+                    }
+                }
+            }
+        }
+        return parser;
+    }
+
+    /**
+     * Parses a lazy production region. The region is parsed by a
+     * private copy of this parser, so that this method can be called
+     * both during and after parsing, and concurrently from several
+     * threads. The node index isn't updated.
+     *
+     * @param pattern        the lazy production pattern
+     * @param region         the region tokens
+     * @param analyzer       the analyzer to use for the region
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParserLogException if the region couldn't be parsed
+     *             correctly
+     *
+     * @see LazyProduction#expand(Analyzer)
+     */
+    Node parseRegion(ProductionPattern pattern,
+                     Token[] region,
+                     Analyzer analyzer)
+        throws ParserLogException {
+
+        Parser  parser = copy(region, 0, region.length, analyzer);
+        Node    node = null;
+
+        parser.rootCreated = false;
+        try {
+            node = parser.parseRegionStart(pattern);
+        } catch (ParseException e) {
+            parser.addError(e, true);
+        }
+        if (parser.errorLog.getErrorCount() > 0) {
+            throw parser.errorLog;
+        }
+        return node;
+    }
+
+    /**
+     * Parses a production pattern from the token queue. This method
+     * is called when parsing lazy production regions, and must
+     * consume all the tokens in the queue. The default
+     * implementation throws an error, as lazy productions are only
+     * supported by the recursive descent parsers.
+     *
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    Node parseRegionStart(ProductionPattern pattern) throws ParseException {
+        throw new ParseException(ParseException.INTERNAL_ERROR,
+                                 "lazy productions not supported",
+                                 -1,
+                                 -1);
+    }
+
+    /**
+     * Checks if a node id is among the kept node ids.
+     *
+     * @param id             the production or token id
+     *
+     * @return true if the node should be kept, or
+     *         false otherwise
+     */
+    private boolean isKept(int id) {
+        return keptIds == null || Arrays.binarySearch(keptIds, id) >= 0;
+    }
+
+    /**
+     * Checks if a node is hidden, i.e. if it should not be visible
+     * outside the parser. This includes both synthetic productions
+     * and nodes not among the kept node ids.
+     *
+     * @param node           the parse tree node
+     *
+     * @return true if the node should be hidden, or
+     *         false otherwise
+     */
+    private boolean isHidden(Node node) {
+        return node.isHidden()
+            || (keptIds != null && node instanceof Token
+                && !isKept(node.getId()));
+    }
+
     /**
      * Adds an error to the error log. If the parser is in error
      * recovery mode, the error will not be added to the log. If the
@@ -456,6 +1234,22 @@ public abstract class Parser {
         return (ProductionPattern) patternIds.get(value);
     }
 
+    /**
+     * Returns the production pattern for a production node id. By
+     * default this is the same as getPattern(), but subclasses may
+     * create production nodes for additional patterns.
+     *
+     * @param id             the production pattern id
+     *
+     * @return the production pattern found, or
+     *         null if non-existent
+     *
+     * @since 1.6
+     */
+    ProductionPattern getNodePattern(int id) {
+        return getPattern(id);
+    }
+
     /**
      * Returns the production pattern for the starting production.
      *
@@ -479,16 +1273,46 @@ public abstract class Parser {
         return patterns;
     }
 
+    /**
+     * Replaces the ordered set of production patterns. This method
+     * is used when the grammar has been rewritten before the parser
+     * is prepared. No validation is performed on the patterns.
+     *
+     * @param list           the new ordered set of production patterns
+     *
+     * @since 1.6
+     */
+    void setPatterns(Collection list) {
+        Iterator           iter = list.iterator();
+        ProductionPattern  pattern;
+
+        patterns = new ArrayList(list.size());
+        patternIds = new HashMap();
+        while (iter.hasNext()) {
+            pattern = (ProductionPattern) iter.next();
+            patterns.add(pattern);
+            patternIds.put(Integer.valueOf(pattern.getId()), pattern);
+        }
+        setInitialized(false);
+    }
+
     /**
      * Handles the parser entering a production. This method calls the
      * appropriate analyzer call-back if the node is not hidden. Note
      * that this method will not call any call-back if an error
-     * requiring recovery has occurred.
+     * requiring recovery has occurred. For production nodes, the
+     * number of look-ahead tokens already read is also recorded.
      *
      * @param node           the parse tree node
      */
     void enterNode(Node node) {
-        if (!node.isHidden() && errorRecovery < 0) {
+        if (node instanceof Production) {
+            ((Production) node).setLookAhead(tokens.size());
+        }
+        if (nodeIndex != null && !isHidden(node)) {
+            nodeIndex.enter(node);
+        }
+        if (!isHidden(node) && errorRecovery < 0) {
             try {
                 analyzer.enter(node);
             } catch (ParseException e) {
@@ -509,14 +1333,19 @@ public abstract class Parser {
      *         null if no parse tree should be created
      */
     Node exitNode(Node node) {
-        if (!node.isHidden() && errorRecovery < 0) {
+        Node  result = node;
+
+        if (!isHidden(node) && errorRecovery < 0) {
             try {
-                return analyzer.exit(node);
+                result = analyzer.exit(node);
             } catch (ParseException e) {
                 addError(e, false);
             }
         }
-        return node;
+        if (nodeIndex != null && !isHidden(node)) {
+            nodeIndex.exit(result);
+        }
+        return result;
     }
 
     /**
@@ -533,13 +1362,81 @@ public abstract class Parser {
             // Do nothing
         } else if (node.isHidden()) {
             node.addChild(child);
-        } else if (child != null && child.isHidden()) {
+        } else if (child != null && isHidden(child)) {
             for (int i = 0; i < child.getChildCount(); i++) {
                 addNode(node, child.getChildAt(i));
             }
         } else {
             try {
                 analyzer.child(node, child);
+                if (child instanceof Production
+                 && ((Production) child).getPattern().isDetachable()) {
+
+                    node.removeChild(child);
+                    analyzer.detach(node, child);
+                }
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
+    /**
+     * Delivers a production start event to a parse listener. Note
+     * that this method will not deliver any event if an error
+     * requiring recovery has occurred.
+     *
+     * @param listener       the parse event listener
+     * @param id             the production pattern id
+     *
+     * @since 1.6
+     */
+    void startProduction(ParseListener listener, int id) {
+        if (errorRecovery < 0) {
+            try {
+                listener.startProduction(id);
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
+    /**
+     * Delivers a token event to a parse listener. Note that this
+     * method will not deliver any event if an error requiring
+     * recovery has occurred.
+     *
+     * @param listener       the parse event listener
+     * @param token          the token parsed
+     *
+     * @since 1.6
+     */
+    void tokenEvent(ParseListener listener, Token token) {
+        if (errorRecovery < 0) {
+            try {
+                listener.token(token.getId(),
+                               token.getStartOffset(),
+                               token.getImage().length());
+            } catch (ParseException e) {
+                addError(e, false);
+            }
+        }
+    }
+
+    /**
+     * Delivers a production end event to a parse listener. Note that
+     * this method will not deliver any event if an error requiring
+     * recovery has occurred.
+     *
+     * @param listener       the parse event listener
+     * @param id             the production pattern id
+     *
+     * @since 1.6
+     */
+    void endProduction(ParseListener listener, int id) {
+        if (errorRecovery < 0) {
+            try {
+                listener.endProduction(id);
             } catch (ParseException e) {
                 addError(e, false);
             }
@@ -559,14 +1456,23 @@ public abstract class Parser {
         Token  token = peekToken(0);
 
         if (token != null) {
-            tokens.remove(0);
+            tokens.consume();
             return token;
         } else {
+            if (tokenizer == null) {
+                throw new ParseException(
+                    ParseException.UNEXPECTED_EOF_ERROR,
+                    null,
+                    -1,
+                    -1);
+            }
             throw new ParseException(
                 ParseException.UNEXPECTED_EOF_ERROR,
                 null,
+                null,
                 tokenizer.getCurrentLine(),
-                tokenizer.getCurrentColumn());
+                tokenizer.getCurrentColumn(),
+                tokenizer.getCurrentOffset());
         }
     }
 
@@ -594,13 +1500,86 @@ public abstract class Parser {
             return token;
         } else {
             list = new ArrayList(1);
-            list.add(tokenizer.getPatternDescription(id));
+            list.add(getTokenDescription(id));
             throw new ParseException(
                 ParseException.UNEXPECTED_TOKEN_ERROR,
                 token.toShortString(),
                 list,
                 token.getStartLine(),
-                token.getStartColumn());
+                token.getStartColumn(),
+                token.getStartOffset());
+        }
+    }
+
+    /**
+     * Reads the next replayed token into the token queue. Ignored
+     * tokens in a token list are skipped, and error tokens and
+     * tokenizer errors are reported as errors.
+     *
+     * @return true if a token or an error was read, or
+     *         false if no more tokens are available
+     */
+    private boolean readReplay() {
+        Object  obj;
+        Token   token;
+
+        if (replayToken != null) {
+            token = replayToken;
+            replayToken = token.getNextToken();
+        } else if (replayList != null && replayPos < replayEnd) {
+            obj = replayList[replayPos++];
+            if (obj instanceof ParseException) {
+                addError((ParseException) obj, true);
+                return true;
+            }
+            token = (Token) obj;
+        } else {
+            return false;
+        }
+        if (token.getPattern().isError()) {
+            addError(new ParseException(
+                ParseException.INVALID_TOKEN_ERROR,
+                token.getPattern().getErrorMessage(),
+                null,
+                token.getStartLine(),
+                token.getStartColumn(),
+                token.getStartOffset()), true);
+        } else if (!token.getPattern().isIgnore()) {
+            tokens.add(token);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the next token or tokenizer error from the token
+     * pipeline. The pipeline is started if not already running.
+     *
+     * @return the next token or tokenizer error, or
+     *         null if end of file was encountered
+     */
+    private Object readPipeline() {
+        if (pipeline == null) {
+            pipeline = new TokenPipeline(tokenizer);
+        }
+        try {
+            return pipeline.next();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            addError(new ParseException(ParseException.INTERNAL_ERROR,
+                                        "parsing interrupted",
+                                        -1,
+                                        -1), true);
+            return null;
+        }
+    }
+
+    /**
+     * Stops the token pipeline, if running.
+     */
+    private void closePipeline() {
+        if (pipeline != null) {
+            pipeline.close();
+            pipeline = null;
         }
     }
 
@@ -615,9 +1594,35 @@ public abstract class Parser {
      *         null if no more tokens in the queue
      */
     Token peekToken(int steps) {
-        Token  token;
+        Token   token;
+        Object  obj;
 
         while (steps >= tokens.size()) {
+            if (recognizing && errorLog.getErrorCount() > 0) {
+                // Stops reading at the first tokenizer error
+                return null;
+            } else if (replay) {
+                if (!readReplay()) {
+                    if (steps > 0
+                     && replayList != null
+                     && replayEnd < replayList.length) {
+
+                        replayOverrun = true;
+                    }
+                    return null;
+                }
+                continue;
+            } else if (usePipeline) {
+                obj = readPipeline();
+                if (obj == null) {
+                    return null;
+                } else if (obj instanceof ParseException) {
+                    addError((ParseException) obj, true);
+                } else {
+                    tokens.add((Token) obj);
+                }
+                continue;
+            }
             try {
                 token = tokenizer.next();
                 if (token == null) {
@@ -629,7 +1634,39 @@ public abstract class Parser {
                 addError(e, true);
             }
         }
-        return (Token) tokens.get(steps);
+        return tokens.peek(steps);
+    }
+
+    /**
+     * Checks if a look-ahead of more than one token has reached the
+     * end of a replayed token list segment. The look-ahead would then
+     * have seen the start of the following segment if the whole token
+     * list had been parsed at once, so the parse result may differ.
+     *
+     * @return true if the look-ahead reached the segment end, or
+     *         false otherwise
+     *
+     * @see #copy(Object[], int, int, Analyzer)
+     *
+     * @since 1.6
+     */
+    boolean isReplayOverrun() {
+        return replayOverrun;
+    }
+
+    /**
+     * Returns the peak look-ahead depth of the last parse. This is
+     * the largest number of tokens that were read from the
+     * tokenizer, but not yet consumed, at any point during the
+     * parsing. Grammars requiring long look-ahead sequences will
+     * have a larger peak depth.
+     *
+     * @return the peak number of look-ahead tokens buffered
+     *
+     * @since 1.6
+     */
+    public int getPeakLookAhead() {
+        return tokens.getPeakSize();
     }
 
     /**
@@ -758,7 +1795,9 @@ public abstract class Parser {
      * @return the token description
      */
     String getTokenDescription(int token) {
-        if (tokenizer == null) {
+        if (tokenDescriptions != null) {
+            return (String) tokenDescriptions.get(Integer.valueOf(token));
+        } else if (tokenizer == null) {
             return "";
         } else {
             return tokenizer.getPatternDescription(token);
@@ -21,7 +21,7 @@ import java.util.ArrayList;
  * errors encountered while parsing.
  *
  * @author   Per Cederberg
- * @version  1.1
+ * @version  1.6
  * @since    1.1
  */
 public class ParserLogException extends Exception {
@@ -52,12 +52,28 @@ public class ParserLogException extends Exception {
     }
 
     /**
-     * Adds a parse error to the log.
+     * Adds a parse error to the log. Any errors chained to the error
+     * are also added, in order.
      *
      * @param e              the parse error to add
      */
     public void addError(ParseException e) {
-        errors.add(e);
+        for (; e != null; e = e.getNext()) {
+            errors.add(e);
+        }
+    }
+
+    /**
+     * Adds all the parse errors from another log. The errors in the
+     * other log have already been added individually, so any error
+     * chains are not followed again.
+     *
+     * @param log            the parse error log to copy from
+     *
+     * @since 1.6
+     */
+    void addErrors(ParserLogException log) {
+        errors.addAll(log.errors);
     }
 
     /**
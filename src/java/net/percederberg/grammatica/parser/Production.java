@@ -20,10 +20,17 @@ import java.util.ArrayList;
  * A production node. This class represents a grammar production (i.e.
  * a list of child nodes) in a parse tree. The productions are created
  * by a parser, that adds children a according to a set of production
- * patterns (i.e. grammar rules).
+ * patterns (i.e. grammar rules).<p>
+ *
+ * The production descendant count is stored in the node and updated
+ * whenever a child node is added or removed, so it can be retrieved
+ * without traversing the child nodes. The position span is instead
+ * read on demand from the first and last descendant tokens, so it
+ * follows any tokens moved by the tokenizer after an edit. Normally
+ * only the nodes along a single path to a token are visited.
  *
  * @author   Per Cederberg
- * @version  1.1
+ * @version  1.6
  */
 public class Production extends Node {
 
@@ -37,6 +44,24 @@ public class Production extends Node {
      */
     private ArrayList children;
 
+    /**
+     * The number of descendant nodes.
+     */
+    private int descendants = 0;
+
+    /**
+     * The number of look-ahead tokens read when entering this node,
+     * combined with the HIDDEN flag bit.
+     */
+    private int lookAhead = 0;
+
+    /**
+     * The hidden flag bit in the look-ahead field. This flag is set
+     * for productions that should not be visible outside the parser,
+     * besides synthetic ones.
+     */
+    private static final int HIDDEN = 0x40000000;
+
     /**
      * Creates a new production node.
      *
@@ -47,6 +72,32 @@ public class Production extends Node {
         this.children = new ArrayList();
     }
 
+    /**
+     * Returns the production look-ahead. This is the number of
+     * tokens from the start of the production that had been read by
+     * the parser when the production node was entered. Any change to
+     * these tokens may change the parse tree above this node.
+     *
+     * @return the number of look-ahead tokens read
+     *
+     * @since 1.6
+     */
+    int getLookAhead() {
+        return lookAhead & ~HIDDEN;
+    }
+
+    /**
+     * Sets the production look-ahead. This method is called by the
+     * parser when entering the production node.
+     *
+     * @param lookAhead      the number of look-ahead tokens read
+     *
+     * @since 1.6
+     */
+    void setLookAhead(int lookAhead) {
+        this.lookAhead = (this.lookAhead & HIDDEN) | lookAhead;
+    }
+
     /**
      * Checks if this node is hidden, i.e. if it should not be visible
      * outside the parser.
@@ -55,7 +106,23 @@ public class Production extends Node {
      *         false otherwise
      */
     boolean isHidden() {
-        return pattern.isSynthetic();
+        return (lookAhead & HIDDEN) != 0 || pattern.isSynthetic();
+    }
+
+    /**
+     * Sets the hidden flag. A hidden production will not be visible
+     * outside the parser, as with synthetic productions.
+     *
+     * @param hidden         the new hidden flag
+     *
+     * @since 1.6
+     */
+    void setHidden(boolean hidden) {
+        if (hidden) {
+            lookAhead |= HIDDEN;
+        } else {
+            lookAhead &= ~HIDDEN;
+        }
     }
 
     /**
@@ -87,6 +154,108 @@ public class Production extends Node {
         return pattern.getName();
     }
 
+    /**
+     * The line number of the first character in this node. This
+     * value is read from the first descendant node having a known
+     * position.
+     *
+     * @return the line number of the first character, or
+     *         -1 if not applicable
+     */
+    public int getStartLine() {
+        Node  node = findPosition(true, false);
+
+        return (node == null) ? -1 : node.getStartLine();
+    }
+
+    /**
+     * The column number of the first character in this node. This
+     * value is read from the first descendant node having a known
+     * position.
+     *
+     * @return the column number of the first token character, or
+     *         -1 if not applicable
+     */
+    public int getStartColumn() {
+        Node  node = findPosition(true, false);
+
+        return (node == null) ? -1 : node.getStartColumn();
+    }
+
+    /**
+     * The line number of the last character in this node. This
+     * value is read from the last descendant node having a known
+     * position.
+     *
+     * @return the line number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndLine() {
+        Node  node = findPosition(false, false);
+
+        return (node == null) ? -1 : node.getEndLine();
+    }
+
+    /**
+     * The column number of the last character in this node. This
+     * value is read from the last descendant node having a known
+     * position.
+     *
+     * @return the column number of the last token character, or
+     *         -1 if not applicable
+     */
+    public int getEndColumn() {
+        Node  node = findPosition(false, false);
+
+        return (node == null) ? -1 : node.getEndColumn();
+    }
+
+    /**
+     * The character offset of the first character in this node.
+     * This value is read from the first descendant node having a
+     * known offset.
+     *
+     * @return the character offset of the first character, or
+     *         -1 if not applicable
+     *
+     * @since 1.6
+     */
+    public int getStartOffset() {
+        Node  node = findPosition(true, true);
+
+        return (node == null) ? -1 : node.getStartOffset();
+    }
+
+    /**
+     * The character offset following the last character in this
+     * node. This value is read from the last descendant node having
+     * a known offset.
+     *
+     * @return the character offset following the last character, or
+     *         -1 if not applicable
+     *
+     * @since 1.6
+     */
+    public int getEndOffset() {
+        Node  node = findPosition(false, true);
+
+        return (node == null) ? -1 : node.getEndOffset();
+    }
+
+    /**
+     * Checks if the position span is read from the child nodes.
+     * Subclasses that compute their own positions return false, so
+     * that their child nodes aren't searched.
+     *
+     * @return true if the child nodes are searched, or
+     *         false otherwise
+     *
+     * @since 1.6
+     */
+    boolean isSpanFromChildren() {
+        return true;
+    }
+
     /**
      * Returns the number of child nodes.
      *
@@ -112,9 +281,23 @@ public class Production extends Node {
         }
     }
 
+    /**
+     * Returns the number of descendant nodes. This value is stored
+     * in the node and updated as child nodes are added or removed.
+     *
+     * @return the number of descendant nodes
+     *
+     * @since 1.2
+     */
+    public int getDescendantCount() {
+        return descendants;
+    }
+
     /**
      * Adds a child node. The node will be added last in the list of
-     * children.
+     * children. The descendant count of this node is updated, as are
+     * those of any ancestor nodes, so the cost is proportional to
+     * the tree depth.
      *
      * @param child          the child node to add
      */
@@ -122,7 +305,219 @@ public class Production extends Node {
         if (child != null) {
             child.setParent(this);
             children.add(child);
+            addDescendants(1 + child.getDescendantCount());
+        }
+    }
+
+    /**
+     * Removes a child node. The child node is searched for from the
+     * end of the list of children, and its parent reference is
+     * cleared if found.
+     *
+     * @param child          the child node to remove
+     *
+     * @return true if the child node was removed, or
+     *         false if it wasn't found
+     *
+     * @since 1.6
+     */
+    boolean removeChild(Node child) {
+        for (int i = children.size() - 1; i >= 0; i--) {
+            if (children.get(i) == child) {
+                children.remove(i);
+                child.setParent(null);
+                addDescendants(-1 - child.getDescendantCount());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all child nodes. The parent references of the child
+     * nodes are cleared, and the descendant count is reset.
+     *
+     * @since 1.6
+     */
+    void removeAllChildren() {
+        for (int i = 0; i < children.size(); i++) {
+            ((Node) children.get(i)).setParent(null);
         }
+        children.clear();
+        addDescendants(-descendants);
+    }
+
+    /**
+     * Removes all child nodes from the specified position and
+     * onwards. The parent references of the removed child nodes are
+     * left unmodified, as this method is used to remove duplicate
+     * references to nodes that are still present in this production.
+     *
+     * @param start          the index of the first child to remove
+     *
+     * @since 1.6
+     */
+    void removeChildren(int start) {
+        Node  child;
+        int   count = 0;
+
+        while (children.size() > start) {
+            child = (Node) children.remove(children.size() - 1);
+            count += 1 + child.getDescendantCount();
+        }
+        if (count > 0) {
+            addDescendants(-count);
+        }
+    }
+
+    /**
+     * Detaches a production child node. The child node is replaced
+     * by an empty placeholder production with the same pattern, and
+     * its parent reference is cleared. The position span and the
+     * descendant count are left unmodified, as this method is only
+     * used before an in-place analysis that removes all the child
+     * nodes anyway.
+     *
+     * @param index          the index of the child to detach
+     *
+     * @since 1.6
+     */
+    void detachChild(int index) {
+        Production  child = (Production) children.get(index);
+        Production  placeholder = new Production(child.getPattern());
+
+        placeholder.setParent(this);
+        children.set(index, placeholder);
+        child.setParent(null);
+    }
+
+    /**
+     * Replaces a child node. The replaced child node was parsed from
+     * an earlier version of the input, and so were the following
+     * nodes. As the position spans are read from the descendant
+     * tokens, only the descendant counts of the ancestor nodes need
+     * to be updated. The cost is therefore proportional to the tree
+     * depth.
+     *
+     * @param child          the child node to replace
+     * @param replacement    the new child node
+     *
+     * @since 1.6
+     */
+    void replaceChild(Node child, Node replacement) {
+        children.set(children.indexOf(child), replacement);
+        child.setParent(null);
+        replacement.setParent(this);
+        addDescendants(replacement.getDescendantCount() -
+                       child.getDescendantCount());
+    }
+
+    /**
+     * Adds to the descendant count of this node and all ancestor
+     * nodes.
+     *
+     * @param count          the number of descendants to add
+     */
+    private void addDescendants(int count) {
+        Node  node = this;
+
+        while (node instanceof Production) {
+            ((Production) node).descendants += count;
+            node = node.getParent();
+        }
+    }
+
+    /**
+     * Finds the first or last descendant node with a known position.
+     * The subtree is searched depth-first from the first or the last
+     * child node, using an explicit stack so that trees of any depth
+     * can be searched. Only nodes with empty subtrees cause any
+     * siblings to be searched.
+     *
+     * @param first          the first descendant flag
+     * @param offset         the character offset flag
+     *
+     * @return the descendant node found, or
+     *         null if no position is known
+     */
+    private Node findPosition(boolean first, boolean offset) {
+        Production[]  prods = new Production[8];
+        int[]         pos = new int[8];
+        int           depth = 0;
+        int           step = first ? 1 : -1;
+        Production    prod;
+        Node          node;
+
+        prods[0] = this;
+        pos[0] = first ? 0 : children.size() - 1;
+        while (depth >= 0) {
+            prod = prods[depth];
+            if (pos[depth] < 0 || pos[depth] >= prod.children.size()) {
+                prods[depth--] = null;
+                continue;
+            }
+            node = (Node) prod.children.get(pos[depth]);
+            pos[depth] += step;
+            if (node instanceof Production
+             && ((Production) node).isSpanFromChildren()) {
+
+                if (++depth >= prods.length) {
+                    prods = grow(prods);
+                    pos = grow(pos);
+                }
+                prods[depth] = (Production) node;
+                pos[depth] = first ? 0 : node.getChildCount() - 1;
+            } else if (getPosition(node, first, offset) >= 0) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the start or end position of a node.
+     *
+     * @param node           the node to check
+     * @param first          the start position flag
+     * @param offset         the character offset flag
+     *
+     * @return the line number or character offset, or
+     *         -1 if not applicable
+     */
+    private static int getPosition(Node node, boolean first, boolean offset) {
+        if (offset) {
+            return first ? node.getStartOffset() : node.getEndOffset();
+        } else {
+            return first ? node.getStartLine() : node.getEndLine();
+        }
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     *
+     * @return the new array
+     */
+    private static Production[] grow(Production[] array) {
+        Production[]  copy = new Production[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Returns a copy of an array with twice the size.
+     *
+     * @param array          the array to copy
+     *
+     * @return the new array
+     */
+    private static int[] grow(int[] array) {
+        int[]  copy = new int[array.length * 2];
+
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
     }
 
     /**
@@ -24,7 +24,7 @@ import java.util.ArrayList;
  * production pattern from production pattern elements.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.6
  */
 public class ProductionPattern {
 
@@ -45,6 +45,25 @@ public class ProductionPattern {
      */
     private boolean synthetic;
 
+    /**
+     * The detachable production flag. If this flag is set, the
+     * production nodes for this pattern are removed from their
+     * parent once they have been analyzed.
+     */
+    private boolean detachable;
+
+    /**
+     * The lazy production opening delimiter token id, or -1 if the
+     * production isn't lazy.
+     */
+    private int lazyOpen = -1;
+
+    /**
+     * The lazy production closing delimiter token id, or -1 if the
+     * production isn't lazy.
+     */
+    private int lazyClose = -1;
+
     /**
      * The list of production pattern alternatives.
      */
@@ -72,6 +91,7 @@ public class ProductionPattern {
         this.id = id;
         this.name = name;
         this.synthetic = false;
+        this.detachable = false;
         this.alternatives = new ArrayList();
         this.defaultAlt = -1;
         this.lookAhead = null;
@@ -110,6 +130,60 @@ public class ProductionPattern {
         return isSynthetic();
     }
 
+    /**
+     * Checks if the detachable production flag is set. If this flag
+     * is set, each production node for this pattern will be removed
+     * from the parent node after it has been analyzed, and passed to
+     * the analyzer detach() callback.
+     *
+     * @return true if this production pattern is detachable, or
+     *         false otherwise
+     *
+     * @see Analyzer#detach(Production, Node)
+     *
+     * @since 1.6
+     */
+    public boolean isDetachable() {
+        return detachable;
+    }
+
+    /**
+     * Checks if the lazy production flag is set. If this flag is set,
+     * the delimited regions for this pattern will be skipped while
+     * parsing, and only parsed once the child nodes are accessed.
+     *
+     * @return true if this production pattern is lazy, or
+     *         false otherwise
+     *
+     * @see Parser#setLazy(int, boolean)
+     * @see LazyProduction
+     *
+     * @since 1.6
+     */
+    public boolean isLazy() {
+        return lazyOpen >= 0;
+    }
+
+    /**
+     * Returns the lazy production opening delimiter token id.
+     *
+     * @return the opening delimiter token id, or
+     *         -1 if the production isn't lazy
+     */
+    int getLazyOpen() {
+        return lazyOpen;
+    }
+
+    /**
+     * Returns the lazy production closing delimiter token id.
+     *
+     * @return the closing delimiter token id, or
+     *         -1 if the production isn't lazy
+     */
+    int getLazyClose() {
+        return lazyClose;
+    }
+
     /**
      * Checks if this pattern is recursive on the left-hand side. This
      * method checks if any of the production pattern alternatives is
@@ -202,6 +276,34 @@ public class ProductionPattern {
         this.synthetic = synthetic;
     }
 
+    /**
+     * Sets the detachable production pattern flag. If this flag is
+     * set, the production nodes for this pattern will be removed from
+     * their parent once they have been analyzed. By default this flag
+     * is set to false.
+     *
+     * @param detachable      the new value of the detachable flag
+     *
+     * @since 1.6
+     */
+    public void setDetachable(boolean detachable) {
+        this.detachable = detachable;
+    }
+
+    /**
+     * Sets the lazy production delimiter token ids. The delimiters
+     * are validated by the parser before calling this method.
+     *
+     * @param open           the opening delimiter token id, or -1
+     * @param close          the closing delimiter token id, or -1
+     *
+     * @see Parser#setLazy(int, boolean)
+     */
+    void setLazy(int open, int close) {
+        this.lazyOpen = open;
+        this.lazyClose = close;
+    }
+
     /**
      * Sets the synthetic production pattern flag. If this flag is set,
      * the production identified by this pattern has been artificially
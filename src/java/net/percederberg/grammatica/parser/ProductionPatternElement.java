@@ -22,7 +22,7 @@ package net.percederberg.grammatica.parser;
  * contained within a production pattern rule.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.6
  */
 public class ProductionPatternElement {
 
@@ -52,6 +52,15 @@ public class ProductionPatternElement {
      */
     private LookAheadSet lookAhead;
 
+    /**
+     * The collapsed production patterns for this element. If a
+     * chain of single-child productions has been collapsed by the
+     * grammar optimizer, this array contains the removed patterns in
+     * the original nesting order (outermost first). Otherwise it is
+     * null.
+     */
+    private ProductionPattern[] collapsed = null;
+
     /**
      * Creates a new element. If the maximum value if zero (0) or
      * negative, it will be set to Integer.MAX_VALUE.
@@ -216,4 +225,30 @@ public class ProductionPatternElement {
     void setLookAhead(LookAheadSet lookAhead) {
         this.lookAhead = lookAhead;
     }
+
+    /**
+     * Returns the collapsed production patterns for this element.
+     * Parse tree nodes for these patterns should be created around
+     * the node for this element, in order to preserve the original
+     * production ids.
+     *
+     * @return the collapsed production patterns (outermost first), or
+     *         null if no patterns were collapsed
+     *
+     * @since 1.6
+     */
+    ProductionPattern[] getCollapsed() {
+        return collapsed;
+    }
+
+    /**
+     * Sets the collapsed production patterns for this element.
+     *
+     * @param collapsed      the collapsed patterns, or null for none
+     *
+     * @since 1.6
+     */
+    void setCollapsed(ProductionPattern[] collapsed) {
+        this.collapsed = collapsed;
+    }
 }
@@ -0,0 +1,249 @@
+/*
+ * ProductionTable.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * A flattened set of production tables. This class contains the
+ * production patterns, alternatives and elements of a prepared
+ * parser stored in parallel arrays, indexed by position instead of
+ * by object reference. The tables are created from the production
+ * patterns after the look-ahead sets have been calculated, and are
+ * read-only once created.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class ProductionTable {
+
+    /**
+     * The production patterns, indexed by pattern position. The
+     * start pattern is always at position zero (0).
+     */
+    final ProductionPattern[] patterns;
+
+    /**
+     * The first alternative position for each pattern. This array
+     * contains one extra entry, so that the alternatives for pattern
+     * i are in the range [patternAlts[i], patternAlts[i + 1]).
+     */
+    final int[] patternAlts;
+
+    /**
+     * The synthetic flag for each pattern. No parse tree nodes are
+     * created for synthetic patterns.
+     */
+    final boolean[] patternSynthetic;
+
+    /**
+     * The default alternative position for each pattern, or -1 if
+     * the pattern has no default alternative.
+     */
+    final int[] patternDefault;
+
+    /**
+     * The union of all alternative look-ahead sets for each
+     * pattern. These sets are used for error reporting.
+     */
+    final LookAheadSet[] patternUnion;
+
+    /**
+     * The pattern position for each alternative.
+     */
+    final int[] altPattern;
+
+    /**
+     * The look-ahead set for each alternative.
+     */
+    final LookAheadSet[] altLookAhead;
+
+    /**
+     * The first element position for each alternative. This array
+     * contains one extra entry, so that the elements for alternative
+     * i are in the range [altElems[i], altElems[i + 1]).
+     */
+    final int[] altElems;
+
+    /**
+     * The token flag for each element.
+     */
+    final boolean[] elemToken;
+
+    /**
+     * The token id (for token elements) or the pattern position (for
+     * production elements) of each element.
+     */
+    final int[] elemRef;
+
+    /**
+     * The minimum occurrence count for each element.
+     */
+    final int[] elemMin;
+
+    /**
+     * The maximum occurrence count for each element.
+     */
+    final int[] elemMax;
+
+    /**
+     * The look-ahead set used for each element, or null if the token
+     * id should be checked directly. For production elements without
+     * a look-ahead set of their own, the look-ahead set of the
+     * referenced pattern is used.
+     */
+    final LookAheadSet[] elemLookAhead;
+
+    /**
+     * The collapsed production patterns for each element, or null if
+     * no patterns were collapsed by the grammar optimizer.
+     *
+     * @see ProductionPatternElement#getCollapsed()
+     */
+    final ProductionPattern[][] elemCollapsed;
+
+    /**
+     * Creates a new production table from a set of prepared
+     * production patterns.
+     *
+     * @param list           the ordered set of production patterns
+     */
+    ProductionTable(Collection list) {
+        HashMap                       index = new HashMap();
+        Iterator                      iter;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+        int                           altCount = 0;
+        int                           elemCount = 0;
+        int                           a = 0;
+        int                           e = 0;
+
+        // Count patterns, alternatives and elements
+        patterns = new ProductionPattern[list.size()];
+        iter = list.iterator();
+        for (int i = 0; iter.hasNext(); i++) {
+            pattern = (ProductionPattern) iter.next();
+            patterns[i] = pattern;
+            index.put(Integer.valueOf(pattern.getId()), Integer.valueOf(i));
+            altCount += pattern.getAlternativeCount();
+            for (int j = 0; j < pattern.getAlternativeCount(); j++) {
+                elemCount += pattern.getAlternative(j).getElementCount();
+            }
+        }
+        patternAlts = new int[patterns.length + 1];
+        patternSynthetic = new boolean[patterns.length];
+        patternDefault = new int[patterns.length];
+        patternUnion = new LookAheadSet[patterns.length];
+        altPattern = new int[altCount];
+        altLookAhead = new LookAheadSet[altCount];
+        altElems = new int[altCount + 1];
+        elemToken = new boolean[elemCount];
+        elemRef = new int[elemCount];
+        elemMin = new int[elemCount];
+        elemMax = new int[elemCount];
+        elemLookAhead = new LookAheadSet[elemCount];
+        elemCollapsed = new ProductionPattern[elemCount][];
+
+        // Flatten patterns
+        for (int i = 0; i < patterns.length; i++) {
+            pattern = patterns[i];
+            patternAlts[i] = a;
+            patternSynthetic[i] = pattern.isSynthetic();
+            patternDefault[i] = -1;
+            patternUnion[i] = createUnion(pattern);
+            for (int j = 0; j < pattern.getAlternativeCount(); j++) {
+                alt = pattern.getAlternative(j);
+                if (alt == pattern.getDefaultAlternative()) {
+                    patternDefault[i] = a;
+                }
+                altPattern[a] = i;
+                altLookAhead[a] = alt.getLookAhead();
+                altElems[a] = e;
+                for (int k = 0; k < alt.getElementCount(); k++) {
+                    elem = alt.getElement(k);
+                    elemToken[e] = elem.isToken();
+                    elemMin[e] = elem.getMinCount();
+                    elemMax[e] = elem.getMaxCount();
+                    elemLookAhead[e] = elem.getLookAhead();
+                    elemCollapsed[e] = elem.getCollapsed();
+                    if (elem.isToken()) {
+                        elemRef[e] = elem.getId();
+                    } else {
+                        elemRef[e] = ((Integer) index.get(
+                            Integer.valueOf(elem.getId()))).intValue();
+                        if (elemLookAhead[e] == null) {
+                            elemLookAhead[e] =
+                                patterns[elemRef[e]].getLookAhead();
+                        }
+                    }
+                    e++;
+                }
+                a++;
+            }
+        }
+        patternAlts[patterns.length] = a;
+        altElems[altCount] = e;
+    }
+
+    /**
+     * Returns the union of all alternative look-ahead sets in a
+     * production pattern.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return a unified look-ahead set
+     */
+    private LookAheadSet createUnion(ProductionPattern pattern) {
+        LookAheadSet  result;
+        int           length = 0;
+        int           i;
+
+        for (i = 0; i < pattern.getAlternativeCount(); i++) {
+            result = pattern.getAlternative(i).getLookAhead();
+            if (result.getMaxLength() > length) {
+                length = result.getMaxLength();
+            }
+        }
+        result = new LookAheadSet(length);
+        for (i = 0; i < pattern.getAlternativeCount(); i++) {
+            result.addAll(pattern.getAlternative(i).getLookAhead());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of production patterns in the table.
+     *
+     * @return the number of production patterns
+     */
+    int getPatternCount() {
+        return patterns.length;
+    }
+
+    /**
+     * Returns the number of elements in a pattern alternative.
+     *
+     * @param alt            the alternative position
+     *
+     * @return the number of elements in the alternative
+     */
+    int getElementCount(int alt) {
+        return altElems[alt + 1] - altElems[alt];
+    }
+}
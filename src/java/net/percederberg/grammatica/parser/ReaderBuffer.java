@@ -29,7 +29,7 @@ import java.io.Reader;
  * kept to enable boundary condition checks.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  * @since    1.5
  */
 public class ReaderBuffer implements CharSequence {
@@ -52,6 +52,13 @@ public class ReaderBuffer implements CharSequence {
      */
     private int pos = 0;
 
+    /**
+     * The number of characters removed from the beginning of the
+     * buffer. This is used to calculate the absolute character
+     * offset of the current position.
+     */
+    private int removed = 0;
+
     /**
      * The number of characters in the buffer.
      */
@@ -74,6 +81,13 @@ public class ReaderBuffer implements CharSequence {
      */
     private int column = 1;
 
+    /**
+     * The character offset following the last character examined.
+     * This value is updated whenever characters are peeked at, and
+     * is used to find the look-ahead needed for matching a token.
+     */
+    private int examined = 0;
+
     /**
      * Creates a new tokenizer character buffer.
      *
@@ -83,6 +97,28 @@ public class ReaderBuffer implements CharSequence {
         this.input = input;
     }
 
+    /**
+     * Creates a new tokenizer character buffer starting inside an
+     * input source. The line and column numbers and the character
+     * offset of the first character are specified, so that the
+     * positions will be consistent with the complete input.
+     *
+     * @param input           the input source character reader
+     * @param line            the line number of the first character
+     * @param column          the column number of the first character
+     * @param offset          the character offset of the first
+     *                        character
+     *
+     * @since 1.6
+     */
+    ReaderBuffer(Reader input, int line, int column, int offset) {
+        this.input = input;
+        this.line = line;
+        this.column = column;
+        this.removed = offset;
+        this.examined = offset;
+    }
+
     /**
      * Discards all resources used by this buffer. This will also
      * close the source input stream. Disposing a previously disposed
@@ -90,6 +126,7 @@ public class ReaderBuffer implements CharSequence {
      */
     public void dispose() {
         buffer = null;
+        removed += pos;
         pos = 0;
         length = 0;
         if (input != null) {
@@ -111,6 +148,19 @@ public class ReaderBuffer implements CharSequence {
         return pos;
     }
 
+    /**
+     * Returns the current character offset. This number is the
+     * number of characters read from the input source before the
+     * current position.
+     *
+     * @return the current position character offset
+     *
+     * @since 1.6
+     */
+    public int offset() {
+        return removed + pos;
+    }
+
     /**
      * Returns the current line number. This number is the input
      * source line number of the current position.
@@ -153,6 +203,9 @@ public class ReaderBuffer implements CharSequence {
      *             not less than length()
      */
     public char charAt(int index) throws IndexOutOfBoundsException {
+        if (removed + index >= examined) {
+            examined = removed + index + 1;
+        }
         return buffer[index];
     }
 
@@ -215,9 +268,37 @@ public class ReaderBuffer implements CharSequence {
             ensureBuffered(offset + 1);
             index = pos + offset;
         }
+        if (removed + index >= examined) {
+            examined = removed + index + 1;
+        }
         return (index >= length) ? -1 : buffer[index];
     }
 
+    /**
+     * Returns the character offset following the last character
+     * examined. This includes all characters peeked at since the
+     * last call to clearExamined(), also when beyond the end of the
+     * stream.
+     *
+     * @return the character offset following the last character
+     *         examined
+     *
+     * @since 1.6
+     */
+    int examinedOffset() {
+        return examined;
+    }
+
+    /**
+     * Clears the examined character offset. The offset is set to
+     * the current position.
+     *
+     * @since 1.6
+     */
+    void clearExamined() {
+        examined = offset();
+    }
+
     /**
      * Reads the specified number of characters from the current
      * position. This will also move the current position forward.
@@ -300,6 +381,7 @@ public class ReaderBuffer implements CharSequence {
 
         // Remove (almost all) old characters from buffer
         if (pos > BLOCK_SIZE) {
+            removed += pos - 16;
             length -= (pos - 16);
             System.arraycopy(buffer, pos - 16, buffer, 0, length);
             pos = 16;
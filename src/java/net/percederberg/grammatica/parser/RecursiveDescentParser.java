@@ -16,6 +16,9 @@ package net.percederberg.grammatica.parser;
 
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 
 /**
@@ -25,10 +28,59 @@ import java.util.Iterator;
  * that is has to consider.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  */
 public class RecursiveDescentParser extends Parser {
 
+    /**
+     * The right recursion flattening flag. If this flag is set, a
+     * production referring to itself in the tail position, directly
+     * or through other tail productions, will be merged into the
+     * enclosing production node.
+     */
+    private boolean flattenRecursion = false;
+
+    /**
+     * The grammar optimization flag. If this flag is set, the
+     * production patterns will be optimized before the look-ahead
+     * sets are calculated.
+     */
+    private boolean optimize = false;
+
+    /**
+     * The preserve production ids flag. If this flag is set, the
+     * grammar optimization will not remove any production nodes from
+     * the parse tree.
+     */
+    private boolean preserveIds = true;
+
+    /**
+     * The ordered list of production patterns added to the parser.
+     * The patterns used for parsing may differ from these if the
+     * grammar has been optimized.
+     */
+    private ArrayList grammar = new ArrayList();
+
+    /**
+     * The production table. The table is created from the prepared
+     * production patterns when first needed, and is shared with any
+     * parser copies.
+     */
+    private ProductionTable table = null;
+
+    /**
+     * The production table parse driver. The driver is created when
+     * first needed, and is used for parsing without recursion.
+     */
+    private TableDriver driver = null;
+
+    /**
+     * The production patterns only used for collapsed production
+     * nodes, indexed by the pattern id. The map is filled when the
+     * parser is prepared.
+     */
+    private HashMap collapsedPatterns = new HashMap();
+
     /**
      * Creates a new parser.
      *
@@ -79,6 +131,124 @@ public class RecursiveDescentParser extends Parser {
         super(tokenizer, analyzer);
     }
 
+    /**
+     * Checks if right recursion flattening is enabled.
+     *
+     * @return true if right recursion is flattened, or
+     *         false otherwise
+     *
+     * @see #setFlattenRightRecursion(boolean)
+     *
+     * @since 1.6
+     */
+    public boolean getFlattenRightRecursion() {
+        return flattenRecursion;
+    }
+
+    /**
+     * Sets the right recursion flattening flag. By default this flag
+     * is not set, and a right recursive production such as "List =
+     * ITEM [List]" creates one nested production node per list item.
+     * If the flag is set, the tail production nodes are instead
+     * merged into the enclosing node, creating a single production
+     * node with all the list items as children. The analyzer enter()
+     * and exit() callbacks are then only called once for the whole
+     * list, and child() is called for each item.<p>
+     *
+     * Indirect right recursion through other tail productions, such
+     * as "Expression = Term [ExpressionRest]" with "ExpressionRest =
+     * "+" Expression", is flattened in the same way. The nested
+     * Expression is merged into the outer one, which gets the Term
+     * and ExpressionRest nodes as alternating children. Each
+     * ExpressionRest node is exited before the following Term is
+     * parsed.
+     *
+     * @param flatten        the new flattening flag
+     *
+     * @since 1.6
+     */
+    public void setFlattenRightRecursion(boolean flatten) {
+        this.flattenRecursion = flatten;
+    }
+
+    /**
+     * Checks if grammar optimization is enabled.
+     *
+     * @return true if the grammar is optimized, or
+     *         false otherwise
+     *
+     * @see #setOptimizeGrammar(boolean)
+     *
+     * @since 1.6
+     */
+    public boolean getOptimizeGrammar() {
+        return optimize;
+    }
+
+    /**
+     * Sets the grammar optimization flag. By default this flag is
+     * not set. If the flag is set, the production patterns are
+     * simplified when the parser is prepared, before the look-ahead
+     * sets are calculated. Chains of single-child productions are
+     * collapsed, token-only productions are inlined, identical
+     * alternatives created by the inlining are merged and
+     * unreachable productions are removed. This reduces the number
+     * of productions to analyze and parse, but also affects the
+     * error recovery. Parse errors inside a removed production will
+     * instead be recovered in the production referring to it.<p>
+     *
+     * Unless preserving the production ids has been disabled, the
+     * parse tree will still contain nodes for all productions that
+     * are not synthetic.
+     *
+     * @param optimize       the new grammar optimization flag
+     *
+     * @see #setPreserveProductionIds(boolean)
+     *
+     * @since 1.6
+     */
+    public void setOptimizeGrammar(boolean optimize) {
+        this.optimize = optimize;
+        setInitialized(false);
+    }
+
+    /**
+     * Checks if the production ids are preserved when optimizing
+     * the grammar.
+     *
+     * @return true if the production ids are preserved, or
+     *         false otherwise
+     *
+     * @see #setPreserveProductionIds(boolean)
+     *
+     * @since 1.6
+     */
+    public boolean getPreserveProductionIds() {
+        return preserveIds;
+    }
+
+    /**
+     * Sets the preserve production ids flag. By default this flag is
+     * set, meaning that the grammar optimization will only remove
+     * synthetic productions from the parse tree. Nodes for collapsed
+     * productions are still created, so that the analyzer callbacks
+     * see the original production ids. If the flag is cleared, the
+     * optimization may also inline or collapse productions that are
+     * not synthetic, and their nodes will not be present in the
+     * parse tree. This flag has no effect unless the grammar is
+     * optimized.
+     *
+     * @param preserve       the new preserve production ids flag
+     *
+     * @see #setOptimizeGrammar(boolean)
+     *
+     * @since 1.6
+     */
+    public void setPreserveProductionIds(boolean preserve) {
+        this.preserveIds = preserve;
+        setInitialized(false);
+    }
+
     /**
      * Adds a new production pattern to the parser. The pattern will
      * be added last in the list. The first pattern added is assumed
@@ -111,6 +281,86 @@ public class RecursiveDescentParser extends Parser {
 
         // Add pattern
         super.addPattern(pattern);
+        grammar.add(pattern);
+    }
+
+    /**
+     * Sets the detachable flag for a production pattern. The flag is
+     * set both for the pattern added and for any optimized copy of
+     * it, so that the flag remains if the parser is prepared again.
+     *
+     * @param id             the production pattern id
+     * @param detachable     the new detachable flag
+     *
+     * @throws ParserCreationException if no production pattern with
+     *             the specified id has been added
+     *
+     * @see #setOptimizeGrammar(boolean)
+     *
+     * @since 1.6
+     */
+    public void setDetachable(int id, boolean detachable)
+        throws ParserCreationException {
+
+        ProductionPattern  pattern;
+        boolean            found = false;
+
+        for (int i = 0; i < grammar.size(); i++) {
+            pattern = (ProductionPattern) grammar.get(i);
+            if (pattern.getId() == id) {
+                pattern.setDetachable(detachable);
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PARSER_ERROR,
+                "no production pattern with id " + id +
+                " has been added");
+        } else if (getPattern(id) != null) {
+            // Collapsed patterns have no prepared copy
+            super.setDetachable(id, detachable);
+        }
+    }
+
+    /**
+     * Sets the lazy flag for a production pattern. The flag is set
+     * both for the pattern added and for any optimized copy of it,
+     * so that the flag remains if the parser is prepared again.
+     *
+     * @param id             the production pattern id
+     * @param lazy           the new lazy flag
+     *
+     * @throws ParserCreationException if no production pattern with
+     *             the specified id has been added, or if the
+     *             production wasn't delimited correctly
+     *
+     * @see #setOptimizeGrammar(boolean)
+     *
+     * @since 1.6
+     */
+    public void setLazy(int id, boolean lazy)
+        throws ParserCreationException {
+
+        ProductionPattern  pattern;
+        boolean            found = false;
+
+        for (int i = 0; i < grammar.size(); i++) {
+            pattern = (ProductionPattern) grammar.get(i);
+            if (pattern.getId() == id) {
+                setLazy(pattern, lazy);
+                found = true;
+            }
+        }
+        if (!found) {
+            throw new ParserCreationException(
+                ParserCreationException.INVALID_PARSER_ERROR,
+                "no production pattern with id " + id +
+                " has been added");
+        } else if (getPattern(id) != null) {
+            // Collapsed patterns have no prepared copy
+            super.setLazy(id, lazy);
+        }
     }
 
     /**
@@ -123,22 +373,572 @@ public class RecursiveDescentParser extends Parser {
      *             initialized correctly
      */
     public void prepare() throws ParserCreationException {
-        Iterator  iter;
+        ProductionPattern  pattern;
+        Iterator           iter;
 
         // Performs production pattern checks
+        setPatterns(grammar);
         super.prepare();
         setInitialized(false);
 
+        // Optimize production patterns
+        if (optimize) {
+            setPatterns(new GrammarOptimizer(preserveIds).optimize(grammar));
+        }
+
         // Calculate production look-ahead sets
         iter = getPatterns().iterator();
         while (iter.hasNext()) {
             calculateLookAhead((ProductionPattern) iter.next());
         }
 
+        // Check lazy production alternatives
+        iter = getPatterns().iterator();
+        while (iter.hasNext()) {
+            pattern = (ProductionPattern) iter.next();
+            if (pattern.isLazy()) {
+                setLazy(pattern, true);
+            }
+        }
+
+        // Find collapsed production patterns
+        table = null;
+        driver = null;
+        collapsedPatterns = findCollapsed(getPatterns());
+
         // Set initialized flag
         setInitialized(true);
     }
 
+    /**
+     * Returns the production pattern for a production node id. In
+     * addition to the patterns used for parsing, this method also
+     * finds the patterns only used for collapsed production nodes.
+     *
+     * @param id             the production pattern id
+     *
+     * @return the production pattern found, or
+     *         null if non-existent
+     *
+     * @see #setOptimizeGrammar(boolean)
+     *
+     * @since 1.6
+     */
+    ProductionPattern getNodePattern(int id) {
+        ProductionPattern  pattern = getPattern(id);
+
+        if (pattern == null) {
+            pattern = (ProductionPattern)
+                collapsedPatterns.get(Integer.valueOf(id));
+        }
+        return pattern;
+    }
+
+    /**
+     * Finds all the collapsed production patterns referenced from a
+     * list of production patterns.
+     *
+     * @param patterns       the production patterns
+     *
+     * @return a map with the collapsed patterns, indexed by id
+     */
+    private HashMap findCollapsed(Collection patterns) {
+        HashMap                       result = new HashMap();
+        Iterator                      iter = patterns.iterator();
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ProductionPattern[]           list;
+
+        while (iter.hasNext()) {
+            pattern = (ProductionPattern) iter.next();
+            for (int i = 0; i < pattern.getAlternativeCount(); i++) {
+                alt = pattern.getAlternative(i);
+                for (int j = 0; j < alt.getElementCount(); j++) {
+                    list = alt.getElement(j).getCollapsed();
+                    for (int k = 0; list != null && k < list.length; k++) {
+                        result.put(Integer.valueOf(list[k].getId()), list[k]);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates a copy of this parser for parsing a part of a token
+     * list concurrently. The copy creates a separate production
+     * table parse driver when needed, sharing any production table
+     * already created by this parser.
+     *
+     * @param list           the tokens and tokenizer errors
+     * @param start          the position of the first entry to read
+     * @param end            the position following the last entry
+     * @param analyzer       the analyzer to use in the copy
+     *
+     * @return the new parser copy
+     *
+     * @since 1.6
+     */
+    Parser copy(Object[] list, int start, int end, Analyzer analyzer) {
+        RecursiveDescentParser  parser;
+
+        parser = (RecursiveDescentParser) super.copy(list,
+                                                     start,
+                                                     end,
+                                                     analyzer);
+        parser.driver = null;
+        return parser;
+    }
+
+    /**
+     * Returns the production table parse driver. The driver and the
+     * production table are created on the first call after the
+     * parser has been prepared, so that parsers never using them
+     * don't pay for the table construction.
+     *
+     * @return the production table parse driver
+     *
+     * @since 1.6
+     */
+    TableDriver getDriver() {
+        if (table == null) {
+            table = new ProductionTable(getPatterns());
+        }
+        if (driver == null) {
+            driver = new TableDriver(this, table);
+        }
+        return driver;
+    }
+
+    /**
+     * Parses the token stream and delivers parse events to a
+     * listener. This method works like parse(), but no parse tree is
+     * created and the analyzer isn't called. Instead the start and
+     * end of each production and each token are reported to the
+     * listener as they are parsed. The memory used is thereby
+     * limited by the nesting depth of the input, rather than by the
+     * input size. The parsing is performed without recursion, as by
+     * the table-driven parser.<p>
+     *
+     * In case of a parse error, the parser will attempt to recover
+     * and throw all the errors found in a parser log exception at
+     * the end of the parsing. No more events are delivered once an
+     * error has been found.
+     *
+     * @param listener       the parse event listener
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see #parse()
+     * @see TableDrivenParser
+     *
+     * @since 1.6
+     */
+    public void parse(ParseListener listener)
+        throws ParserCreationException, ParserLogException {
+
+        initParse();
+        try {
+            getDriver().parse(listener);
+            checkEndOfInput();
+        } catch (ParseException e) {
+            addError(e, true);
+        }
+        checkErrors();
+    }
+
+    /**
+     * Parses an edited token list, reusing the unchanged parts of a
+     * previous parse tree. The token list must have been created by
+     * the tokenizer with the token list feature, and then updated
+     * with Tokenizer.retokenize(). The previous parse tree must
+     * contain all the non-ignored tokens, as created by the default
+     * analyzer.<p>
+     *
+     * Only the smallest enclosing production affected by the edit is
+     * parsed again, and is then replaced in the previous parse tree.
+     * A production can only be parsed again if none of the tokens
+     * read as look-ahead when entering it were changed, and if the
+     * new production ends at the same token as before. Otherwise an
+     * enclosing production is tried instead, and if no production
+     * can be used the whole token list is parsed. The positions of
+     * the following nodes are read from their tokens, which have
+     * already been moved by the tokenizer, so only the ancestors of
+     * the new production are updated. The parsing cost is therefore
+     * proportional to the size of the new production and the tree
+     * depth, although moving the following tokens in the tokenizer
+     * still takes linear time. If a production is parsed again, the
+     * analyzer callbacks are called for its nodes. The node index
+     * isn't updated by this method.
+     *
+     * @param root           the previous parse tree root node
+     * @param range          the range of changed tokens
+     *
+     * @return the new parse tree root node, normally the same as the
+     *         previous one
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     * @throws ParserLogException if the input couldn't be parsed
+     *             correctly
+     *
+     * @see Tokenizer#setUseTokenList(boolean)
+     * @see Tokenizer#retokenize(Token, int, int, String)
+     *
+     * @since 1.6
+     */
+    public Node reparse(Node root, TokenRange range)
+        throws ParserCreationException, ParserLogException {
+
+        NodeIndex  index = getNodeIndex();
+        Token      first = findTreeToken(range.getPreviousToken(), false);
+        Token      last = findTreeToken(range.getNextToken(), true);
+        Node       node = null;
+        Node       result = null;
+
+        setNodeIndex(null);
+        try {
+            if (first != null && last != null) {
+                node = findCommonAncestor(first, last, root);
+            }
+            for (; node != null && node != root; node = node.getParent()) {
+                if (isReparsable(node)) {
+                    result = reparse((Production) node, first);
+                }
+                if (result != null) {
+                    ((Production) node.getParent()).replaceChild(node,
+                                                                 result);
+                    return root;
+                }
+            }
+            first = range.getFirstToken();
+            if (first == null) {
+                first = range.getNextToken();
+            }
+            if (first == null) {
+                first = range.getPreviousToken();
+            }
+            while (first != null && first.getPreviousToken() != null) {
+                first = first.getPreviousToken();
+            }
+            initReplay(first);
+            try {
+                result = parseStart();
+            } catch (ParseException e) {
+                addError(e, true);
+            }
+            endReplay();
+            checkErrors();
+            return result;
+        } finally {
+            endReplay();
+            setNodeIndex(index);
+        }
+    }
+
+    /**
+     * Parses a production again from the token list. The production
+     * is only parsed if the look-ahead tokens read when entering it
+     * are unchanged, and the new production must end at the same
+     * token as the previous one.
+     *
+     * @param node           the previous production node
+     * @param unchanged      the last unchanged token in the node
+     *
+     * @return the new production node, or
+     *         null if the node couldn't be parsed again
+     *
+     * @throws ParserCreationException if the parser couldn't be
+     *             initialized correctly
+     */
+    private Node reparse(Production node, Token unchanged)
+        throws ParserCreationException {
+
+        Token  first = findFirstToken(node);
+        Token  last = findLastToken(node);
+        Token  next;
+        Node   result = null;
+        int    count = 0;
+
+        if (first == null || last == null) {
+            return null;
+        }
+        for (Token t = first; t != unchanged.getNextToken();) {
+            if (t == null) {
+                return null;
+            } else if (findTreeToken(t, true) == t) {
+                count++;
+            }
+            t = t.getNextToken();
+        }
+        if (count < node.getLookAhead()) {
+            return null;
+        }
+        next = findTreeToken(last.getNextToken(), true);
+        initReplay(first);
+        try {
+            result = parsePattern(node.getPattern());
+            if (peekToken(0) != next) {
+                return null;
+            }
+            checkErrors();
+        } catch (ParseException e) {
+            return null;
+        } catch (ParserLogException e) {
+            return null;
+        } finally {
+            endReplay();
+        }
+        return result;
+    }
+
+    /**
+     * Checks if a parse tree node can be parsed again. Only visible
+     * production nodes created from the current production patterns
+     * can be parsed again.
+     *
+     * @param node           the parse tree node
+     *
+     * @return true if the node can be parsed again, or
+     *         false otherwise
+     */
+    private boolean isReparsable(Node node) {
+        Production  prod;
+
+        if (!(node instanceof Production)
+         || node instanceof LazyProduction
+         || !(node.getParent() instanceof Production)) {
+
+            return false;
+        }
+        prod = (Production) node;
+        return !prod.isHidden()
+            && getPattern(prod.getId()) == prod.getPattern();
+    }
+
+    /**
+     * Finds the nearest token in a token list that is present in a
+     * parse tree, i.e. that is neither ignored nor an error token.
+     *
+     * @param token          the token to start from, or null
+     * @param forward        the search forward flag
+     *
+     * @return the parse tree token found, or
+     *         null if not found
+     */
+    private Token findTreeToken(Token token, boolean forward) {
+        while (token != null
+            && (token.getPattern().isIgnore()
+             || token.getPattern().isError())) {
+
+            token = forward ? token.getNextToken() : token.getPreviousToken();
+        }
+        return token;
+    }
+
+    /**
+     * Finds the nearest common ancestor of two parse tree nodes. The
+     * ancestor must also be located in the specified parse tree.
+     *
+     * @param first          the first node
+     * @param second         the second node
+     * @param root           the parse tree root node
+     *
+     * @return the common ancestor node, or
+     *         null if not found in the parse tree
+     */
+    private Node findCommonAncestor(Node first, Node second, Node root) {
+        HashSet  ancestors = new HashSet();
+        Node     node;
+
+        for (node = first; node != null; node = node.getParent()) {
+            ancestors.add(node);
+        }
+        if (!ancestors.contains(root)) {
+            return null;
+        }
+        for (node = second; node != null; node = node.getParent()) {
+            if (ancestors.contains(node)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Finds the first token in a parse tree node.
+     *
+     * @param node           the parse tree node
+     *
+     * @return the first token, or
+     *         null if the node contains no tokens
+     */
+    private Token findFirstToken(Node node) {
+        while (node != null && !(node instanceof Token)) {
+            node = node.getChildAt(0);
+        }
+        return (Token) node;
+    }
+
+    /**
+     * Finds the last token in a parse tree node.
+     *
+     * @param node           the parse tree node
+     *
+     * @return the last token, or
+     *         null if the node contains no tokens
+     */
+    private Token findLastToken(Node node) {
+        while (node != null && !(node instanceof Token)) {
+            node = node.getChildAt(node.getChildCount() - 1);
+        }
+        return (Token) node;
+    }
+
+    /**
+     * Returns the repeated element in the start production pattern.
+     * The start pattern must consist of a single unbounded
+     * repetition of a normal production, such as "File = Statement+".
+     * The input can then be split between the repeated productions
+     * and parsed in parallel.
+     *
+     * @return the repeated production element, or
+     *         null if the start pattern has another form
+     *
+     * @see ParallelParser
+     *
+     * @since 1.6
+     */
+    ProductionPatternElement getRepetition() {
+        ProductionPattern             pattern = getStartPattern();
+        ProductionPatternAlternative  alt;
+        ProductionPatternElement      elem;
+
+        if (pattern == null || pattern.getAlternativeCount() != 1) {
+            return null;
+        }
+        alt = pattern.getAlternative(0);
+        if (alt.getElementCount() != 1) {
+            return null;
+        }
+        elem = alt.getElement(0);
+        if (!elem.isProduction()
+         || elem.getMaxCount() != Integer.MAX_VALUE
+         || elem.getCollapsed() != null
+         || getPattern(elem.getId()).isSynthetic()) {
+
+            return null;
+        }
+        return elem;
+    }
+
+    /**
+     * Parses a segment of the repetition in the start production
+     * pattern. The repeated production is parsed until all the
+     * replayed tokens have been read. This method should only be
+     * called on a parser copy reading a part of a token list. The
+     * segment is rejected if a look-ahead of more than one token
+     * reached the segment end, as the following segment might then
+     * have changed the parse.
+     *
+     * @param elem           the repeated production element
+     *
+     * @return the list of parsed nodes (possibly null), or
+     *         null if the segment couldn't be parsed without errors
+     *
+     * @see #getRepetition()
+     * @see Parser#copy(Object[], int, int, Analyzer)
+     *
+     * @since 1.6
+     */
+    ArrayList parseSegment(ProductionPatternElement elem) {
+        ProductionPattern  pattern = getPattern(elem.getId());
+        ArrayList          nodes = new ArrayList();
+
+        try {
+            while (peekToken(0) != null && isNext(elem)) {
+                if (isLazy(pattern)) {
+                    nodes.add(skipLazy(pattern));
+                } else {
+                    nodes.add(parseProduction(pattern));
+                }
+            }
+            if (peekToken(0) != null || isReplayOverrun()) {
+                return null;
+            }
+            checkErrors();
+        } catch (ParseException e) {
+            return null;
+        } catch (ParserLogException e) {
+            return null;
+        }
+        return nodes;
+    }
+
+    /**
+     * Parses a single production pattern. This method is used when
+     * parsing a segment of the start production repetition.
+     *
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    Node parseProduction(ProductionPattern pattern) throws ParseException {
+        return parsePattern(pattern);
+    }
+
+    /**
+     * Creates and enters the parse tree root node for the start
+     * production pattern.
+     *
+     * @return the parse tree root node
+     *
+     * @since 1.6
+     */
+    Production enterStart() {
+        Production  node = createProduction(getStartPattern());
+
+        enterNode(node);
+        return node;
+    }
+
+    /**
+     * Adds the parsed nodes to the parse tree root node and exits
+     * it. The nodes must be the complete repetition in the start
+     * production pattern, in input order.
+     *
+     * @param node           the parse tree root node
+     * @param nodes          the list of parsed nodes
+     *
+     * @return the parse tree created, or null
+     *
+     * @throws ParserLogException if the analyzer reported any errors
+     *
+     * @see #getRepetition()
+     *
+     * @since 1.6
+     */
+    Node exitStart(Production node, ArrayList nodes)
+        throws ParserLogException {
+
+        Node  root;
+
+        for (int i = 0; i < nodes.size(); i++) {
+            addNode(node, (Node) nodes.get(i));
+        }
+        root = exitNode(node);
+        checkErrors();
+        return root;
+    }
+
     /**
      * Parses the input stream and creates a parse tree.
      *
@@ -148,11 +948,62 @@ public class RecursiveDescentParser extends Parser {
      *             correctly
      */
     protected Node parseStart() throws ParseException {
+        Node  node;
+
+        node = parsePattern(getStartPattern());
+        checkEndOfInput();
+        return node;
+    }
+
+    /**
+     * Parses a lazy production region from the token queue. The
+     * region is parsed recursively, as any nested lazy regions will
+     * be skipped.
+     *
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    Node parseRegionStart(ProductionPattern pattern) throws ParseException {
+        Node  node;
+
+        node = parsePattern(pattern);
+        checkEndOfInput();
+        return node;
+    }
+
+    /**
+     * Checks if the token stream matches the grammar. No parse tree
+     * nodes are created and the parsing stops at the first error.
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    protected void recognizeStart() throws ParseException {
+        getDriver().recognize();
+        checkEndOfInput();
+    }
+
+    /**
+     * Checks that all the input tokens have been consumed. This
+     * method is called after the start production has been parsed.
+     *
+     * @throws ParseException if there were remaining tokens in the
+     *             input stream
+     *
+     * @since 1.6
+     */
+    void checkEndOfInput() throws ParseException {
         Token      token;
-        Node       node;
         ArrayList  list;
 
-        node = parsePattern(getStartPattern());
         token = peekToken(0);
         if (token != null) {
             list = new ArrayList(1);
@@ -162,9 +1013,9 @@ public class RecursiveDescentParser extends Parser {
                 token.toShortString(),
                 list,
                 token.getStartLine(),
-                token.getStartColumn());
+                token.getStartColumn(),
+                token.getStartOffset());
         }
-        return node;
     }
 
     /**
@@ -181,6 +1032,24 @@ public class RecursiveDescentParser extends Parser {
     private Node parsePattern(ProductionPattern pattern)
         throws ParseException {
 
+        return parseAlternative(findAlternative(pattern), null);
+    }
+
+    /**
+     * Finds the production pattern alternative matching the next
+     * tokens.
+     *
+     * @param pattern        the production pattern
+     *
+     * @return the production pattern alternative to parse
+     *
+     * @throws ParseException if no alternative matched the input
+     *
+     * @since 1.6
+     */
+    private ProductionPatternAlternative findAlternative(
+        ProductionPattern pattern) throws ParseException {
+
         ProductionPatternAlternative  alt;
         ProductionPatternAlternative  defaultAlt;
 
@@ -188,34 +1057,172 @@ public class RecursiveDescentParser extends Parser {
         for (int i = 0; i < pattern.getAlternativeCount(); i++) {
             alt = pattern.getAlternative(i);
             if (defaultAlt != alt && isNext(alt)) {
-                return parseAlternative(alt);
+                return alt;
             }
         }
         if (defaultAlt == null || !isNext(defaultAlt)) {
             throwParseException(findUnion(pattern));
         }
-        return parseAlternative(defaultAlt);
+        return defaultAlt;
     }
 
     /**
      * Parses a production pattern alternative. A parse tree node may
-     * or may not be created depending on the analyzer callbacks.
+     * or may not be created depending on the analyzer callbacks.<p>
+     *
+     * A production element in the tail position of an alternative
+     * (i.e. the last element, occurring at most once) is parsed
+     * iteratively instead of recursively. The enclosing production
+     * nodes are kept on a stack until the innermost tail production
+     * has been parsed, after which they are exited in reverse order.
+     * The analyzer callbacks are called in the same order as for a
+     * recursive parse, but long right-recursive lists will not grow
+     * the call stack. If flattening of right recursion is enabled,
+     * a tail element referring to a production pattern already in
+     * the list of enclosing tail productions will be merged into
+     * that node instead. Any production nodes in between are exited
+     * and added to it first.<p>
+     *
+     * No parse tree nodes are created for synthetic productions.
+     * Their child nodes are instead added directly to the nearest
+     * enclosing production that is not synthetic, i.e. the parent
+     * node specified or the node of an enclosing tail production.
      *
      * @param alt            the production pattern alternative
+     * @param parent         the parent production node, or null
      *
-     * @return the parse tree node created, or null
+     * @return the parse tree node created, or
+     *         null if no node was created
      *
      * @throws ParseException if the input couldn't be parsed
      *             correctly
+     *
+     * @see #setFlattenRightRecursion(boolean)
      */
-    private Node parseAlternative(ProductionPatternAlternative alt)
+    private Node parseAlternative(ProductionPatternAlternative alt,
+                                  Production parent)
         throws ParseException {
 
-        Production  node;
+        TailStack                     stack = null;
+        Production                    node;
+        boolean                       owner;
+        boolean                       added;
+        ProductionPatternElement      tail;
+        ProductionPatternAlternative  next = null;
+        ParseException                error = null;
+        Node                          child;
+        int                           count;
+        int                           frame;
+
+        owner = (parent == null || !alt.getPattern().isSynthetic());
+        if (owner) {
+            node = createProduction(alt.getPattern());
+            enterNode(node);
+        } else {
+            node = parent;
+        }
+        while (true) {
+            tail = getTailElement(alt);
+            count = alt.getElementCount() - ((tail == null) ? 0 : 1);
+            next = null;
+            try {
+                if (error == null) {
+                    parseElements(node, alt, count);
+                } else {
+                    addError(error, true);
+                    error = null;
+                    nextToken();
+                }
+                while (tail != null && next == null
+                       && (tail.getMinCount() > 0 || isNext(tail))) {
+
+                    try {
+                        next = findAlternative(getPattern(tail.getId()));
+                    } catch (ParseException e) {
+                        addError(e, true);
+                        nextToken();
+                    }
+                }
+            } catch (ParseException e) {
+                if (stack == null || stack.size <= 0) {
+                    throw e;
+                }
+                stack.size--;
+                node = stack.nodes[stack.size];
+                alt = stack.alts[stack.size];
+                owner = stack.owners[stack.size];
+                error = e;
+                continue;
+            }
+            if (next == null) {
+                break;
+            }
+            if (stack == null) {
+                stack = new TailStack();
+            }
+            frame = findFlattened(stack, alt, next);
+            if (frame < 0) {
+                stack.push(node, alt, owner);
+                owner = !next.getPattern().isSynthetic();
+                if (owner) {
+                    node = createProduction(next.getPattern());
+                    enterNode(node);
+                }
+            } else if (frame < stack.size) {
+                child = owner ? exitNode(node) : null;
+                while (stack.size > frame) {
+                    added = owner;
+                    stack.size--;
+                    node = stack.nodes[stack.size];
+                    owner = stack.owners[stack.size];
+                    if (added) {
+                        addNode(node, child);
+                    }
+                    if (owner && stack.size > frame) {
+                        child = exitNode(node);
+                    }
+                }
+            }
+            alt = next;
+        }
+        child = owner ? exitNode(node) : null;
+        while (stack != null && stack.size > 0) {
+            added = owner;
+            stack.size--;
+            node = stack.nodes[stack.size];
+            owner = stack.owners[stack.size];
+            if (added) {
+                addNode(node, child);
+            }
+            if (owner) {
+                child = exitNode(node);
+            }
+        }
+        return owner ? child : null;
+    }
 
-        node = newProduction(alt.getPattern());
-        enterNode(node);
-        for (int i = 0; i < alt.getElementCount(); i++) {
+    /**
+     * Parses the initial elements of a production pattern
+     * alternative. All nodes parsed may or may not be added to the
+     * parse tree node specified, depending on the analyzer callbacks.
+     * Any parse errors will be added to the error log, and the
+     * parsing will resume after skipping a token.
+     *
+     * @param node           the production parse tree node
+     * @param alt            the production pattern alternative
+     * @param count          the number of elements to parse
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    private void parseElements(Production node,
+                               ProductionPatternAlternative alt,
+                               int count)
+        throws ParseException {
+
+        for (int i = 0; i < count; i++) {
             try {
                 parseElement(node, alt.getElement(i));
             } catch (ParseException e) {
@@ -224,13 +1231,82 @@ public class RecursiveDescentParser extends Parser {
                 i--;
             }
         }
-        return exitNode(node);
+    }
+
+    /**
+     * Finds the enclosing tail production to merge a tail production
+     * into. If right recursion flattening is enabled, this is the
+     * innermost tail production with the same production pattern.
+     *
+     * @param stack          the stack of enclosing tail productions
+     * @param alt            the current production alternative
+     * @param next           the tail production alternative
+     *
+     * @return the stack position of the production to merge into,
+     *         the stack size for the current production, or
+     *         -1 if the tail production shouldn't be merged
+     *
+     * @see #setFlattenRightRecursion(boolean)
+     *
+     * @since 1.6
+     */
+    private int findFlattened(TailStack stack,
+                              ProductionPatternAlternative alt,
+                              ProductionPatternAlternative next) {
+
+        ProductionPattern  pattern = next.getPattern();
+
+        if (!flattenRecursion) {
+            return -1;
+        } else if (alt.getPattern() == pattern) {
+            return stack.size;
+        }
+        for (int i = stack.size - 1; i >= 0; i--) {
+            if (stack.alts[i].getPattern() == pattern) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the tail production element of an alternative. The
+     * tail element is the last element, if it is a production that
+     * may occur at most once and isn't lazy. Such an element can be
+     * parsed iteratively.
+     *
+     * @param alt            the production pattern alternative
+     *
+     * @return the tail production element, or
+     *         null if the alternative has no tail production
+     *
+     * @since 1.6
+     */
+    private ProductionPatternElement getTailElement(
+        ProductionPatternAlternative alt) {
+
+        ProductionPatternElement  elem;
+
+        if (alt.getElementCount() <= 0) {
+            return null;
+        }
+        elem = alt.getElement(alt.getElementCount() - 1);
+        if (elem.isProduction()
+         && elem.getMaxCount() == 1
+         && elem.getCollapsed() == null
+         && !getPattern(elem.getId()).isLazy()) {
+
+            return elem;
+        } else {
+            return null;
+        }
     }
 
     /**
      * Parses a production pattern element. All nodes parsed may or
      * may not be added to the parse tree node specified, depending
-     * on the analyzer callbacks.
+     * on the analyzer callbacks. The child nodes of synthetic
+     * productions are added directly to the node specified.
      *
      * @param node           the production parse tree node
      * @param elem           the production pattern element to parse
@@ -242,7 +1318,8 @@ public class RecursiveDescentParser extends Parser {
                               ProductionPatternElement elem)
         throws ParseException {
 
-        Node  child;
+        ProductionPattern  pattern;
+        Node               child;
 
         for (int i = 0; i < elem.getMaxCount(); i++) {
             if (i < elem.getMinCount() || isNext(elem)) {
@@ -251,8 +1328,17 @@ public class RecursiveDescentParser extends Parser {
                     enterNode(child);
                     addNode(node, exitNode(child));
                 } else {
-                    child = parsePattern(getPattern(elem.getId()));
-                    addNode(node, child);
+                    pattern = getPattern(elem.getId());
+                    if (pattern.isSynthetic()) {
+                        parseAlternative(findAlternative(pattern), node);
+                    } else if (elem.getCollapsed() != null) {
+                        addNode(node, parseCollapsed(elem.getCollapsed(),
+                                                     pattern));
+                    } else if (isLazy(pattern)) {
+                        addNode(node, skipLazy(pattern));
+                    } else {
+                        addNode(node, parsePattern(pattern));
+                    }
                 }
             } else {
                 break;
@@ -260,6 +1346,43 @@ public class RecursiveDescentParser extends Parser {
         }
     }
 
+    /**
+     * Parses a production pattern enclosed by a chain of collapsed
+     * production patterns. The nodes for the collapsed patterns are
+     * created and entered before the pattern is parsed, and are
+     * exited in reverse order afterwards. The analyzer callbacks are
+     * thereby called just as if the collapsed patterns had been
+     * parsed.
+     *
+     * @param collapsed      the collapsed patterns (outermost first)
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    private Node parseCollapsed(ProductionPattern[] collapsed,
+                                ProductionPattern pattern)
+        throws ParseException {
+
+        Production[]  wrappers = new Production[collapsed.length];
+        Node          child;
+
+        for (int i = 0; i < collapsed.length; i++) {
+            wrappers[i] = createProduction(collapsed[i]);
+            enterNode(wrappers[i]);
+        }
+        child = parsePattern(pattern);
+        for (int i = collapsed.length - 1; i >= 0; i--) {
+            addNode(wrappers[i], child);
+            child = exitNode(wrappers[i]);
+        }
+        return child;
+    }
+
     /**
      * Checks if the next tokens match a production pattern. The
      * pattern look-ahead set will be used if existing, otherwise
@@ -783,7 +1906,7 @@ public class RecursiveDescentParser extends Parser {
      *
      * @throws ParseException always thrown by this method
      */
-    private void throwParseException(LookAheadSet set)
+    void throwParseException(LookAheadSet set)
         throws ParseException {
 
         Token      token;
@@ -807,7 +1930,8 @@ public class RecursiveDescentParser extends Parser {
                                  token.toShortString(),
                                  list,
                                  token.getStartLine(),
-                                 token.getStartColumn());
+                                 token.getStartColumn(),
+                                 token.getStartOffset());
     }
 
     /**
@@ -925,4 +2049,75 @@ public class RecursiveDescentParser extends Parser {
             }
         }
     }
+
+
+    /**
+     * A stack of enclosing tail productions. The production nodes,
+     * alternatives and owner flags of each frame are kept in
+     * parallel arrays, as in the table driver parse stack. An owner
+     * flag is set if the frame created its production node, and
+     * cleared if the node belongs to an enclosing production.
+     */
+    private static class TailStack {
+
+        /**
+         * The production nodes for each frame.
+         */
+        public Production[] nodes = new Production[8];
+
+        /**
+         * The production pattern alternatives for each frame.
+         */
+        public ProductionPatternAlternative[] alts =
+            new ProductionPatternAlternative[8];
+
+        /**
+         * The node owner flags for each frame.
+         */
+        public boolean[] owners = new boolean[8];
+
+        /**
+         * The current number of frames on the stack.
+         */
+        public int size = 0;
+
+        /**
+         * Pushes a new frame onto the stack.
+         *
+         * @param node           the production node
+         * @param alt            the production pattern alternative
+         * @param owner          the node owner flag
+         */
+        public void push(Production node,
+                         ProductionPatternAlternative alt,
+                         boolean owner) {
+
+            if (size >= nodes.length) {
+                grow();
+            }
+            nodes[size] = node;
+            alts[size] = alt;
+            owners[size] = owner;
+            size++;
+        }
+
+        /**
+         * Doubles the capacity of the stack.
+         */
+        private void grow() {
+            Production[]                    newNodes;
+            ProductionPatternAlternative[]  newAlts;
+            boolean[]                       newOwners;
+
+            newNodes = new Production[nodes.length * 2];
+            System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+            nodes = newNodes;
+            newAlts = new ProductionPatternAlternative[alts.length * 2];
+            System.arraycopy(alts, 0, newAlts, 0, alts.length);
+            alts = newAlts;
+            newOwners = new boolean[owners.length * 2];
+            System.arraycopy(owners, 0, newOwners, 0, owners.length);
+            owners = newOwners;
+        }
+    }
 }
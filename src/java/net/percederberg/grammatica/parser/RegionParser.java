@@ -0,0 +1,82 @@
+/*
+ * RegionParser.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A lazy production region parser. This class holds a stripped copy
+ * of a parser, keeping only the production patterns and the token
+ * pattern descriptions. The lazy production nodes refer to this
+ * object instead of the parser, so that the parser, its tokenizer
+ * and its analyzer can be reclaimed while the lazy nodes remain.
+ * A private lock is also provided for adding the region nodes to
+ * the parse tree.
+ *
+ * @see LazyProduction
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class RegionParser {
+
+    /**
+     * The stripped parser copy. This parser is never used directly,
+     * but only copied for each region parsed.
+     */
+    private Parser template;
+
+    /**
+     * The lock used when adding the region nodes to the parse tree.
+     */
+    private Object lock = new Object();
+
+    /**
+     * Creates a new region parser.
+     *
+     * @param parser         the parser to copy
+     */
+    RegionParser(Parser parser) {
+        this.template = parser.copyForRegions(this);
+    }
+
+    /**
+     * Returns the lock to hold when adding the region nodes to the
+     * parse tree. All the lazy nodes from the same parse share this
+     * lock, as they may have ancestor nodes in common.
+     *
+     * @return the parse tree lock
+     */
+    Object getLock() {
+        return lock;
+    }
+
+    /**
+     * Parses a lazy production region.
+     *
+     * @param pattern        the lazy production pattern
+     * @param region         the region tokens
+     * @param analyzer       the analyzer to use
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParserLogException if the region couldn't be parsed
+     *             correctly
+     */
+    Node parse(ProductionPattern pattern, Token[] region, Analyzer analyzer)
+        throws ParserLogException {
+
+        return template.parseRegion(pattern, region, analyzer);
+    }
+}
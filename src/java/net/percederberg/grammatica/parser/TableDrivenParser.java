@@ -0,0 +1,133 @@
+/*
+ * TableDrivenParser.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.Reader;
+
+/**
+ * A non-recursive table-driven parser. This parser handles the same
+ * LL(n) grammars as the recursive descent parser, and uses the same
+ * look-ahead analysis. Instead of recursing on the Java call stack
+ * for each production, the production patterns are flattened into a
+ * production table and the parsing is driven from an explicit stack.
+ * The nesting depth of the input is thereby only limited by the
+ * available heap memory. The analyzer callbacks and the error
+ * recovery are identical to those of the recursive descent parser.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class TableDrivenParser extends RecursiveDescentParser {
+
+    /**
+     * Creates a new parser.
+     *
+     * @param input          the input stream to read from
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             initialized correctly
+     */
+    public TableDrivenParser(Reader input) throws ParserCreationException {
+        super(input);
+    }
+
+    /**
+     * Creates a new parser.
+     *
+     * @param input          the input stream to read from
+     * @param analyzer       the analyzer callback to use
+     *
+     * @throws ParserCreationException if the tokenizer couldn't be
+     *             initialized correctly
+     */
+    public TableDrivenParser(Reader input, Analyzer analyzer)
+        throws ParserCreationException {
+
+        super(input, analyzer);
+    }
+
+    /**
+     * Creates a new parser.
+     *
+     * @param tokenizer      the tokenizer to use
+     */
+    public TableDrivenParser(Tokenizer tokenizer) {
+        super(tokenizer);
+    }
+
+    /**
+     * Creates a new parser.
+     *
+     * @param tokenizer      the tokenizer to use
+     * @param analyzer       the analyzer callback to use
+     */
+    public TableDrivenParser(Tokenizer tokenizer, Analyzer analyzer) {
+        super(tokenizer, analyzer);
+    }
+
+    /**
+     * Creates a copy of this parser for parsing a part of a token
+     * list concurrently. The production table is created before
+     * copying, so that it is shared by all the copies.
+     *
+     * @param list           the tokens and tokenizer errors
+     * @param start          the position of the first entry to read
+     * @param end            the position following the last entry
+     * @param analyzer       the analyzer to use in the copy
+     *
+     * @return the new parser copy
+     *
+     * @since 1.6
+     */
+    Parser copy(Object[] list, int start, int end, Analyzer analyzer) {
+        getDriver();
+        return super.copy(list, start, end, analyzer);
+    }
+
+    /**
+     * Parses the input stream and creates a parse tree.
+     *
+     * @return the parse tree
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    protected Node parseStart() throws ParseException {
+        Node  node;
+
+        node = getDriver().parse();
+        checkEndOfInput();
+        return node;
+    }
+
+    /**
+     * Parses a single production pattern without recursion. This
+     * method is used when parsing a segment of the start production
+     * repetition.
+     *
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     *
+     * @since 1.6
+     */
+    Node parseProduction(ProductionPattern pattern) throws ParseException {
+        return getDriver().parse(pattern);
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * TableDriver.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A production table parse driver. This class parses the input of a
+ * recursive descent parser using the production table and an
+ * explicit parse stack, instead of recursing on the Java call stack.
+ * The driver either creates a parse tree with the normal analyzer
+ * callbacks, delivers parse events to a listener without creating
+ * any production nodes, or only checks that the input is valid.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class TableDriver {
+
+    /**
+     * The number of stack entries used for each frame. Each frame
+     * contains the alternative position, the element position and
+     * the element repeat count.
+     */
+    private static final int FRAME_SIZE = 3;
+
+    /**
+     * The parse tree mode constant. In this mode a parse tree is
+     * created and the analyzer callbacks are called.
+     */
+    private static final int TREE_MODE = 0;
+
+    /**
+     * The parse event mode constant. In this mode the parse events
+     * are delivered to the listener.
+     */
+    private static final int EVENT_MODE = 1;
+
+    /**
+     * The recognizer mode constant. In this mode the input is only
+     * checked, and the parsing stops at the first error.
+     */
+    private static final int RECOGNIZE_MODE = 2;
+
+    /**
+     * The parser using this driver.
+     */
+    private RecursiveDescentParser parser;
+
+    /**
+     * The production table.
+     */
+    private ProductionTable table;
+
+    /**
+     * The current parse mode.
+     */
+    private int mode = TREE_MODE;
+
+    /**
+     * The parse event listener, or null if not in event mode.
+     */
+    private ParseListener listener = null;
+
+    /**
+     * The parse stack. Each frame on the stack consists of
+     * FRAME_SIZE consecutive entries.
+     */
+    private int[] stack = new int[FRAME_SIZE * 32];
+
+    /**
+     * The production nodes for each frame on the parse stack. No
+     * nodes are created when delivering parse events.
+     */
+    private Production[] nodes = new Production[32];
+
+    /**
+     * The collapsed production patterns enclosing the production for
+     * each frame on the parse stack, or null if none. The patterns
+     * are ordered with the outermost first.
+     *
+     * @see RecursiveDescentParser#setOptimizeGrammar(boolean)
+     */
+    private ProductionPattern[][] collapsed = new ProductionPattern[32][];
+
+    /**
+     * The collapsed production nodes enclosing the node for each
+     * frame on the parse stack, or null if none. The nodes are
+     * ordered with the outermost first.
+     */
+    private Production[][] wrappers = new Production[32][];
+
+    /**
+     * The current number of frames on the parse stack.
+     */
+    private int depth = 0;
+
+    /**
+     * Creates a new production table parse driver.
+     *
+     * @param parser         the parser using this driver
+     * @param table          the production table
+     */
+    TableDriver(RecursiveDescentParser parser, ProductionTable table) {
+        this.parser = parser;
+        this.table = table;
+    }
+
+    /**
+     * Returns the production table.
+     *
+     * @return the production table
+     */
+    ProductionTable getTable() {
+        return table;
+    }
+
+    /**
+     * Parses the start production and creates a parse tree. A parse
+     * tree node may or may not be created depending on the analyzer
+     * callbacks.
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    Node parse() throws ParseException {
+        this.mode = TREE_MODE;
+        return run(0);
+    }
+
+    /**
+     * Parses a production pattern and creates a parse tree. A parse
+     * tree node may or may not be created depending on the analyzer
+     * callbacks. The parsing stops when the production has been
+     * parsed, even if more tokens are available.
+     *
+     * @param pattern        the production pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    Node parse(ProductionPattern pattern) throws ParseException {
+        int  pos = 0;
+
+        while (table.patterns[pos] != pattern) {
+            pos++;
+        }
+        this.mode = TREE_MODE;
+        return run(pos);
+    }
+
+    /**
+     * Parses the start production and delivers the parse events to
+     * a listener. No production nodes are created.
+     *
+     * @param listener       the parse event listener
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    void parse(ParseListener listener) throws ParseException {
+        this.mode = EVENT_MODE;
+        this.listener = listener;
+        try {
+            run(0);
+        } finally {
+            this.listener = null;
+        }
+    }
+
+    /**
+     * Checks if the input matches the start production. No
+     * production nodes are created, and no error recovery is
+     * attempted.
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    void recognize() throws ParseException {
+        this.mode = RECOGNIZE_MODE;
+        run(0);
+    }
+
+    /**
+     * Parses a production. Depending on the parse mode, a parse tree
+     * is created, the parse events are delivered to the listener, or
+     * the input is only checked.
+     *
+     * @param start          the position of the pattern to parse
+     *
+     * @return the parse tree node created, or null
+     *
+     * @throws ParseException if the input couldn't be parsed
+     *             correctly
+     */
+    private Node run(int start) throws ParseException {
+        ProductionTable  t = table;
+        Node             result = null;
+        Node             child;
+        Token            token;
+        int              top;
+        int              pos;
+        int              count;
+        int              pattern;
+        int              alt;
+        int              frame;
+
+        clear();
+        push(selectAlternative(start), null);
+        while (depth > 0) {
+            top = (depth - 1) * FRAME_SIZE;
+            pos = stack[top + 1];
+            count = stack[top + 2];
+            try {
+                if (pos >= t.altElems[stack[top] + 1]) {
+                    pattern = t.altPattern[stack[top]];
+                    if (mode == RECOGNIZE_MODE) {
+                        // No nodes or events
+                    } else if (mode == EVENT_MODE) {
+                        if (depth == 1 || !t.patternSynthetic[pattern]) {
+                            parser.endProduction(listener,
+                                                 t.patterns[pattern].getId());
+                            endCollapsed();
+                        }
+                    } else if (depth == 1) {
+                        result = parser.exitNode(nodes[0]);
+                    } else if (!t.patternSynthetic[pattern]) {
+                        child = parser.exitNode(nodes[depth - 1]);
+                        parser.addNode(nodes[depth - 2], unwrap(child));
+                    }
+                    pop();
+                    if (depth > 0) {
+                        stack[top - FRAME_SIZE + 2]++;
+                    }
+                } else if (count < t.elemMax[pos]
+                        && (count < t.elemMin[pos] || isNext(pos))) {
+
+                    if (t.elemToken[pos]) {
+                        token = parser.nextToken(t.elemRef[pos]);
+                        if (mode == RECOGNIZE_MODE) {
+                            // No nodes or events
+                        } else if (mode == EVENT_MODE) {
+                            parser.tokenEvent(listener, token);
+                        } else {
+                            parser.enterNode(token);
+                            parser.addNode(nodes[depth - 1],
+                                           parser.exitNode(token));
+                        }
+                        stack[top + 2]++;
+                    } else if (mode == TREE_MODE
+                            && t.elemCollapsed[pos] == null
+                            && parser.isLazy(t.patterns[t.elemRef[pos]])) {
+
+                        child = parser.skipLazy(t.patterns[t.elemRef[pos]]);
+                        parser.addNode(nodes[depth - 1], child);
+                        stack[top + 2]++;
+                    } else {
+                        alt = selectAlternative(t.elemRef[pos]);
+                        frame = findFlattened(alt);
+                        if (frame < 0) {
+                            push(alt, t.elemCollapsed[pos]);
+                        } else {
+                            while (depth > frame + 1) {
+                                exitTop();
+                            }
+                            top = frame * FRAME_SIZE;
+                            stack[top] = alt;
+                            stack[top + 1] = t.altElems[alt];
+                            stack[top + 2] = 0;
+                        }
+                    }
+                } else {
+                    stack[top + 1] = pos + 1;
+                    stack[top + 2] = 0;
+                }
+            } catch (ParseException e) {
+                if (mode == RECOGNIZE_MODE) {
+                    clear();
+                    throw e;
+                }
+                recover(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Pushes a new frame for a production pattern alternative onto
+     * the parse stack. This method also creates the production node
+     * and calls the analyzer enter callback, or delivers the start
+     * event to the listener. For synthetic productions no node is
+     * created, and the frame shares the node of the frame below. Any
+     * collapsed production patterns will be started before the
+     * production for the alternative.
+     *
+     * @param alt            the alternative position
+     * @param patterns       the collapsed production patterns, or null
+     */
+    private void push(int alt, ProductionPattern[] patterns) {
+        int         pattern = table.altPattern[alt];
+        Production  node;
+
+        if (depth >= nodes.length) {
+            grow();
+        }
+        stack[depth * FRAME_SIZE] = alt;
+        stack[depth * FRAME_SIZE + 1] = table.altElems[alt];
+        stack[depth * FRAME_SIZE + 2] = 0;
+        if (mode == RECOGNIZE_MODE) {
+            depth++;
+        } else if (depth > 0 && table.patternSynthetic[pattern]) {
+            nodes[depth] = nodes[depth - 1];
+            depth++;
+        } else if (mode == EVENT_MODE) {
+            collapsed[depth] = patterns;
+            for (int i = 0; patterns != null && i < patterns.length; i++) {
+                parser.startProduction(listener, patterns[i].getId());
+            }
+            depth++;
+            parser.startProduction(listener, table.patterns[pattern].getId());
+        } else {
+            if (patterns != null) {
+                wrappers[depth] = new Production[patterns.length];
+                for (int i = 0; i < patterns.length; i++) {
+                    wrappers[depth][i] = parser.createProduction(patterns[i]);
+                    parser.enterNode(wrappers[depth][i]);
+                }
+            }
+            node = parser.createProduction(table.patterns[pattern]);
+            nodes[depth++] = node;
+            parser.enterNode(node);
+        }
+    }
+
+    /**
+     * Removes the top frame from the parse stack.
+     */
+    private void pop() {
+        depth--;
+        nodes[depth] = null;
+        collapsed[depth] = null;
+        wrappers[depth] = null;
+    }
+
+    /**
+     * Removes all frames from the parse stack.
+     */
+    private void clear() {
+        while (depth > 0) {
+            pop();
+        }
+    }
+
+    /**
+     * Doubles the capacity of the parse stack.
+     */
+    private void grow() {
+        int[]                  newStack;
+        Production[]           newNodes;
+        ProductionPattern[][]  newCollapsed;
+        Production[][]         newWrappers;
+
+        newStack = new int[stack.length * 2];
+        System.arraycopy(stack, 0, newStack, 0, stack.length);
+        stack = newStack;
+        newNodes = new Production[nodes.length * 2];
+        System.arraycopy(nodes, 0, newNodes, 0, nodes.length);
+        nodes = newNodes;
+        newCollapsed = new ProductionPattern[collapsed.length * 2][];
+        System.arraycopy(collapsed, 0, newCollapsed, 0, collapsed.length);
+        collapsed = newCollapsed;
+        newWrappers = new Production[wrappers.length * 2][];
+        System.arraycopy(wrappers, 0, newWrappers, 0, wrappers.length);
+        wrappers = newWrappers;
+    }
+
+    /**
+     * Adds a child node to the collapsed production nodes of the top
+     * frame on the parse stack. The collapsed nodes are exited from
+     * the innermost to the outermost.
+     *
+     * @param child          the child node, or null
+     *
+     * @return the outermost node to add to the parent, or null
+     */
+    private Node unwrap(Node child) {
+        Production[]  list = wrappers[depth - 1];
+
+        if (list != null) {
+            for (int i = list.length - 1; i >= 0; i--) {
+                parser.addNode(list[i], child);
+                child = parser.exitNode(list[i]);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Delivers the end events for the collapsed production patterns
+     * of the top frame on the parse stack. The collapsed patterns
+     * are ended from the innermost to the outermost.
+     */
+    private void endCollapsed() {
+        ProductionPattern[]  list = collapsed[depth - 1];
+
+        if (list != null) {
+            for (int i = list.length - 1; i >= 0; i--) {
+                parser.endProduction(listener, list[i].getId());
+            }
+        }
+    }
+
+    /**
+     * Ends the production of the top frame on the parse stack and
+     * removes the frame. The production node is exited and added to
+     * the frame below, or the end event is delivered to the
+     * listener. The frame below must be present, and its element
+     * position is left unchanged.
+     */
+    private void exitTop() {
+        int   pattern = table.altPattern[stack[(depth - 1) * FRAME_SIZE]];
+        Node  child;
+
+        if (mode == RECOGNIZE_MODE || table.patternSynthetic[pattern]) {
+            // No nodes or events
+        } else if (mode == EVENT_MODE) {
+            parser.endProduction(listener, table.patterns[pattern].getId());
+            endCollapsed();
+        } else {
+            child = parser.exitNode(nodes[depth - 1]);
+            parser.addNode(nodes[depth - 2], unwrap(child));
+        }
+        pop();
+    }
+
+    /**
+     * Finds the frame to merge a production element in the top frame
+     * into. This is only done if right recursion flattening is
+     * enabled, and the element is in the tail position. The element
+     * is merged into the innermost frame with the same production
+     * pattern, provided that all frames above it are also at their
+     * tail elements.
+     *
+     * @param alt            the alternative selected for the element
+     *
+     * @return the frame index to merge into, or
+     *         -1 if the element shouldn't be merged
+     *
+     * @see RecursiveDescentParser#setFlattenRightRecursion(boolean)
+     */
+    private int findFlattened(int alt) {
+        ProductionTable  t = table;
+        int              pattern = t.altPattern[alt];
+        int              top;
+        int              pos;
+
+        if (!parser.getFlattenRightRecursion()) {
+            return -1;
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            top = i * FRAME_SIZE;
+            pos = stack[top + 1];
+            if (pos != t.altElems[stack[top] + 1] - 1
+             || t.elemMax[pos] != 1
+             || t.elemCollapsed[pos] != null) {
+
+                return -1;
+            } else if (t.altPattern[stack[top]] == pattern) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Recovers from a parse error in the top frame on the parse
+     * stack. The error is added to the error log and the next token
+     * is skipped, after which the current element is parsed again.
+     * If no token could be skipped, the top frame is removed and the
+     * recovery continues in the frame below, just as an exception
+     * would propagate through the recursive descent parser.
+     *
+     * @param e              the parse error to recover from
+     *
+     * @throws ParseException if the parse error couldn't be
+     *             recovered from in any frame
+     */
+    private void recover(ParseException e) throws ParseException {
+        while (true) {
+            parser.addError(e, true);
+            try {
+                parser.nextToken();
+                stack[(depth - 1) * FRAME_SIZE + 2] = 0;
+                return;
+            } catch (ParseException next) {
+                pop();
+                if (depth <= 0) {
+                    throw next;
+                }
+                e = next;
+            }
+        }
+    }
+
+    /**
+     * Selects the pattern alternative to parse for a production
+     * pattern, based on the next tokens in the input.
+     *
+     * @param pattern        the pattern position
+     *
+     * @return the alternative position
+     *
+     * @throws ParseException if no alternative matched the input
+     */
+    private int selectAlternative(int pattern) throws ParseException {
+        ProductionTable  t = table;
+        int              defaultAlt = t.patternDefault[pattern];
+        int              end = t.patternAlts[pattern + 1];
+
+        for (int alt = t.patternAlts[pattern]; alt < end; alt++) {
+            if (alt != defaultAlt && isNext(t.altLookAhead[alt])) {
+                return alt;
+            }
+        }
+        if (defaultAlt < 0 || !isNext(t.altLookAhead[defaultAlt])) {
+            parser.throwParseException(t.patternUnion[pattern]);
+        }
+        return defaultAlt;
+    }
+
+    /**
+     * Checks if the next tokens match a production element.
+     *
+     * @param pos            the element position
+     *
+     * @return true if the next tokens match, or
+     *         false otherwise
+     */
+    private boolean isNext(int pos) {
+        LookAheadSet  set = table.elemLookAhead[pos];
+        Token         token;
+
+        if (set != null) {
+            return set.isNext(parser);
+        } else if (table.elemToken[pos]) {
+            token = parser.peekToken(0);
+            return token != null && token.getId() == table.elemRef[pos];
+        } else {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the next tokens match a look-ahead set.
+     *
+     * @param set            the look-ahead set, or null
+     *
+     * @return true if the next tokens match, or
+     *         false otherwise
+     */
+    private boolean isNext(LookAheadSet set) {
+        return set != null && set.isNext(parser);
+    }
+}
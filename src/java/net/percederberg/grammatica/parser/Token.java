@@ -21,7 +21,7 @@ package net.percederberg.grammatica.parser;
  * token patterns.
  *
  * @author   Per Cederberg
- * @version  1.4
+ * @version  1.6
  */
 public class Token extends Node {
 
@@ -56,6 +56,18 @@ public class Token extends Node {
      */
     private int endColumn;
 
+    /**
+     * The character offset of the first character in the token
+     * image, or -1 if unknown.
+     */
+    private int startOffset = -1;
+
+    /**
+     * The number of characters examined after the token image when
+     * the token was matched.
+     */
+    private int lookAhead = 0;
+
     /**
      * The previous token in the list of tokens.
      */
@@ -154,6 +166,96 @@ public class Token extends Node {
         return endColumn;
     }
 
+    /**
+     * The character offset of the first character in the token
+     * image. The offset is counted from the start of the input
+     * stream.
+     *
+     * @return the character offset of the first token character, or
+     *         -1 if unknown
+     *
+     * @since 1.6
+     */
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    /**
+     * The character offset following the last character in the
+     * token image.
+     *
+     * @return the character offset following the last token
+     *         character, or -1 if unknown
+     *
+     * @since 1.6
+     */
+    public int getEndOffset() {
+        return (startOffset < 0) ? -1 : startOffset + image.length();
+    }
+
+    /**
+     * Sets the character offset of the first character in the token
+     * image. This method is called by the tokenizer when the token
+     * has been created.
+     *
+     * @param offset         the character offset
+     *
+     * @since 1.6
+     */
+    void setStartOffset(int offset) {
+        this.startOffset = offset;
+    }
+
+    /**
+     * Returns the token look-ahead. This is the number of characters
+     * following the token image that were examined by the tokenizer
+     * when the token was matched. Any change to these characters may
+     * change the token.
+     *
+     * @return the number of look-ahead characters examined
+     *
+     * @since 1.6
+     */
+    int getLookAhead() {
+        return lookAhead;
+    }
+
+    /**
+     * Sets the token look-ahead. This method is called by the
+     * tokenizer once the token has been created.
+     *
+     * @param lookAhead      the number of look-ahead characters
+     *
+     * @since 1.6
+     */
+    void setLookAhead(int lookAhead) {
+        this.lookAhead = lookAhead;
+    }
+
+    /**
+     * Moves the token position. The column adjustment is only made
+     * to the start column, and to the end column if on the same
+     * line. This method is called by the tokenizer when the input
+     * has been edited before the token.
+     *
+     * @param lines          the number of lines to move
+     * @param columns        the number of columns to move
+     * @param offset         the number of characters to move
+     *
+     * @since 1.6
+     */
+    void move(int lines, int columns, int offset) {
+        if (endLine == startLine) {
+            endColumn += columns;
+        }
+        startColumn += columns;
+        startLine += lines;
+        endLine += lines;
+        if (startOffset >= 0) {
+            startOffset += offset;
+        }
+    }
+
     /**
      * Returns the token pattern.
      *
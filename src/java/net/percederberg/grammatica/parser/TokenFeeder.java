@@ -0,0 +1,338 @@
+/*
+ * TokenFeeder.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.CharArrayReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+
+/**
+ * A push-mode tokenizer input. This class tokenizes an input stream
+ * that is delivered in chunks, instead of being read from a blocking
+ * reader. Each chunk fed returns the tokens that are complete, i.e.
+ * the tokens whose match cannot be affected by any further input.
+ * Any remaining characters are kept until the next chunk arrives,
+ * and are flushed once the end of the input is signalled. The
+ * remaining characters are only matched again once their number has
+ * doubled, so that a long token arriving in many small chunks is
+ * tokenized in linear time. The tokens following such a token may
+ * therefore be returned a few chunks later than they arrived.<p>
+ *
+ * The feeder uses the token patterns of a tokenizer, but keeps a
+ * separate matching state. Many feeders can therefore share a single
+ * tokenizer, and they can also be used from different threads. As
+ * for Tokenizer.next(), ignored tokens are not returned, and tokens
+ * with the error flag set are reported as errors. The tokens will be
+ * linked to each other if the tokenizer uses the token list feature.
+ *
+ * @see Tokenizer#next()
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class TokenFeeder {
+
+    /**
+     * The tokenizer with the token patterns.
+     */
+    private Tokenizer tokenizer;
+
+    /**
+     * The token matching state.
+     */
+    private Tokenizer.Cursor cursor;
+
+    /**
+     * The character decoder used for byte chunks.
+     */
+    private CharsetDecoder decoder;
+
+    /**
+     * The pending bytes not yet decoded, or null for none.
+     */
+    private ByteBuffer bytes = null;
+
+    /**
+     * The pending characters not yet tokenized.
+     */
+    private char[] chars = new char[1024];
+
+    /**
+     * The number of pending characters.
+     */
+    private int count = 0;
+
+    /**
+     * The number of pending characters left by the last tokenizing,
+     * or zero (0) if none were left. The pending characters are not
+     * tokenized again until their number has doubled.
+     */
+    private int stalled = 0;
+
+    /**
+     * The line number of the first pending character.
+     */
+    private int line = 1;
+
+    /**
+     * The column number of the first pending character.
+     */
+    private int column = 1;
+
+    /**
+     * The character offset of the first pending character.
+     */
+    private int offset = 0;
+
+    /**
+     * The previous token in the token list.
+     */
+    private Token previousToken = null;
+
+    /**
+     * The errors found in the last chunk.
+     */
+    private ParserLogException errors = new ParserLogException();
+
+    /**
+     * Creates a new token feeder. Byte chunks will be decoded with
+     * the UTF-8 character set.
+     *
+     * @param tokenizer      the tokenizer with the token patterns
+     */
+    public TokenFeeder(Tokenizer tokenizer) {
+        this(tokenizer, Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Creates a new token feeder. Any malformed or unmappable bytes
+     * will be replaced when decoding byte chunks.
+     *
+     * @param tokenizer      the tokenizer with the token patterns
+     * @param charset        the character set for byte chunks
+     */
+    public TokenFeeder(Tokenizer tokenizer, Charset charset) {
+        this.tokenizer = tokenizer;
+        this.cursor = tokenizer.newCursor();
+        this.decoder = charset.newDecoder();
+        this.decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        this.decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns the errors found in the last chunk. The errors are
+     * cleared each time a new chunk is fed.
+     *
+     * @return the errors found in the last chunk
+     */
+    public ParserLogException getErrors() {
+        return errors;
+    }
+
+    /**
+     * Feeds a chunk of characters to the tokenizer.
+     *
+     * @param chunk          the characters to add
+     *
+     * @return an array with the complete tokens found
+     */
+    public Token[] feed(char[] chunk) {
+        return feed(chunk, 0, chunk.length);
+    }
+
+    /**
+     * Feeds a chunk of characters to the tokenizer.
+     *
+     * @param chunk          the character array
+     * @param start          the position of the first character
+     * @param length         the number of characters to add
+     *
+     * @return an array with the complete tokens found
+     */
+    public Token[] feed(char[] chunk, int start, int length) {
+        append(chunk, start, length);
+        return tokenize(false);
+    }
+
+    /**
+     * Feeds a chunk of bytes to the tokenizer. The bytes will be
+     * decoded to characters, and any incomplete multi-byte sequence
+     * at the end is kept until the next chunk.
+     *
+     * @param chunk          the bytes to add
+     *
+     * @return an array with the complete tokens found
+     */
+    public Token[] feed(ByteBuffer chunk) {
+        decode(chunk, false);
+        return tokenize(false);
+    }
+
+    /**
+     * Signals the end of the input. All the remaining characters are
+     * tokenized, and the feeder is then reset so that it can be used
+     * for another input stream.
+     *
+     * @return an array with the remaining tokens found
+     */
+    public Token[] endOfInput() {
+        Token[]  result;
+
+        decode(ByteBuffer.allocate(0), true);
+        result = tokenize(true);
+        decoder.reset();
+        bytes = null;
+        count = 0;
+        stalled = 0;
+        line = 1;
+        column = 1;
+        offset = 0;
+        previousToken = null;
+        return result;
+    }
+
+    /**
+     * Decodes a chunk of bytes and adds the characters to the
+     * pending characters.
+     *
+     * @param chunk          the bytes to decode
+     * @param end            the end of input flag
+     */
+    private void decode(ByteBuffer chunk, boolean end) {
+        ByteBuffer  input = chunk;
+        CharBuffer  output;
+        int         size;
+
+        if (bytes != null) {
+            input = ByteBuffer.allocate(bytes.remaining() + chunk.remaining());
+            input.put(bytes);
+            input.put(chunk);
+            input.flip();
+        }
+        size = (int) (input.remaining() * decoder.maxCharsPerByte()) + 16;
+        output = CharBuffer.allocate(size);
+        decoder.decode(input, output, end);
+        if (end) {
+            decoder.flush(output);
+        }
+        if (input.hasRemaining()) {
+            bytes = ByteBuffer.allocate(input.remaining());
+            bytes.put(input);
+            bytes.flip();
+        } else {
+            bytes = null;
+        }
+        output.flip();
+        append(output.array(), 0, output.remaining());
+    }
+
+    /**
+     * Adds characters to the pending characters.
+     *
+     * @param chunk          the character array
+     * @param start          the position of the first character
+     * @param length         the number of characters to add
+     */
+    private void append(char[] chunk, int start, int length) {
+        char[]  temp;
+
+        if (count + length > chars.length) {
+            temp = new char[Math.max(chars.length * 2, count + length)];
+            System.arraycopy(chars, 0, temp, 0, count);
+            chars = temp;
+        }
+        System.arraycopy(chunk, start, chars, count, length);
+        count += length;
+    }
+
+    /**
+     * Tokenizes the pending characters. Unless at the end of the
+     * input, the tokenizing stops at the first match that examined
+     * the end of the pending characters, as it might change when
+     * more characters are added. The tokenizing is also skipped
+     * until the characters left by the previous call have doubled.
+     *
+     * @param end            the end of input flag
+     *
+     * @return an array with the complete tokens found
+     */
+    private Token[] tokenize(boolean end) {
+        ArrayList     result = new ArrayList();
+        int           limit = offset + count;
+        ReaderBuffer  buffer;
+        Token         token;
+        int           startLine;
+        int           startColumn;
+        int           startOffset;
+
+        errors = new ParserLogException();
+        if (!end && count < stalled * 2) {
+            return new Token[0];
+        }
+        buffer = new ReaderBuffer(new CharArrayReader(chars, 0, count),
+                                  line,
+                                  column,
+                                  offset);
+        while (true) {
+            startLine = buffer.lineNumber();
+            startColumn = buffer.columnNumber();
+            startOffset = buffer.offset();
+            try {
+                token = tokenizer.nextToken(buffer, cursor);
+            } catch (ParseException e) {
+                if (!end && buffer.examinedOffset() > limit) {
+                    break;
+                }
+                errors.addError(e);
+                continue;
+            }
+            if (token == null) {
+                break;
+            } else if (!end && buffer.examinedOffset() > limit) {
+                break;
+            }
+            if (tokenizer.getUseTokenList()) {
+                token.setPreviousToken(previousToken);
+                previousToken = token;
+            }
+            if (token.getPattern().isIgnore()) {
+                // Ignored tokens are only kept in the token list
+            } else if (token.getPattern().isError()) {
+                errors.addError(new ParseException(
+                    ParseException.INVALID_TOKEN_ERROR,
+                    token.getPattern().getErrorMessage(),
+                    null,
+                    token.getStartLine(),
+                    token.getStartColumn(),
+                    token.getStartOffset()));
+            } else {
+                result.add(token);
+            }
+        }
+        buffer.dispose();
+        count -= startOffset - offset;
+        System.arraycopy(chars, startOffset - offset, chars, 0, count);
+        stalled = end ? 0 : count;
+        line = startLine;
+        column = startColumn;
+        offset = startOffset;
+        return (Token[]) result.toArray(new Token[result.size()]);
+    }
+}
@@ -28,7 +28,7 @@ import net.percederberg.grammatica.parser.re.RegExpException;
  * does not use recursion, but iterates in a loop instead.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  * @since    1.5
  */
 class TokenNFA {
@@ -155,6 +155,30 @@ class TokenNFA {
      * @throws IOException if an I/O error occurred
      */
     public int match(ReaderBuffer buffer, TokenMatch match) throws IOException {
+        return match(buffer, match, this.queue);
+    }
+
+    /**
+     * Checks if this NFA matches the specified input text. The
+     * matching will be performed from position zero (0) in the
+     * buffer, using the specified state queue. This makes it
+     * possible to match concurrently from several threads, as long
+     * as each thread uses a separate state queue.
+     *
+     * @param buffer         the input buffer to check
+     * @param match          the token match to update
+     * @param queue          the state queue to use
+     *
+     * @return the number of characters matched, or
+     *         zero (0) if no match was found
+     *
+     * @throws IOException if an I/O error occurred
+     *
+     * @since 1.6
+     */
+    int match(ReaderBuffer buffer, TokenMatch match, StateQueue queue)
+        throws IOException {
+
         int           length = 0;
         int           pos = 1;
         int           peekChar;
@@ -162,33 +186,33 @@ class TokenNFA {
 
         // The first step of the match loop has been unrolled and
         // optimized for performance below.
-        this.queue.clear();
+        queue.clear();
         peekChar = buffer.peek(0);
         if (0 <= peekChar && peekChar < 128) {
             state = this.initialChar[peekChar];
             if (state != null) {
-                this.queue.addLast(state);
+                queue.addLast(state);
             }
         }
         if (peekChar >= 0) {
-            this.initial.matchTransitions((char) peekChar, this.queue, true);
+            this.initial.matchTransitions((char) peekChar, queue, true);
         }
-        this.queue.markEnd();
+        queue.markEnd();
         peekChar = buffer.peek(1);
 
         // The remaining match loop processes all subsequent states
-        while (!this.queue.isEmpty()) {
-            if (this.queue.isMarked()) {
+        while (!queue.isEmpty()) {
+            if (queue.isMarked()) {
                 pos++;
                 peekChar = buffer.peek(pos);
-                this.queue.markEnd();
+                queue.markEnd();
             }
-            state = this.queue.removeFirst();
+            state = queue.removeFirst();
             if (state.value != null) {
                 match.update(pos, state.value);
             }
             if (peekChar >= 0) {
-                state.matchTransitions((char) peekChar, this.queue, false);
+                state.matchTransitions((char) peekChar, queue, false);
             }
         }
         return length;
@@ -0,0 +1,210 @@
+/*
+ * TokenPipeline.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * A token pipeline. This class reads tokens from a tokenizer in a
+ * separate producer thread, so that the tokenizing can run in
+ * parallel with the parsing. The tokens are passed to the consumer
+ * thread in batches, through a bounded queue. The producer thread
+ * is thereby blocked when the consumer falls behind.<p>
+ *
+ * Tokenizer errors are passed through the queue at the position
+ * where they occurred, so that the consumer can report them in the
+ * same order as when reading from the tokenizer directly. The
+ * tokenizer must not be used by any other thread until the pipeline
+ * has been closed. The producer thread is never interrupted, as that
+ * would close any interruptible channel that the tokenizer reads
+ * from. Closing the pipeline therefore waits for any blocking read
+ * in progress to complete.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class TokenPipeline implements Runnable {
+
+    /**
+     * The maximum number of tokens in each batch.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * The maximum number of batches in the queue.
+     */
+    private static final int QUEUE_SIZE = 16;
+
+    /**
+     * The tokenizer to read from.
+     */
+    private Tokenizer tokenizer;
+
+    /**
+     * The queue of token batches. Each batch is an array of tokens
+     * and tokenizer errors. The last batch is terminated by a null
+     * entry.
+     */
+    private ArrayBlockingQueue queue = new ArrayBlockingQueue(QUEUE_SIZE);
+
+    /**
+     * The producer thread.
+     */
+    private Thread thread;
+
+    /**
+     * The stop flag. Set when the pipeline is closed, and checked by
+     * the producer thread after each token read.
+     */
+    private volatile boolean stopped = false;
+
+    /**
+     * The unexpected producer thread failure, or null for none. This
+     * value is only read once the last batch has been received.
+     */
+    private RuntimeException failure = null;
+
+    /**
+     * The current batch being consumed, or null for none.
+     */
+    private Object[] batch = null;
+
+    /**
+     * The position of the next entry in the current batch.
+     */
+    private int pos = 0;
+
+    /**
+     * The end of input flag. Set once the last batch has been
+     * consumed.
+     */
+    private boolean done = false;
+
+    /**
+     * Creates a new token pipeline. The producer thread is started
+     * immediately.
+     *
+     * @param tokenizer      the tokenizer to read from
+     */
+    public TokenPipeline(Tokenizer tokenizer) {
+        this.tokenizer = tokenizer;
+        this.thread = new Thread(this, "grammatica-tokenizer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the next token or tokenizer error. This method blocks
+     * until the producer thread has provided the next batch.
+     *
+     * @return the next token or tokenizer error, or
+     *         null if end of file was encountered
+     *
+     * @throws InterruptedException if the consumer thread was
+     *             interrupted while waiting
+     */
+    public Object next() throws InterruptedException {
+        Object  obj;
+
+        if (done) {
+            return null;
+        }
+        if (batch == null || pos >= batch.length) {
+            batch = (Object[]) queue.take();
+            pos = 0;
+        }
+        obj = batch[pos++];
+        if (obj == null) {
+            done = true;
+            batch = null;
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Stops the producer thread. This method waits until the thread
+     * has stopped, so that the tokenizer can be used again. The queue
+     * is drained while waiting, so that the producer thread isn't
+     * blocked on a full queue.
+     */
+    public void close() {
+        boolean  interrupted = false;
+
+        stopped = true;
+        while (thread.isAlive()) {
+            queue.clear();
+            try {
+                thread.join(10);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        queue.clear();
+        batch = null;
+        done = true;
+    }
+
+    /**
+     * Reads tokens from the tokenizer until end of file. This method
+     * is run by the producer thread, and stops early if the pipeline
+     * is closed.
+     */
+    public void run() {
+        Object[]  buffer = new Object[BATCH_SIZE];
+        Object[]  last;
+        int       count = 0;
+        Token     token;
+
+        try {
+            while (!stopped) {
+                try {
+                    token = tokenizer.next();
+                    if (token == null) {
+                        break;
+                    }
+                    buffer[count++] = token;
+                } catch (ParseException e) {
+                    buffer[count++] = e;
+                }
+                if (count >= BATCH_SIZE) {
+                    queue.put(buffer);
+                    buffer = new Object[BATCH_SIZE];
+                    count = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        if (stopped) {
+            return;
+        }
+        last = new Object[count + 1];
+        System.arraycopy(buffer, 0, last, 0, count);
+        try {
+            queue.put(last);
+        } catch (InterruptedException ignore) {
+            // Pipeline was closed
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * TokenQueue.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A token look-ahead queue. This queue is used by the parser to
+ * buffer tokens that have been read from the tokenizer, but not yet
+ * consumed. The tokens are stored in a ring buffer with a size that
+ * is always a power of two, so that both peeking and consuming are
+ * constant time operations.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+class TokenQueue {
+
+    /**
+     * The initial buffer size. This value must be a power of two.
+     */
+    private static final int INITIAL_SIZE = 16;
+
+    /**
+     * The token ring buffer. The length of this array is always a
+     * power of two.
+     */
+    private Token[] buffer = new Token[INITIAL_SIZE];
+
+    /**
+     * The absolute position of the next token to consume.
+     */
+    private int head = 0;
+
+    /**
+     * The absolute position of the next token to add.
+     */
+    private int tail = 0;
+
+    /**
+     * The peak number of buffered unconsumed tokens.
+     */
+    private int peak = 0;
+
+    /**
+     * Returns the number of buffered tokens that have not yet been
+     * consumed.
+     *
+     * @return the number of unconsumed tokens in the queue
+     */
+    public int size() {
+        return tail - head;
+    }
+
+    /**
+     * Returns the peak number of unconsumed tokens in the queue since
+     * it was last cleared. This is the maximum look-ahead depth used
+     * by the parser.
+     *
+     * @return the peak number of unconsumed tokens
+     */
+    public int getPeakSize() {
+        return peak;
+    }
+
+    /**
+     * Returns a buffered token without consuming it.
+     *
+     * @param steps          the queue position, zero (0) for first
+     *
+     * @return the token at the specified position, or
+     *         null if not enough tokens are buffered
+     */
+    public Token peek(int steps) {
+        if (steps < 0 || steps >= tail - head) {
+            return null;
+        } else {
+            return buffer[(head + steps) & (buffer.length - 1)];
+        }
+    }
+
+    /**
+     * Adds a token last in the queue.
+     *
+     * @param token          the token to add
+     */
+    public void add(Token token) {
+        if (tail - head >= buffer.length) {
+            grow();
+        }
+        buffer[tail & (buffer.length - 1)] = token;
+        tail++;
+        if (tail - head > peak) {
+            peak = tail - head;
+        }
+    }
+
+    /**
+     * Consumes the first token in the queue.
+     *
+     * @return the token consumed, or
+     *         null if the queue was empty
+     */
+    public Token consume() {
+        int    pos;
+        Token  token;
+
+        if (head == tail) {
+            return null;
+        }
+        pos = head & (buffer.length - 1);
+        token = buffer[pos];
+        buffer[pos] = null;
+        head++;
+        return token;
+    }
+
+    /**
+     * Removes all tokens from the queue. This also resets the peak
+     * size counter.
+     */
+    public void clear() {
+        for (int pos = head; pos - tail < 0; pos++) {
+            buffer[pos & (buffer.length - 1)] = null;
+        }
+        head = 0;
+        tail = 0;
+        peak = 0;
+    }
+
+    /**
+     * Doubles the size of the ring buffer. All unconsumed tokens are
+     * retained, keeping their absolute positions.
+     */
+    private void grow() {
+        Token[]  old = buffer;
+        int      oldMask = old.length - 1;
+        int      newMask = old.length * 2 - 1;
+
+        buffer = new Token[old.length * 2];
+        for (int pos = head; pos - tail < 0; pos++) {
+            buffer[pos & newMask] = old[pos & oldMask];
+        }
+    }
+}
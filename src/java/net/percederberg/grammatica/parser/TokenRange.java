@@ -0,0 +1,145 @@
+/*
+ * TokenRange.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+/**
+ * A range of changed tokens. This class is returned when tokenizing
+ * an edited input, and contains the new tokens that replaced the
+ * previous ones. The tokens before and after the range are
+ * unchanged, except for their positions.
+ *
+ * @see Tokenizer#retokenize(Token, int, int, String)
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ * @since    1.6
+ */
+public class TokenRange {
+
+    /**
+     * The unchanged token before the range, or null if none.
+     */
+    private Token previous;
+
+    /**
+     * The first new token, or null if none.
+     */
+    private Token first;
+
+    /**
+     * The last new token, or null if none.
+     */
+    private Token last;
+
+    /**
+     * The unchanged token after the range, or null if none.
+     */
+    private Token next;
+
+    /**
+     * The number of previous tokens replaced.
+     */
+    private int removed;
+
+    /**
+     * The tokenizer errors found in the range.
+     */
+    private ParserLogException errors;
+
+    /**
+     * Creates a new token range.
+     *
+     * @param previous       the unchanged token before, or null
+     * @param first          the first new token, or null
+     * @param last           the last new token, or null
+     * @param next           the unchanged token after, or null
+     * @param removed        the number of tokens replaced
+     * @param errors         the tokenizer errors found
+     */
+    TokenRange(Token previous,
+               Token first,
+               Token last,
+               Token next,
+               int removed,
+               ParserLogException errors) {
+
+        this.previous = previous;
+        this.first = first;
+        this.last = last;
+        this.next = next;
+        this.removed = removed;
+        this.errors = errors;
+    }
+
+    /**
+     * Returns the unchanged token before the range.
+     *
+     * @return the token before the range, or
+     *         null if the range starts the token list
+     */
+    public Token getPreviousToken() {
+        return previous;
+    }
+
+    /**
+     * Returns the first new token in the range.
+     *
+     * @return the first new token, or
+     *         null if the range is empty
+     */
+    public Token getFirstToken() {
+        return first;
+    }
+
+    /**
+     * Returns the last new token in the range.
+     *
+     * @return the last new token, or
+     *         null if the range is empty
+     */
+    public Token getLastToken() {
+        return last;
+    }
+
+    /**
+     * Returns the unchanged token after the range. The position of
+     * this token and the following ones have been updated.
+     *
+     * @return the token after the range, or
+     *         null if the range ends the token list
+     */
+    public Token getNextToken() {
+        return next;
+    }
+
+    /**
+     * Returns the number of previous tokens replaced by the range.
+     *
+     * @return the number of tokens replaced
+     */
+    public int getRemovedCount() {
+        return removed;
+    }
+
+    /**
+     * Returns the tokenizer errors found in the range. These are
+     * the errors for characters not matching any token pattern.
+     *
+     * @return the tokenizer error log, possibly empty
+     */
+    public ParserLogException getErrors() {
+        return errors;
+    }
+}
@@ -16,6 +16,12 @@ package net.percederberg.grammatica.parser;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import net.percederberg.grammatica.parser.re.RegExp;
@@ -29,10 +35,16 @@ import net.percederberg.grammatica.parser.re.Matcher;
  * don't match any of the token patterns, a parse exception is thrown.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  */
 public class Tokenizer {
 
+    /**
+     * The minimum number of characters in each chunk when
+     * tokenizing in parallel.
+     */
+    private static final int MIN_CHUNK_SIZE = 16384;
+
     /**
      * The ignore character case flag.
      */
@@ -77,9 +89,9 @@ public class Tokenizer {
     private ReaderBuffer buffer = null;
 
     /**
-     * The last token match found.
+     * The matching state used for the input stream.
      */
-    private TokenMatch lastMatch = new TokenMatch();
+    private Cursor cursor = new Cursor(null);
 
     /**
      * The previous token in the token list.
@@ -158,6 +170,22 @@ public class Tokenizer {
      *         null if not present
      */
     public String getPatternDescription(int id) {
+        TokenPattern  pattern = getPattern(id);
+
+        return (pattern == null) ? null : pattern.toShortString();
+    }
+
+    /**
+     * Returns the token pattern with the specified id.
+     *
+     * @param id             the token pattern id
+     *
+     * @return the token pattern, or
+     *         null if not present
+     *
+     * @since 1.6
+     */
+    TokenPattern getPattern(int id) {
         TokenPattern  pattern;
 
         pattern = stringDfaMatcher.getPattern(id);
@@ -167,7 +195,7 @@ public class Tokenizer {
         if (pattern == null) {
             pattern = regExpMatcher.getPattern(id);
         }
-        return (pattern == null) ? null : pattern.toShortString();
+        return pattern;
     }
 
     /**
@@ -190,6 +218,18 @@ public class Tokenizer {
         return buffer.columnNumber();
     }
 
+    /**
+     * Returns the current character offset. This number will be the
+     * character offset of the next token returned.
+     *
+     * @return the current character offset
+     *
+     * @since 1.6
+     */
+    public int getCurrentOffset() {
+        return buffer.offset();
+    }
+
     /**
      * Adds a new token pattern to the tokenizer. The pattern will be
      * added last in the list, choosing a previous token pattern in
@@ -256,7 +296,7 @@ public class Tokenizer {
         this.buffer.dispose();
         this.buffer = new ReaderBuffer(input);
         this.previousToken = null;
-        this.lastMatch.clear();
+        this.cursor.match.clear();
     }
 
     /**
@@ -277,7 +317,7 @@ public class Tokenizer {
         Token  token = null;
 
         do {
-            token = nextToken();
+            token = nextToken(buffer, cursor);
             if (token == null) {
                 previousToken = null;
                 return null;
@@ -292,48 +332,400 @@ public class Tokenizer {
                 throw new ParseException(
                     ParseException.INVALID_TOKEN_ERROR,
                     token.getPattern().getErrorMessage(),
+                    null,
                     token.getStartLine(),
-                    token.getStartColumn());
+                    token.getStartColumn(),
+                    token.getStartOffset());
             }
         } while (token == null);
         return token;
     }
 
+    /**
+     * Re-tokenizes the input after an edit. The previous list of
+     * tokens is updated in place, and must have been created with
+     * the token list feature. It must also cover the complete input,
+     * as the edited input is read from the token images.<p>
+     *
+     * The tokenizing is restarted at the first token whose match
+     * examined any edited character, and stops as soon as a new
+     * token starts at the same position as a previous token after
+     * the edit. As the tokenizer has no other state, the remaining
+     * tokens will be unchanged and are kept in the list, with their
+     * positions updated. This method doesn't affect the current
+     * input stream of the tokenizer.
+     *
+     * @param token          any token in the previous token list
+     * @param offset         the character offset of the edit
+     * @param length         the number of characters deleted
+     * @param text           the text inserted
+     *
+     * @return the range of changed tokens
+     *
+     * @see #setUseTokenList(boolean)
+     *
+     * @since 1.6
+     */
+    public TokenRange retokenize(Token token,
+                                 int offset,
+                                 int length,
+                                 String text) {
+
+        ParserLogException  log = new ParserLogException();
+        ReaderBuffer        input;
+        Token               previous;
+        Token               old;
+        Token               first = null;
+        Token               last = null;
+        Token               created;
+        int                 delta = text.length() - length;
+        int                 removed = 0;
+
+        // Find restart token
+        while (token.getNextToken() != null
+            && token.getNextToken().getStartOffset() < offset) {
+
+            token = token.getNextToken();
+        }
+        while (token.getPreviousToken() != null
+            && token.getStartOffset() >= offset) {
+
+            token = token.getPreviousToken();
+        }
+        while (token.getPreviousToken() != null
+            && getExaminedOffset(token.getPreviousToken()) > offset) {
+
+            token = token.getPreviousToken();
+        }
+
+        // Tokenize until synchronized with previous tokens
+        previous = token.getPreviousToken();
+        input = new ReaderBuffer(new EditReader(token, offset, length, text),
+                                 token.getStartLine(),
+                                 token.getStartColumn(),
+                                 token.getStartOffset());
+        old = token;
+        while (true) {
+            try {
+                created = nextToken(input, cursor);
+            } catch (ParseException e) {
+                log.addError(e);
+                continue;
+            }
+            if (created == null) {
+                old = null;
+                break;
+            }
+            while (old != null
+                && (old.getStartOffset() < offset + length
+                 || old.getStartOffset() + delta < created.getStartOffset())) {
+
+                old = old.getNextToken();
+            }
+            if (old != null
+             && old.getStartOffset() + delta == created.getStartOffset()) {
+
+                break;
+            }
+            created.setPreviousToken((last == null) ? previous : last);
+            if (first == null) {
+                first = created;
+            }
+            last = created;
+        }
+
+        // Link remaining tokens
+        for (Token t = token; t != old; t = t.getNextToken()) {
+            removed++;
+        }
+        if (old != null) {
+            move(old, created);
+            old.setPreviousToken((last == null) ? previous : last);
+        } else if (last == null && previous != null) {
+            previous.setNextToken(null);
+        }
+        return new TokenRange(previous, first, last, old, removed, log);
+    }
+
+    /**
+     * Tokenizes a complete input text in parallel. The input is
+     * split into chunks after a separator character, and the chunks
+     * are tokenized concurrently in a pool of worker threads. Each
+     * chunk uses a separate matching state, but the token patterns
+     * and automatons are shared. The tokens are returned in input
+     * order, with the same positions as if the input had been read
+     * sequentially. This method doesn't affect the current input
+     * stream of the tokenizer.<p>
+     *
+     * The input should only be split at a separator if no token can
+     * contain the separator, except as the last character. The last
+     * token in each chunk is therefore matched again with the
+     * remaining input, and if the match would have continued into
+     * the next chunk, the input is tokenized sequentially from the
+     * start of that chunk instead. As for next(), ignored tokens are
+     * not returned and tokens with the error flag set are reported
+     * as errors. All errors are collected and thrown once the
+     * complete input has been tokenized. The newToken() method will
+     * be called concurrently from the worker threads, so it must not
+     * modify any shared state.
+     *
+     * @param input          the complete input text
+     * @param separator      the chunk separator character
+     * @param threads        the number of worker threads
+     *
+     * @return an array with the tokens found
+     *
+     * @throws ParserLogException if the input couldn't be tokenized
+     *             correctly
+     *
+     * @see #setUseTokenList(boolean)
+     *
+     * @since 1.6
+     */
+    public Token[] tokenizeParallel(CharSequence input,
+                                    char separator,
+                                    int threads)
+        throws ParserLogException {
+
+        ParserLogException  log = new ParserLogException();
+        ArrayList           tokens = new ArrayList();
+        Chunk[]             chunks = split(input, separator, threads);
+        Future[]            futures = new Future[chunks.length];
+        ExecutorService     executor = null;
+        Chunk               chunk;
+        Token               last = null;
+        Throwable           cause;
+
+        try {
+            if (chunks.length > 1) {
+                executor = Executors.newFixedThreadPool(
+                    threads,
+                    new ParallelAnalyzer.WorkerFactory("grammatica-tokenizer"));
+                for (int i = 0; i < chunks.length; i++) {
+                    futures[i] = executor.submit(chunks[i]);
+                }
+            }
+            for (int i = 0; i < chunks.length; i++) {
+                chunk = chunks[i];
+                if (futures[i] == null) {
+                    chunk.call();
+                } else {
+                    futures[i].get();
+                }
+                if (i + 1 < chunks.length && isSplit(input, chunk)) {
+                    for (int j = i + 1; j < chunks.length; j++) {
+                        chunks[j].cancelled = true;
+                    }
+                    chunk = new Chunk(input,
+                                      chunk.start,
+                                      input.length(),
+                                      chunk.line,
+                                      chunk.column);
+                    chunk.call();
+                    i = chunks.length;
+                }
+                if (useTokenList && chunk.first != null) {
+                    chunk.first.setPreviousToken(last);
+                    last = chunk.last;
+                }
+                tokens.addAll(chunk.tokens);
+                for (int j = 0; j < chunk.log.getErrorCount(); j++) {
+                    log.addError(chunk.log.getError(j));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.addError(new ParseException(ParseException.INTERNAL_ERROR,
+                                            "tokenizing interrupted",
+                                            -1,
+                                            -1));
+        } catch (ExecutionException e) {
+            cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw new RuntimeException(cause);
+            }
+        } finally {
+            if (executor != null) {
+                for (int i = 0; i < chunks.length; i++) {
+                    chunks[i].cancelled = true;
+                }
+                executor.shutdown();
+            }
+        }
+        if (log.getErrorCount() > 0) {
+            throw log;
+        }
+        return (Token[]) tokens.toArray(new Token[tokens.size()]);
+    }
+
+    /**
+     * Splits an input text into chunks. The chunk boundaries are
+     * placed after a separator character, with roughly the same
+     * number of characters in each chunk. The line and column
+     * numbers are calculated for the start of each chunk.
+     *
+     * @param input          the complete input text
+     * @param separator      the chunk separator character
+     * @param threads        the number of worker threads
+     *
+     * @return an array with the input chunks
+     */
+    private Chunk[] split(CharSequence input, char separator, int threads) {
+        ArrayList  chunks = new ArrayList();
+        int        length = input.length();
+        int        count = Math.min(threads * 4, length / MIN_CHUNK_SIZE);
+        int        start = 0;
+        int        end;
+        int        line = 1;
+        int        column = 1;
+
+        for (int i = 1; i < count; i++) {
+            end = Math.max(start, (int) ((long) length * i / count));
+            while (end < length && input.charAt(end) != separator) {
+                end++;
+            }
+            end++;
+            if (end >= length) {
+                break;
+            }
+            chunks.add(new Chunk(input, start, end, line, column));
+            for (; start < end; start++) {
+                if (input.charAt(start) == '\n') {
+                    line++;
+                    column = 1;
+                } else {
+                    column++;
+                }
+            }
+        }
+        chunks.add(new Chunk(input, start, length, line, column));
+        return (Chunk[]) chunks.toArray(new Chunk[chunks.size()]);
+    }
+
+    /**
+     * Checks if the last token in a chunk would continue into the
+     * next chunk. The token is matched again with the remaining
+     * input, and the length of the match is compared.
+     *
+     * @param input          the complete input text
+     * @param chunk          the tokenized input chunk
+     *
+     * @return true if the match differs from the chunk token, or
+     *         false otherwise
+     */
+    private boolean isSplit(CharSequence input, Chunk chunk) {
+        int           offset = chunk.lastOffset;
+        Reader        reader = new ChunkReader(input, offset, input.length());
+        ReaderBuffer  buffer = new ReaderBuffer(reader, 1, 1, offset);
+        try {
+            return match(buffer, chunk.cursor) != chunk.lastLength;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            buffer.dispose();
+        }
+    }
+
+    /**
+     * Moves the positions of a token and all the following tokens.
+     * The column adjustment is only made to the tokens on the same
+     * line as the first token.
+     *
+     * @param token          the first token to move
+     * @param target         the token at the new position
+     */
+    private void move(Token token, Token target) {
+        int  line = token.getStartLine();
+        int  lines = target.getStartLine() - line;
+        int  columns = target.getStartColumn() - token.getStartColumn();
+        int  offset = target.getStartOffset() - token.getStartOffset();
+
+        for (; token != null; token = token.getNextToken()) {
+            if (token.getStartLine() != line) {
+                columns = 0;
+            }
+            if (lines == 0 && columns == 0 && offset == 0) {
+                break;
+            }
+            token.move(lines, columns, offset);
+        }
+    }
+
+    /**
+     * Returns the offset following the last character examined when
+     * matching a token.
+     *
+     * @param token          the token to check
+     *
+     * @return the offset following the last character examined
+     */
+    private int getExaminedOffset(Token token) {
+        return token.getEndOffset() + token.getLookAhead();
+    }
+
+    /**
+     * Creates a new token matching state. The matching state can be
+     * used to match tokens concurrently with other threads, as it
+     * shares no mutable state with this tokenizer.
+     *
+     * @return the new token matching state
+     *
+     * @since 1.6
+     */
+    Cursor newCursor() {
+        return new Cursor(regExpMatcher.copyRegExps());
+    }
+
     /**
      * Finds the next token on the stream. This method will return
      * null when end of file has been reached. It will return a parse
      * exception if no token matched the input stream.
      *
+     * @param buffer         the input buffer to read
+     * @param cursor         the matching state to use
+     *
      * @return the next token found, or
      *         null if end of file was encountered
      *
      * @throws ParseException if the input stream couldn't be read or
      *             parsed correctly
      */
-    private Token nextToken() throws ParseException {
+    Token nextToken(ReaderBuffer buffer, Cursor cursor)
+        throws ParseException {
+
+        Token   token;
         String  str;
         int     line;
         int     column;
+        int     offset;
 
         try {
-            lastMatch.clear();
-            stringDfaMatcher.match(buffer, lastMatch);
-            nfaMatcher.match(buffer, lastMatch);
-            regExpMatcher.match(buffer, lastMatch);
-            if (lastMatch.length() > 0) {
+            buffer.clearExamined();
+            if (match(buffer, cursor) > 0) {
                 line = buffer.lineNumber();
                 column = buffer.columnNumber();
-                str = buffer.read(lastMatch.length());
-                return newToken(lastMatch.pattern(), str, line, column);
+                offset = buffer.offset();
+                str = buffer.read(cursor.match.length());
+                token = newToken(cursor.match.pattern(), str, line, column);
+                token.setStartOffset(offset);
+                token.setLookAhead(buffer.examinedOffset() - buffer.offset());
+                return token;
             } else if (buffer.peek(0) < 0) {
                 return null;
             } else {
                 line = buffer.lineNumber();
                 column = buffer.columnNumber();
+                offset = buffer.offset();
                 throw new ParseException(ParseException.UNEXPECTED_CHAR_ERROR,
                                          buffer.read(1),
+                                         null,
                                          line,
-                                         column);
+                                         column,
+                                         offset);
             }
         } catch (IOException e) {
             throw new ParseException(ParseException.IO_ERROR,
@@ -343,6 +735,26 @@ public class Tokenizer {
         }
     }
 
+    /**
+     * Finds the longest token match at the current buffer position.
+     * The buffer position is not changed.
+     *
+     * @param buffer         the input buffer to check
+     * @param cursor         the matching state to use
+     *
+     * @return the length of the longest match, or
+     *         zero (0) if no match was found
+     *
+     * @throws IOException if an I/O error occurred
+     */
+    private int match(ReaderBuffer buffer, Cursor cursor) throws IOException {
+        cursor.match.clear();
+        stringDfaMatcher.match(buffer, cursor);
+        nfaMatcher.match(buffer, cursor);
+        regExpMatcher.match(buffer, cursor);
+        return cursor.match.length();
+    }
+
     /**
      * Factory method for creating a new token. This method can be
      * overridden to provide other token implementations than the
@@ -398,14 +810,14 @@ public class Tokenizer {
         /**
          * Searches for matching token patterns at the start of the
          * input stream. If a match is found, the token match object
-         * is updated.
+         * in the cursor is updated.
          *
          * @param buffer         the input buffer to check
-         * @param match          the token match to update
+         * @param cursor         the matching state to update
          *
          * @throws IOException if an I/O error occurred
          */
-        public abstract void match(ReaderBuffer buffer, TokenMatch match)
+        public abstract void match(ReaderBuffer buffer, Cursor cursor)
         throws IOException;
 
         /**
@@ -488,19 +900,19 @@ public class Tokenizer {
         /**
          * Searches for matching token patterns at the start of the
          * input stream. If a match is found, the token match object
-         * is updated.
+         * in the cursor is updated.
          *
          * @param buffer         the input buffer to check
-         * @param match          the token match to update
+         * @param cursor         the matching state to update
          *
          * @throws IOException if an I/O error occurred
          */
-        public void match(ReaderBuffer buffer, TokenMatch match)
+        public void match(ReaderBuffer buffer, Cursor cursor)
         throws IOException {
             TokenPattern  res = automaton.match(buffer, ignoreCase);
 
             if (res != null) {
-                match.update(res.getPattern().length(), res);
+                cursor.match.update(res.getPattern().length(), res);
             }
         }
     }
@@ -541,16 +953,16 @@ public class Tokenizer {
         /**
          * Searches for matching token patterns at the start of the
          * input stream. If a match is found, the token match object
-         * is updated.
+         * in the cursor is updated.
          *
          * @param buffer         the input buffer to check
-         * @param match          the token match to update
+         * @param cursor         the matching state to update
          *
          * @throws IOException if an I/O error occurred
          */
-        public void match(ReaderBuffer buffer, TokenMatch match)
+        public void match(ReaderBuffer buffer, Cursor cursor)
         throws IOException {
-            automaton.match(buffer, match);
+            automaton.match(buffer, cursor.match, cursor.queue);
         }
     }
 
@@ -592,23 +1004,40 @@ public class Tokenizer {
         /**
          * Searches for matching token patterns at the start of the
          * input stream. If a match is found, the token match object
-         * is updated.
+         * in the cursor is updated.
          *
          * @param buffer         the input buffer to check
-         * @param match          the token match to update
+         * @param cursor         the matching state to update
          *
          * @throws IOException if an I/O error occurred
          */
-        public void match(ReaderBuffer buffer, TokenMatch match)
+        public void match(ReaderBuffer buffer, Cursor cursor)
         throws IOException {
+            RE[]  res = (cursor.regExps == null) ? regExps : cursor.regExps;
 
-            for (int i = 0; i < regExps.length; i++) {
-                int length = regExps[i].match(buffer);
+            for (int i = 0; i < res.length; i++) {
+                int length = res[i].match(buffer);
                 if (length > 0) {
-                    match.update(length, patterns[i]);
+                    cursor.match.update(length, patterns[i]);
                 }
             }
         }
+
+        /**
+         * Returns copies of the regular expression handlers. The
+         * copies share the compiled regular expressions, but have
+         * separate matching state.
+         *
+         * @return the regular expression handler copies
+         */
+        public RE[] copyRegExps() {
+            RE[]  res = new RE[regExps.length];
+
+            for (int i = 0; i < res.length; i++) {
+                res[i] = regExps[i].copy();
+            }
+            return res;
+        }
     }
 
 
@@ -629,6 +1058,15 @@ public class Tokenizer {
          * @throws IOException if an I/O error occurred
          */
         public abstract int match(ReaderBuffer buffer) throws IOException;
+
+        /**
+         * Returns a copy of this regular expression handler. The
+         * copy shares the compiled regular expression, but has a
+         * separate matching state.
+         *
+         * @return the regular expression handler copy
+         */
+        public abstract RE copy();
     }
 
 
@@ -659,6 +1097,15 @@ public class Tokenizer {
             regExp = new RegExp(regex, ignoreCase);
         }
 
+        /**
+         * Creates a new Grammatica regular expression handler.
+         *
+         * @param regExp         the compiled regular expression
+         */
+        private GrammaticaRE(RegExp regExp) {
+            this.regExp = regExp;
+        }
+
         /**
          * Checks if the start of the input stream matches this
          * regular expression.
@@ -678,6 +1125,17 @@ public class Tokenizer {
             }
             return matcher.matchFromBeginning() ? matcher.length() : 0;
         }
+
+        /**
+         * Returns a copy of this regular expression handler. The
+         * copy shares the compiled regular expression, but has a
+         * separate matching state.
+         *
+         * @return the regular expression handler copy
+         */
+        public RE copy() {
+            return new GrammaticaRE(regExp);
+        }
     }
 
 
@@ -712,6 +1170,15 @@ public class Tokenizer {
             }
         }
 
+        /**
+         * Creates a new native regular expression handler.
+         *
+         * @param pattern        the compiled regular expression pattern
+         */
+        private JavaRE(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
         /**
          * Checks if the start of the input stream matches this
          * regular expression.
@@ -744,5 +1211,375 @@ public class Tokenizer {
             } while (c >= 0 && matcher.hitEnd());
             return match ? matcher.end() - matcher.start() : 0;
         }
+
+        /**
+         * Returns a copy of this regular expression handler. The
+         * copy shares the compiled regular expression, but has a
+         * separate matching state.
+         *
+         * @return the regular expression handler copy
+         */
+        public RE copy() {
+            return new JavaRE(pattern);
+        }
+    }
+
+
+    /**
+     * A token matching state. The matchers keep all intermediate
+     * state in the cursor, so separate cursors can be used to match
+     * tokens concurrently with the same matchers.
+     */
+    static class Cursor {
+
+        /**
+         * The last token match found.
+         */
+        public TokenMatch match = new TokenMatch();
+
+        /**
+         * The NFA state queue.
+         */
+        public TokenNFA.StateQueue queue = new TokenNFA.StateQueue();
+
+        /**
+         * The regular expression handlers, or null to use the ones
+         * in the regular expression matcher.
+         */
+        public RE[] regExps;
+
+        /**
+         * Creates a new token matching state.
+         *
+         * @param regExps        the regular expression handlers, or
+         *                       null for the matcher handlers
+         */
+        public Cursor(RE[] regExps) {
+            this.regExps = regExps;
+        }
+    }
+
+
+    /**
+     * An input chunk tokenizing task. The chunk is tokenized with a
+     * separate matching state, starting at a known input position.
+     */
+    private class Chunk implements Callable {
+
+        /**
+         * The complete input text.
+         */
+        private CharSequence input;
+
+        /**
+         * The character offset of the chunk start.
+         */
+        public int start;
+
+        /**
+         * The character offset of the chunk end.
+         */
+        public int end;
+
+        /**
+         * The line number of the chunk start.
+         */
+        public int line;
+
+        /**
+         * The column number of the chunk start.
+         */
+        public int column;
+
+        /**
+         * The token matching state.
+         */
+        public Cursor cursor = newCursor();
+
+        /**
+         * The tokens found, except ignored and error tokens.
+         */
+        public ArrayList tokens = new ArrayList();
+
+        /**
+         * The first token found, or null for none.
+         */
+        public Token first = null;
+
+        /**
+         * The last token found, or null for none.
+         */
+        public Token last = null;
+
+        /**
+         * The chunk error log.
+         */
+        public ParserLogException log = new ParserLogException();
+
+        /**
+         * The character offset of the last match.
+         */
+        public int lastOffset = 0;
+
+        /**
+         * The length of the last match, or zero (0) for an error.
+         */
+        public int lastLength = 0;
+
+        /**
+         * The cancelled flag. Set when the chunk result isn't needed.
+         */
+        public volatile boolean cancelled = false;
+
+        /**
+         * Creates a new input chunk tokenizing task.
+         *
+         * @param input          the complete input text
+         * @param start          the character offset of the start
+         * @param end            the character offset of the end
+         * @param line           the line number of the start
+         * @param column         the column number of the start
+         */
+        public Chunk(CharSequence input,
+                     int start,
+                     int end,
+                     int line,
+                     int column) {
+
+            this.input = input;
+            this.start = start;
+            this.end = end;
+            this.line = line;
+            this.column = column;
+        }
+
+        /**
+         * Tokenizes the chunk.
+         *
+         * @return this task
+         */
+        public Object call() {
+            ReaderBuffer  buffer;
+            Token         token;
+            int           offset;
+
+            buffer = new ReaderBuffer(new ChunkReader(input, start, end),
+                                      line,
+                                      column,
+                                      start);
+            while (!cancelled) {
+                offset = buffer.offset();
+                try {
+                    token = nextToken(buffer, cursor);
+                } catch (ParseException e) {
+                    log.addError(e);
+                    lastOffset = offset;
+                    lastLength = 0;
+                    continue;
+                }
+                if (token == null) {
+                    break;
+                }
+                lastOffset = offset;
+                lastLength = token.getImage().length();
+                if (useTokenList) {
+                    token.setPreviousToken(last);
+                }
+                if (first == null) {
+                    first = token;
+                }
+                last = token;
+                if (token.getPattern().isIgnore()) {
+                    // Ignored tokens are only kept in the token list
+                } else if (token.getPattern().isError()) {
+                    log.addError(new ParseException(
+                        ParseException.INVALID_TOKEN_ERROR,
+                        token.getPattern().getErrorMessage(),
+                        null,
+                        token.getStartLine(),
+                        token.getStartColumn(),
+                        token.getStartOffset()));
+                } else {
+                    tokens.add(token);
+                }
+            }
+            buffer.dispose();
+            return this;
+        }
+    }
+
+
+    /**
+     * A character sequence reader. This class reads the characters
+     * in a range of a character sequence.
+     */
+    private static class ChunkReader extends Reader {
+
+        /**
+         * The character sequence to read.
+         */
+        private CharSequence input;
+
+        /**
+         * The position of the next character to read.
+         */
+        private int pos;
+
+        /**
+         * The position following the last character to read.
+         */
+        private int end;
+
+        /**
+         * Creates a new character sequence reader.
+         *
+         * @param input          the character sequence to read
+         * @param start          the position of the first character
+         * @param end            the position following the last
+         *                       character
+         */
+        public ChunkReader(CharSequence input, int start, int end) {
+            this.input = input;
+            this.pos = start;
+            this.end = end;
+        }
+
+        /**
+         * Reads characters into an array.
+         *
+         * @param cbuf           the destination buffer
+         * @param off            the offset to start storing at
+         * @param len            the maximum number of characters
+         *
+         * @return the number of characters read, or
+         *         -1 if the end of the stream was reached
+         */
+        public int read(char[] cbuf, int off, int len) {
+            int  count = Math.min(len, end - pos);
+
+            if (count <= 0) {
+                return (len > 0) ? -1 : 0;
+            }
+            for (int i = 0; i < count; i++) {
+                cbuf[off + i] = input.charAt(pos++);
+            }
+            return count;
+        }
+
+        /**
+         * Closes the reader. This method does nothing.
+         */
+        public void close() {
+            // Nothing to close
+        }
+    }
+
+
+    /**
+     * An edited token list reader. This class reads the characters
+     * from the images in a list of tokens, with an edit applied. The
+     * token list must not have any gaps between the tokens.
+     */
+    private static class EditReader extends Reader {
+
+        /**
+         * The current token, or null if all tokens have been read.
+         */
+        private Token token;
+
+        /**
+         * The position of the next character in the token image.
+         */
+        private int pos = 0;
+
+        /**
+         * The character offset of the next character in the token
+         * list.
+         */
+        private int offset;
+
+        /**
+         * The character offset of the edit.
+         */
+        private int editStart;
+
+        /**
+         * The character offset following the deleted characters.
+         */
+        private int editEnd;
+
+        /**
+         * The inserted text.
+         */
+        private String text;
+
+        /**
+         * The position of the next character in the inserted text.
+         */
+        private int textPos = 0;
+
+        /**
+         * Creates a new edited token list reader.
+         *
+         * @param token          the first token to read
+         * @param offset         the character offset of the edit
+         * @param length         the number of characters deleted
+         * @param text           the text inserted
+         */
+        public EditReader(Token token, int offset, int length, String text) {
+            this.token = token;
+            this.offset = token.getStartOffset();
+            this.editStart = offset;
+            this.editEnd = offset + length;
+            this.text = text;
+        }
+
+        /**
+         * Reads characters into an array.
+         *
+         * @param cbuf           the destination buffer
+         * @param off            the offset to start storing at
+         * @param len            the maximum number of characters
+         *
+         * @return the number of characters read, or
+         *         -1 if the end of the stream was reached
+         *
+         * @throws IOException if the token list had a gap
+         */
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int    count = 0;
+            Token  next;
+            char   c;
+
+            while (count < len) {
+                if (offset == editStart && textPos < text.length()) {
+                    cbuf[off + count++] = text.charAt(textPos++);
+                } else if (token == null) {
+                    break;
+                } else if (pos >= token.getImage().length()) {
+                    next = token.getNextToken();
+                    if (next != null && next.getStartOffset() != offset) {
+                        throw new IOException("token list has a gap at " +
+                                              "offset " + offset);
+                    }
+                    token = next;
+                    pos = 0;
+                } else {
+                    c = token.getImage().charAt(pos++);
+                    if (offset < editStart || offset >= editEnd) {
+                        cbuf[off + count++] = c;
+                    }
+                    offset++;
+                }
+            }
+            return (count == 0 && len > 0) ? -1 : count;
+        }
+
+        /**
+         * Closes the reader. This method does nothing.
+         */
+        public void close() {
+            // Nothing to close
+        }
     }
 }
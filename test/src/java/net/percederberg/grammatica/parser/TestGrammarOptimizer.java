@@ -0,0 +1,377 @@
+/*
+ * TestGrammarOptimizer.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the GrammarOptimizer class.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ */
+public class TestGrammarOptimizer extends TestCase {
+
+    /**
+     * The add token constant.
+     */
+    private static final int ADD = 1001;
+
+    /**
+     * The left parenthesis token constant.
+     */
+    private static final int LEFT_PAREN = 1002;
+
+    /**
+     * The right parenthesis token constant.
+     */
+    private static final int RIGHT_PAREN = 1003;
+
+    /**
+     * The number token constant.
+     */
+    private static final int NUMBER = 1004;
+
+    /**
+     * The identifier token constant.
+     */
+    private static final int IDENTIFIER = 1005;
+
+    /**
+     * The whitespace token constant.
+     */
+    private static final int WHITESPACE = 1006;
+
+    /**
+     * The expression production constant.
+     */
+    private static final int EXPRESSION = 2001;
+
+    /**
+     * The factor production constant.
+     */
+    private static final int FACTOR = 2002;
+
+    /**
+     * The primary production constant.
+     */
+    private static final int PRIMARY = 2003;
+
+    /**
+     * The value production constant.
+     */
+    private static final int VALUE = 2004;
+
+    /**
+     * The atom production constant.
+     */
+    private static final int ATOM = 2005;
+
+    /**
+     * The unused production constant.
+     */
+    private static final int UNUSED = 2006;
+
+    /**
+     * The synthetic repetition production constant.
+     */
+    private static final int SUBPRODUCTION = 3001;
+
+    /**
+     * The test input string.
+     */
+    private static final String INPUT = "1 + (a + (2)) + b";
+
+    /**
+     * Tests that the parse tree is unchanged when the production ids
+     * are preserved.
+     */
+    public void testPreserveIds() {
+        String  expected = printTree(parse(createParser(false, false)));
+
+        assertEquals("parse tree", expected,
+                     printTree(parse(createParser(false, true))));
+        assertEquals("parse tree", expected,
+                     printTree(parse(createParser(true, true))));
+    }
+
+    /**
+     * Tests building an array-backed parse tree with an optimized
+     * grammar. The collapsed production nodes must be resolved to
+     * their production patterns.
+     */
+    public void testFlatTree() {
+        String                  expected;
+        RecursiveDescentParser  parser;
+        FlatTree                tree;
+
+        expected = printTree(parse(createParser(false, false)));
+        for (int i = 0; i < 2; i++) {
+            parser = createParser(i > 0, true);
+            tree = new FlatTree(parser, INPUT);
+            try {
+                parser.parse(tree);
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            } catch (ParserLogException e) {
+                fail(e.getMessage());
+            }
+            assertEquals("parse tree", expected, printTree(tree.getRoot()));
+        }
+    }
+
+    /**
+     * Tests that productions are collapsed and inlined when the
+     * production ids aren't preserved.
+     */
+    public void testInlining() {
+        RecursiveDescentParser  parser;
+        String                  tree;
+
+        parser = createParser(true, true);
+        parser.setPreserveProductionIds(false);
+        tree = printTree(parse(parser));
+        assertTrue("factor in tree", tree.indexOf("Factor(" + FACTOR) >= 0);
+        assertTrue("primary in tree", tree.indexOf("Primary") < 0);
+        assertTrue("value in tree", tree.indexOf("Value") < 0);
+        assertTrue("atom in tree", tree.indexOf("Atom") < 0);
+        assertEquals("pattern count", 3, parser.getPatterns().size());
+    }
+
+    /**
+     * Tests that unreachable and collapsed productions are removed.
+     */
+    public void testUnreachable() {
+        RecursiveDescentParser  parser = createParser(false, true);
+
+        parse(parser);
+        assertNull("unused pattern", parser.getPattern(UNUSED));
+        assertNull("primary pattern", parser.getPattern(PRIMARY));
+        assertNotNull("atom pattern", parser.getPattern(ATOM));
+    }
+
+    /**
+     * Tests that identical alternatives created by inlining token
+     * sequences are reported as ambiguous, as they were without the
+     * optimizer.
+     */
+    public void testMergeAlternatives() {
+        RecursiveDescentParser        parser;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        parser = new RecursiveDescentParser(createTokenizer("1"));
+        try {
+            pattern = new ProductionPattern(EXPRESSION, "Expression");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(PRIMARY, 1, 1);
+            pattern.addAlternative(alt);
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(VALUE, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(PRIMARY, "Primary");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(NUMBER, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(VALUE, "Value");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(NUMBER, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        try {
+            parser.prepare();
+            fail("ambiguous grammar prepared");
+        } catch (ParserCreationException e) {
+            // Expected
+        }
+        parser.setOptimizeGrammar(true);
+        parser.setPreserveProductionIds(false);
+        try {
+            parser.prepare();
+            fail("ambiguous optimized grammar prepared");
+        } catch (ParserCreationException e) {
+            assertEquals("error type",
+                         ParserCreationException.INHERENT_AMBIGUITY_ERROR,
+                         e.getErrorType());
+            assertEquals("production name", "Expression", e.getName());
+        }
+    }
+
+    /**
+     * Parses the input and reports a test failure if it failed.
+     *
+     * @param parser         the parser to use
+     *
+     * @return the parse tree
+     */
+    private Node parse(Parser parser) {
+        try {
+            return parser.parse();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        return null; // Unreachable
+    }
+
+    /**
+     * Returns a string representation of a parse tree.
+     *
+     * @param node           the parse tree root node
+     *
+     * @return the string representation of the tree
+     */
+    private String printTree(Node node) {
+        StringWriter  output = new StringWriter();
+
+        node.printTo(new PrintWriter(output));
+        return output.toString();
+    }
+
+    /**
+     * Creates a new parser for the test grammar.
+     *
+     * @param table          the table-driven parser flag
+     * @param optimize       the grammar optimization flag
+     *
+     * @return the parser created
+     */
+    private RecursiveDescentParser createParser(boolean table,
+                                                boolean optimize) {
+
+        RecursiveDescentParser  parser;
+
+        if (table) {
+            parser = new TableDrivenParser(createTokenizer(INPUT));
+        } else {
+            parser = new RecursiveDescentParser(createTokenizer(INPUT));
+        }
+        parser.setOptimizeGrammar(optimize);
+        addPatterns(parser);
+        return parser;
+    }
+
+    /**
+     * Creates a new tokenizer for the test grammar.
+     *
+     * @param input          the input to tokenize
+     *
+     * @return the tokenizer created
+     */
+    private Tokenizer createTokenizer(String input) {
+        Tokenizer     tokenizer = new Tokenizer(new StringReader(input));
+        TokenPattern  pattern;
+
+        try {
+            tokenizer.addPattern(new TokenPattern(ADD, "ADD",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "+"));
+            tokenizer.addPattern(new TokenPattern(LEFT_PAREN, "LEFT_PAREN",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "("));
+            tokenizer.addPattern(new TokenPattern(RIGHT_PAREN, "RIGHT_PAREN",
+                                                  TokenPattern.STRING_TYPE,
+                                                  ")"));
+            tokenizer.addPattern(new TokenPattern(NUMBER, "NUMBER",
+                                                  TokenPattern.REGEXP_TYPE,
+                                                  "[0-9]+"));
+            tokenizer.addPattern(new TokenPattern(IDENTIFIER, "IDENTIFIER",
+                                                  TokenPattern.REGEXP_TYPE,
+                                                  "[a-z]+"));
+            pattern = new TokenPattern(WHITESPACE, "WHITESPACE",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "[ \\t\\n]+");
+            pattern.setIgnore();
+            tokenizer.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Adds the test grammar production patterns to a parser. The
+     * grammar is "Expression = Factor ("+" Factor)*", "Factor =
+     * Primary | "(" Expression ")"", "Primary = Value", "Value =
+     * Atom", "Atom = NUMBER | IDENTIFIER" and "Unused = NUMBER".
+     *
+     * @param parser         the parser to add the patterns to
+     */
+    private void addPatterns(Parser parser) {
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        try {
+            pattern = new ProductionPattern(EXPRESSION, "Expression");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(FACTOR, 1, 1);
+            alt.addProduction(SUBPRODUCTION, 0, -1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(FACTOR, "Factor");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(PRIMARY, 1, 1);
+            pattern.addAlternative(alt);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(LEFT_PAREN, 1, 1);
+            alt.addProduction(EXPRESSION, 1, 1);
+            alt.addToken(RIGHT_PAREN, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(PRIMARY, "Primary");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(VALUE, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(VALUE, "Value");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(ATOM, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(ATOM, "Atom");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(NUMBER, 1, 1);
+            pattern.addAlternative(alt);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(IDENTIFIER, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(UNUSED, "Unused");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(NUMBER, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(SUBPRODUCTION, "Subproduction1");
+            pattern.setSynthetic(true);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(ADD, 1, 1);
+            alt.addProduction(FACTOR, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+    }
+}
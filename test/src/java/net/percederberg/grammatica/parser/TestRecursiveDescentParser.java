@@ -14,13 +14,15 @@
 
 package net.percederberg.grammatica.parser;
 
+import java.io.StringReader;
+
 import junit.framework.TestCase;
 
 /**
  * A test case for the RecursiveDescentParser class.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.6
  */
 public class TestRecursiveDescentParser extends TestCase {
 
@@ -465,6 +467,304 @@ public class TestRecursiveDescentParser extends TestCase {
         prepareParser(parser);
     }
 
+    /**
+     * Tests parsing a long right-recursive list.
+     */
+    public void testRightRecursiveParsing() {
+        Parser        parser;
+        StringBuffer  buffer = new StringBuffer();
+        Node          node;
+        int           depth = 0;
+
+        for (int i = 0; i < 100000; i++) {
+            buffer.append("a ");
+        }
+        parser = createListParser(buffer.toString(), false);
+        node = parse(parser);
+        while (node != null) {
+            assertEquals("node id", P1, node.getId());
+            assertEquals("token id", T1, node.getChildAt(0).getId());
+            node = node.getChildAt(1);
+            depth++;
+        }
+        assertEquals("list depth", 100000, depth);
+    }
+
+    /**
+     * Tests adding and removing a child node at the bottom of a very
+     * deep parse tree. The ancestor spans and descendant counts must
+     * be updated without exhausting the call stack.
+     */
+    public void testDeepTreeUpdate() {
+        StringBuffer  buffer = new StringBuffer();
+        Production    root;
+        Production    node;
+        Token         token;
+        int           count;
+        int           column;
+
+        for (int i = 0; i < 100000; i++) {
+            buffer.append("a ");
+        }
+        root = (Production) parse(createListParser(buffer.toString(), false));
+        count = root.getDescendantCount();
+        column = root.getEndColumn();
+        node = root;
+        while (node.getChildCount() > 1) {
+            node = (Production) node.getChildAt(1);
+        }
+        token = new Token(new TokenPattern(T1,
+                                           "T1",
+                                           TokenPattern.STRING_TYPE,
+                                           "a"),
+                          "a",
+                          1,
+                          200001);
+        token.setStartOffset(200000);
+        node.addChild(token);
+        assertEquals("descendant count", count + 1,
+                     root.getDescendantCount());
+        assertEquals("end column", 200001, root.getEndColumn());
+        assertEquals("end offset", 200001, root.getEndOffset());
+        assertEquals("start offset", 0, root.getStartOffset());
+        node.removeChild(token);
+        assertEquals("descendant count", count, root.getDescendantCount());
+        assertEquals("end column", column, root.getEndColumn());
+    }
+
+    /**
+     * Tests parsing a right-recursive list with flattening.
+     */
+    public void testFlattenRightRecursion() {
+        Parser  parser;
+        Node    node;
+
+        parser = createListParser("a a a a", true);
+        node = parse(parser);
+        assertEquals("child count", 4, node.getChildCount());
+        assertEquals("descendant count", 4, node.getDescendantCount());
+        parser = new TableDrivenParser(createListTokenizer("a a a a"));
+        ((RecursiveDescentParser) parser).setFlattenRightRecursion(true);
+        addListPatterns(parser);
+        node = parse(parser);
+        assertEquals("child count", 4, node.getChildCount());
+        assertEquals("descendant count", 4, node.getDescendantCount());
+    }
+
+    /**
+     * Tests analyzing a parse tree after creation.
+     */
+    public void testAnalyze() {
+        CallRecorder  analyzer = new CallRecorder();
+        StringBuffer  buffer = new StringBuffer();
+        Node          node;
+
+        node = parse(createListParser("a a", false));
+        try {
+            analyzer.analyze(node);
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        assertEquals("callbacks",
+                     "enter:P1 enter:T1 exit:T1 child:P1 " +
+                     "enter:P1 enter:T1 exit:T1 child:P1 " +
+                     "exit:P1 child:P1 exit:P1 ",
+                     analyzer.buffer.toString());
+        analyzer = new CallRecorder();
+        node.addValue("value");
+        try {
+            assertSame("in-place result", node, analyzer.analyzeInPlace(node));
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        assertEquals("in-place callbacks",
+                     "enter:P1 enter:T1 exit:T1 child:P1 " +
+                     "enter:P1 enter:T1 exit:T1 child:P1 " +
+                     "exit:P1 child:P1 exit:P1 ",
+                     analyzer.buffer.toString());
+        assertEquals("value count", 0, node.getValueCount());
+        assertEquals("descendant count", 3, node.getDescendantCount());
+        assertSame("child parent", node, node.getChildAt(1).getParent());
+        analyzer = new CallRecorder();
+        analyzer.failExit = true;
+        try {
+            analyzer.analyze(node);
+            fail("analysis of tree with errors succeeded");
+        } catch (ParserLogException e) {
+            assertEquals("error count", 2, e.getErrorCount());
+        }
+        for (int i = 0; i < 100000; i++) {
+            buffer.append("a ");
+        }
+        node = parse(createListParser(buffer.toString(), false));
+        try {
+            node = new Analyzer().analyze(node);
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        assertEquals("descendant count", 199999, node.getDescendantCount());
+    }
+
+    /**
+     * Tests the stored production position spans.
+     */
+    public void testProductionSpans() {
+        Parser        parser;
+        StringBuffer  buffer = new StringBuffer();
+        Node          node;
+
+        parser = createListParser("a  a a", false);
+        node = parse(parser);
+        assertEquals("start line", 1, node.getStartLine());
+        assertEquals("start column", 1, node.getStartColumn());
+        assertEquals("end line", 1, node.getEndLine());
+        assertEquals("end column", 6, node.getEndColumn());
+        assertEquals("start offset", 0, node.getStartOffset());
+        assertEquals("end offset", 6, node.getEndOffset());
+        assertEquals("descendant count", 5, node.getDescendantCount());
+        node = node.getChildAt(1);
+        assertEquals("start column", 4, node.getStartColumn());
+        assertEquals("start offset", 3, node.getStartOffset());
+        assertEquals("descendant count", 3, node.getDescendantCount());
+        for (int i = 0; i < 100000; i++) {
+            buffer.append("a ");
+        }
+        parser = createListParser(buffer.toString(), false);
+        node = parse(parser);
+        assertEquals("end column", 199999, node.getEndColumn());
+        assertEquals("end offset", 199999, node.getEndOffset());
+        assertEquals("descendant count", 199999, node.getDescendantCount());
+    }
+
+    /**
+     * Tests flattening indirect right recursion with both the
+     * recursive descent and the table-driven parser.
+     */
+    public void testFlattenIndirectRecursion() {
+        StringBuffer            buffer = new StringBuffer("a");
+        Tokenizer               tokenizer;
+        RecursiveDescentParser  parser;
+        Node                    node;
+
+        for (int i = 0; i < 50000; i++) {
+            buffer.append(" a a");
+        }
+        for (int i = 0; i < 2; i++) {
+            tokenizer = createListTokenizer(buffer.toString());
+            if (i == 0) {
+                parser = new RecursiveDescentParser(tokenizer);
+            } else {
+                parser = new TableDrivenParser(tokenizer);
+            }
+            parser.setFlattenRightRecursion(true);
+            addCyclePatterns(parser);
+            node = parse(parser);
+            assertEquals("node id", P1, node.getId());
+            assertEquals("child count", 100001, node.getChildCount());
+            assertEquals("descendant count", 150001,
+                         node.getDescendantCount());
+            node = node.getChildAt(99999);
+            assertEquals("node id", P2, node.getId());
+            assertEquals("child count", 1, node.getChildCount());
+            assertEquals("end column", 199999, node.getEndColumn());
+        }
+    }
+
+    /**
+     * Creates a new parser for a right-recursive list grammar, i.e.
+     * "P1 = T1 [P1]", where T1 is the string "a".
+     *
+     * @param input          the input to parse
+     * @param flatten        the right recursion flattening flag
+     *
+     * @return a new parser
+     */
+    private Parser createListParser(String input, boolean flatten) {
+        RecursiveDescentParser  parser;
+
+        parser = new RecursiveDescentParser(createListTokenizer(input));
+        parser.setFlattenRightRecursion(flatten);
+        addListPatterns(parser);
+        return parser;
+    }
+
+    /**
+     * Creates a new tokenizer for the right-recursive list grammar.
+     *
+     * @param input          the input to tokenize
+     *
+     * @return a new tokenizer
+     */
+    private Tokenizer createListTokenizer(String input) {
+        Tokenizer     tokenizer = new Tokenizer(new StringReader(input));
+        TokenPattern  token;
+
+        try {
+            token = new TokenPattern(T1, "T1", TokenPattern.STRING_TYPE, "a");
+            tokenizer.addPattern(token);
+            token = new TokenPattern(T2, "T2", TokenPattern.STRING_TYPE, " ");
+            token.setIgnore();
+            tokenizer.addPattern(token);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Adds the right-recursive list grammar patterns to a parser.
+     *
+     * @param parser         the parser to add the patterns to
+     */
+    private void addListPatterns(Parser parser) {
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addProduction(P1, 0, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+    }
+
+    /**
+     * Adds an indirectly right-recursive list grammar to a parser,
+     * i.e. "P1 = T1 [P2]" and "P2 = T1 P1".
+     *
+     * @param parser         the parser to add the patterns to
+     */
+    private void addCyclePatterns(Parser parser) {
+        pattern = new ProductionPattern(P1, "P1");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addProduction(P2, 0, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+        pattern = new ProductionPattern(P2, "P2");
+        alt = new ProductionPatternAlternative();
+        alt.addToken(T1, 1, 1);
+        alt.addProduction(P1, 1, 1);
+        addAlternative(pattern, alt);
+        addPattern(parser, pattern);
+    }
+
+    /**
+     * Parses the parser input and reports a test failure if it
+     * failed.
+     *
+     * @param parser         the parser to use
+     *
+     * @return the parse tree
+     */
+    private Node parse(Parser parser) {
+        try {
+            return parser.parse();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        return null; // Unreachable
+    }
+
     /**
      * Creates a new parser.
      *
@@ -550,4 +850,66 @@ public class TestRecursiveDescentParser extends TestCase {
                  ": " + e.getMessage());
         }
     }
+
+
+    /**
+     * An analyzer that records all callbacks.
+     */
+    private class CallRecorder extends Analyzer {
+
+        /**
+         * The recorded callbacks.
+         */
+        public StringBuffer buffer = new StringBuffer();
+
+        /**
+         * The exit failure flag. If set, all exit() callbacks will
+         * throw an exception.
+         */
+        public boolean failExit = false;
+
+        /**
+         * Records an enter() callback.
+         *
+         * @param node           the node being entered
+         */
+        protected void enter(Node node) {
+            buffer.append("enter:" + node.getName() + " ");
+        }
+
+        /**
+         * Records an exit() callback.
+         *
+         * @param node           the node being exited
+         *
+         * @return the node to add to the parse tree
+         *
+         * @throws ParseException if the exit failure flag was set
+         */
+        protected Node exit(Node node) throws ParseException {
+            buffer.append("exit:" + node.getName() + " ");
+            if (failExit) {
+                throw new ParseException(ParseException.ANALYSIS_ERROR,
+                                         "exit failed",
+                                         node.getStartLine(),
+                                         node.getStartColumn());
+            }
+            return node;
+        }
+
+        /**
+         * Records a child() callback.
+         *
+         * @param node           the parent node
+         * @param child          the child node, or null
+         *
+         * @throws ParseException if the node analysis discovered errors
+         */
+        protected void child(Production node, Node child)
+            throws ParseException {
+
+            buffer.append("child:" + node.getName() + " ");
+            super.child(node, child);
+        }
+    }
 }
@@ -0,0 +1,1414 @@
+/*
+ * TestTableDrivenParser.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the TableDrivenParser class.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ */
+public class TestTableDrivenParser extends TestCase {
+
+    /**
+     * The add token constant.
+     */
+    private static final int ADD = 1001;
+
+    /**
+     * The multiply token constant.
+     */
+    private static final int MUL = 1002;
+
+    /**
+     * The left parenthesis token constant.
+     */
+    private static final int LEFT_PAREN = 1003;
+
+    /**
+     * The right parenthesis token constant.
+     */
+    private static final int RIGHT_PAREN = 1004;
+
+    /**
+     * The number token constant.
+     */
+    private static final int NUMBER = 1005;
+
+    /**
+     * The whitespace token constant.
+     */
+    private static final int WHITESPACE = 1006;
+
+    /**
+     * The semicolon token constant.
+     */
+    private static final int SEMICOLON = 1007;
+
+    /**
+     * The expression production constant.
+     */
+    private static final int EXPRESSION = 2001;
+
+    /**
+     * The term production constant.
+     */
+    private static final int TERM = 2002;
+
+    /**
+     * The factor production constant.
+     */
+    private static final int FACTOR = 2003;
+
+    /**
+     * The file production constant.
+     */
+    private static final int FILE = 2004;
+
+    /**
+     * The statement production constant.
+     */
+    private static final int STATEMENT = 2005;
+
+    /**
+     * The synthetic repetition production constant.
+     */
+    private static final int SUBPRODUCTION = 3001;
+
+    /**
+     * Tests parsing a valid input string.
+     */
+    public void testValidInput() {
+        String  input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+
+        assertEquals("parse tree",
+                     printTree(parse(createRecursiveParser(input))),
+                     printTree(parse(createTableParser(input))));
+    }
+
+    /**
+     * Tests parsing an input string with errors.
+     */
+    public void testInvalidInput() {
+        String  input = "1 + * 2 (3 + 4";
+
+        assertEquals("parse errors",
+                     failParse(createRecursiveParser(input)),
+                     failParse(createTableParser(input)));
+        input = "1 + 2 3 ) + 4";
+        assertEquals("parse errors",
+                     failParse(createRecursiveParser(input)),
+                     failParse(createTableParser(input)));
+    }
+
+    /**
+     * Tests parsing a deeply nested input string.
+     */
+    public void testDeepNesting() {
+        StringBuffer  buffer = new StringBuffer();
+        Node          node;
+        int           depth = 0;
+
+        for (int i = 0; i < 50000; i++) {
+            buffer.append("(");
+        }
+        buffer.append("1");
+        for (int i = 0; i < 50000; i++) {
+            buffer.append(")");
+        }
+        node = parse(createTableParser(buffer.toString()));
+        while (node.getChildCount() > 0) {
+            if (node.getId() == FACTOR) {
+                depth++;
+            }
+            node = node.getChildAt(node.getChildCount() > 1 ? 1 : 0);
+        }
+        assertEquals("nesting depth", 50001, depth);
+    }
+
+    /**
+     * Tests building an array-backed parse tree from parse events.
+     */
+    public void testFlatTree() {
+        String                  input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        RecursiveDescentParser  parser = createRecursiveParser(input);
+        FlatTree                tree = new FlatTree(parser, input);
+        String                  expected;
+        Node                    root;
+
+        expected = printTree(parse(createRecursiveParser(input)));
+        try {
+            parser.parse(tree);
+            assertEquals("parse tree", expected, printTree(tree.getRoot()));
+            root = new Analyzer().analyze(tree.getRoot());
+            assertEquals("analyzed tree", expected, printTree(root));
+            assertEquals("node count",
+                         root.getDescendantCount() + 1,
+                         tree.getNodeCount());
+            assertEquals("root length", input.length(), tree.getLength(0));
+            assertEquals("first child", 1, tree.getFirstChild(0));
+            assertEquals("first child id", TERM, tree.getId(1));
+            assertTrue("first token", tree.isToken(3));
+            assertEquals("first token id", NUMBER, tree.getId(3));
+            assertEquals("first token parent", 2, tree.getParent(3));
+            parser.getTokenizer().reset(new StringReader("8"));
+            parser.parse(tree);
+            assertEquals("node count", 4, tree.getNodeCount());
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests filling a node index while parsing.
+     */
+    public void testNodeIndex() {
+        String                  input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        RecursiveDescentParser  parser = createRecursiveParser(input);
+        FlatTree                tree = new FlatTree(parser, input);
+        NodeIndex               index = new NodeIndex();
+        Node[]                  nodes;
+        int[]                   indices;
+
+        parser.setNodeIndex(index);
+        parse(parser);
+        nodes = index.getNodes(EXPRESSION);
+        assertEquals("expression count", 4, nodes.length);
+        assertEquals("first offset", 0, nodes[0].getStartOffset());
+        assertEquals("second offset", 9, nodes[1].getStartOffset());
+        assertEquals("third offset", 27, nodes[2].getStartOffset());
+        assertEquals("fourth offset", 28, nodes[3].getStartOffset());
+        assertEquals("number count", 7, index.getCount(NUMBER));
+        assertEquals("subproduction count", 0, index.getCount(SUBPRODUCTION));
+        parser = createRecursiveParser(input);
+        index = new NodeIndex();
+        tree.setNodeIndex(index);
+        try {
+            parser.parse(tree);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        indices = index.getNodeIndices(EXPRESSION);
+        assertEquals("expression count", 4, indices.length);
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals("expression id", EXPRESSION, tree.getId(indices[i]));
+            assertEquals("expression offset",
+                         nodes[i].getStartOffset(),
+                         tree.getOffset(indices[i]));
+        }
+        assertEquals("number count", 7, index.getNodeIndices(NUMBER).length);
+    }
+
+    /**
+     * Tests reusing a node index for several parses with deeply
+     * nested input.
+     */
+    public void testNodeIndexReuse() {
+        StringBuffer            buffer = new StringBuffer();
+        String                  input;
+        RecursiveDescentParser  parser;
+        NodeIndex               index = new NodeIndex();
+
+        for (int i = 0; i < 40; i++) {
+            buffer.append("(");
+        }
+        buffer.append("1");
+        for (int i = 0; i < 40; i++) {
+            buffer.append(")");
+        }
+        input = buffer.toString();
+        for (int i = 0; i < 2; i++) {
+            parser = createRecursiveParser(input);
+            parser.setNodeIndex(index);
+            parse(parser);
+            assertEquals("expression count", 41, index.getCount(EXPRESSION));
+            assertEquals("number count", 1, index.getCount(NUMBER));
+        }
+    }
+
+    /**
+     * Tests expanding lazy productions concurrently from several
+     * threads.
+     */
+    public void testLazyThreads() {
+        StringBuffer    buffer = new StringBuffer("1");
+        String          input;
+        String          expected;
+        Parser          parser;
+        Node            root;
+        ArrayList       list = new ArrayList();
+        Thread[]        threads = new Thread[4];
+        final Node[]    nodes;
+        final String[]  failure = new String[1];
+
+        for (int i = 0; i < 200; i++) {
+            buffer.append(" + (" + i + " * (2 + 3))");
+        }
+        input = buffer.toString();
+        expected = printTree(parse(createTableParser(input)));
+        parser = createRecursiveParser(input);
+        try {
+            parser.setLazy(FACTOR, true);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        root = parse(parser);
+        findLazy(root, list);
+        assertEquals("lazy count", 200, list.size());
+        nodes = (Node[]) list.toArray(new Node[list.size()]);
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < nodes.length; j++) {
+                            ((LazyProduction) nodes[j]).expand();
+                        }
+                    } catch (ParserLogException e) {
+                        failure[0] = e.getMessage();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                fail(e.getMessage());
+            }
+        }
+        assertNull("expansion error", failure[0]);
+        assertEquals("parse tree", expected, printTree(root));
+        assertEquals("descendant count",
+                     parse(createTableParser(input)).getDescendantCount(),
+                     root.getDescendantCount());
+    }
+
+    /**
+     * Finds all unexpanded lazy productions in a parse tree, without
+     * expanding them.
+     *
+     * @param node           the parse tree node
+     * @param list           the list of lazy productions found
+     */
+    private void findLazy(Node node, ArrayList list) {
+        if (node instanceof LazyProduction
+         && !((LazyProduction) node).isExpanded()) {
+
+            list.add(node);
+            return;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            findLazy(node.getChildAt(i), list);
+        }
+    }
+
+    /**
+     * Tests keeping only some of the nodes in the parse tree.
+     */
+    public void testKeptIds() {
+        String  input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        int[]   ids = { FACTOR, NUMBER };
+        Parser  parser;
+        Node    root;
+
+        for (int i = 0; i < 2; i++) {
+            if (i == 0) {
+                parser = createRecursiveParser(input);
+            } else {
+                parser = createTableParser(input);
+            }
+            parser.setKeptIds(ids);
+            root = parse(parser);
+            assertEquals("root id", EXPRESSION, root.getId());
+            assertEquals("root child count", 5, root.getChildCount());
+            assertEquals("descendant count", 17, root.getDescendantCount());
+            assertEquals("nested count", 3,
+                         root.getChildAt(2).getChildCount());
+            assertEquals("nested id", FACTOR,
+                         root.getChildAt(2).getChildAt(0).getId());
+            assertSame("nested parent", root.getChildAt(2),
+                       root.getChildAt(2).getChildAt(0).getParent());
+            assertEquals("end offset", input.length() - 2,
+                         root.getEndOffset());
+        }
+        parser = createTableParser("1 + (2 * 3");
+        parser.setKeptIds(ids);
+        failParse(parser);
+    }
+
+    /**
+     * Tests skipping lazy production regions while parsing.
+     */
+    public void testLazy() {
+        String          input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        String          expected;
+        Parser          parser;
+        Node            root;
+        LazyProduction  lazy;
+        CallRecorder    recorder;
+
+        expected = printTree(parse(createTableParser(input)));
+        for (int i = 0; i < 2; i++) {
+            if (i == 0) {
+                parser = createRecursiveParser(input);
+            } else {
+                parser = createTableParser(input);
+            }
+            try {
+                parser.setLazy(FACTOR, true);
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            }
+            root = parse(parser);
+            lazy = (LazyProduction) root.getChildAt(2).getChildAt(2);
+            assertFalse("expanded", lazy.isExpanded());
+            assertEquals("start offset", 8, lazy.getStartOffset());
+            assertEquals("end offset", 19, lazy.getEndOffset());
+            assertEquals("end column", 19, lazy.getEndColumn());
+            recorder = new CallRecorder();
+            try {
+                lazy.expand(recorder);
+            } catch (ParserLogException e) {
+                fail(e.getMessage());
+            }
+            assertTrue("region callbacks",
+                       recorder.buffer.toString().startsWith(
+                           "enter Factor enter Expression "));
+            assertEquals("parse tree", expected, printTree(root));
+            assertTrue("expanded", lazy.isExpanded());
+            assertEquals("descendant count",
+                         parse(createTableParser(input)).getDescendantCount(),
+                         root.getDescendantCount());
+        }
+        parser = createTableParser("1 + (2 * )");
+        try {
+            parser.setLazy(FACTOR, true);
+            lazy = (LazyProduction) parser.parse().getChildAt(2).getChildAt(0);
+            assertEquals("child count", 0, lazy.getChildCount());
+            lazy.expand();
+            fail("region parsing succeeded");
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            assertEquals("error count", 1, e.getErrorCount());
+            assertEquals("error column", 10, e.getError(0).getColumn());
+        }
+        try {
+            createTableParser(input).setLazy(TERM, true);
+            fail("non-delimited lazy production accepted");
+        } catch (ParserCreationException e) {
+            // Expected
+        }
+        for (int i = 0; i < 2; i++) {
+            try {
+                createLazyParser(i == 1).prepare();
+                fail("lazy production with delimiter reference accepted");
+            } catch (ParserCreationException e) {
+                assertEquals("error type",
+                             ParserCreationException.INVALID_PRODUCTION_ERROR,
+                             e.getErrorType());
+            }
+        }
+    }
+
+    /**
+     * Creates a parser with a lazy production having an alternative
+     * starting with the opening delimiter through a production
+     * reference. The grammar is "Factor = "(" NUMBER ")" | Pair" and
+     * "Pair = "(" ";" ")"".
+     *
+     * @param table          the table-driven parser flag
+     *
+     * @return the parser created
+     */
+    private RecursiveDescentParser createLazyParser(boolean table) {
+        RecursiveDescentParser        parser;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        if (table) {
+            parser = new TableDrivenParser(createTokenizer("( ; )"));
+        } else {
+            parser = new RecursiveDescentParser(createTokenizer("( ; )"));
+        }
+        try {
+            pattern = new ProductionPattern(FACTOR, "Factor");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(LEFT_PAREN, 1, 1);
+            alt.addToken(NUMBER, 1, 1);
+            alt.addToken(RIGHT_PAREN, 1, 1);
+            pattern.addAlternative(alt);
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(SUBPRODUCTION, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(SUBPRODUCTION, "Pair");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(LEFT_PAREN, 1, 1);
+            alt.addToken(SEMICOLON, 1, 1);
+            alt.addToken(RIGHT_PAREN, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            parser.setLazy(FACTOR, true);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return parser;
+    }
+
+    /**
+     * Tests parsing an edited token list again.
+     */
+    public void testReparse() {
+        String                  input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        String                  edited;
+        RecursiveDescentParser  parser;
+        Tokenizer               tokenizer;
+        Node                    root;
+        Node                    factor;
+        TokenRange              range;
+
+        for (int i = 0; i < 2; i++) {
+            edited = "1 + 2 * (3 + 42 * 5) * 6\n+ ((7))";
+            if (i == 0) {
+                parser = createRecursiveParser(input);
+            } else {
+                parser = (RecursiveDescentParser) createTableParser(input);
+            }
+            tokenizer = parser.getTokenizer();
+            tokenizer.setUseTokenList(true);
+            root = parse(parser);
+            factor = root.getChildAt(2).getChildAt(2);
+            range = tokenizer.retokenize(findFirstToken(root), 13, 1, "42");
+            assertSame("root", root, reparse(parser, root, range));
+            assertSame("factor", factor, root.getChildAt(2).getChildAt(2));
+            assertEquals("parse tree",
+                         printTree(parse(createTableParser(edited))),
+                         printTree(root));
+            assertEquals("descendant count",
+                         parse(createTableParser(edited)).getDescendantCount(),
+                         root.getDescendantCount());
+            assertEquals("end column", 24, root.getChildAt(2).getEndColumn());
+            assertEquals("end offset", edited.length(), root.getEndOffset());
+            range = tokenizer.retokenize(findFirstToken(root), 0, 1, "8");
+            root = reparse(parser, root, range);
+            edited = "8" + edited.substring(1);
+            assertEquals("parse tree",
+                         printTree(parse(createTableParser(edited))),
+                         printTree(root));
+            range = tokenizer.retokenize(findFirstToken(root), 13, 2, "");
+            edited = edited.substring(0, 13) + edited.substring(15);
+            try {
+                parser.reparse(root, range);
+                fail("parsing succeeded");
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            } catch (ParserLogException e) {
+                assertEquals("error log",
+                             failParse(createTableParser(edited)),
+                             e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Tests the node positions after parsing an edited token list
+     * again. The edit adds a line to the first statement, so the
+     * positions of all following statements are moved.
+     */
+    public void testReparseSpans() {
+        StringBuffer            buffer = new StringBuffer();
+        String                  input;
+        String                  edited;
+        RecursiveDescentParser  parser;
+        Tokenizer               tokenizer;
+        Node                    root;
+        Node                    statement;
+        TokenRange              range;
+
+        for (int i = 0; i < 100; i++) {
+            buffer.append("1 + (2 * " + i + ");\n");
+        }
+        input = buffer.toString();
+        edited = input.substring(0, 5) + "42 *\n5" + input.substring(6);
+        for (int i = 0; i < 2; i++) {
+            parser = createStatementParser(input, null, i == 1);
+            tokenizer = parser.getTokenizer();
+            tokenizer.setUseTokenList(true);
+            root = parse(parser);
+            statement = root.getChildAt(50);
+            range = tokenizer.retokenize(findFirstToken(root), 5, 1, "42 *\n5");
+            assertSame("root", root, reparse(parser, root, range));
+            assertSame("statement", statement, root.getChildAt(50));
+            assertEquals("node spans",
+                         printSpans(parse(createStatementParser(edited,
+                                                                null,
+                                                                false))),
+                         printSpans(root));
+            assertEquals("descendant count",
+                         parse(createStatementParser(edited, null, false))
+                             .getDescendantCount(),
+                         root.getDescendantCount());
+        }
+    }
+
+    /**
+     * Parses an edited token list again and reports a test failure
+     * if it failed.
+     *
+     * @param parser         the parser to use
+     * @param root           the previous parse tree root node
+     * @param range          the range of changed tokens
+     *
+     * @return the new parse tree root node
+     */
+    private Node reparse(RecursiveDescentParser parser,
+                         Node root,
+                         TokenRange range) {
+
+        try {
+            return parser.reparse(root, range);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        return null; // Unreachable
+    }
+
+    /**
+     * Returns the first token in a parse tree.
+     *
+     * @param node           the parse tree node
+     *
+     * @return the first token in the parse tree
+     */
+    private Token findFirstToken(Node node) {
+        while (!(node instanceof Token)) {
+            node = node.getChildAt(0);
+        }
+        return (Token) node;
+    }
+
+    /**
+     * Tests building an off-heap parse tree spilled to a file.
+     */
+    public void testOffHeapTree() {
+        StringBuffer            buffer = new StringBuffer();
+        String                  input;
+        RecursiveDescentParser  parser;
+        OffHeapTree             tree;
+        String                  expected;
+
+        for (int i = 0; i < 10000; i++) {
+            buffer.append(i + " * (" + i + " + 1) + ");
+        }
+        buffer.append("1");
+        input = buffer.toString();
+        parser = createRecursiveParser(input);
+        tree = new OffHeapTree(parser, input, 2000000);
+        expected = printTree(parse(createRecursiveParser(input)));
+        try {
+            parser.parse(tree);
+            assertTrue("mapped tree", tree.isMapped());
+            assertEquals("parse tree", expected, printTree(tree.getRoot()));
+            assertEquals("analyzed tree",
+                         expected,
+                         printTree(new Analyzer().analyze(tree.getRoot())));
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        } finally {
+            tree.close();
+        }
+    }
+
+    /**
+     * Tests parsing statements in parallel.
+     */
+    public void testParallel() {
+        StringBuffer            buffer = new StringBuffer();
+        String                  input;
+        String                  invalid;
+        StringBuffer            calls = new StringBuffer();
+        HashSet                 threads = new HashSet();
+        CallRecorder            recorder;
+        CallRecorder            expected;
+        RecursiveDescentParser  parser;
+        ParallelParser          parallel;
+        boolean                 table;
+
+        calls.append("enter File ");
+        for (int i = 0; i < 2000; i++) {
+            buffer.append("1 + (2 * " + i + ");\n");
+            calls.append("child File ");
+        }
+        calls.append("exit File ");
+        input = buffer.toString();
+        invalid = input.replaceFirst("\\* 1000\\)", "* 1000 + 3 (");
+        for (int i = 0; i < 2; i++) {
+            table = (i == 1);
+            recorder = new CallRecorder();
+            parser = createStatementParser(input, recorder, table);
+            parallel = new SegmentParser(parser, threads);
+            parallel.addSyncId(SEMICOLON);
+            parallel.addBrackets(LEFT_PAREN, RIGHT_PAREN);
+            try {
+                assertEquals("parse tree",
+                             printTree(parse(createStatementParser(input,
+                                                                   null,
+                                                                   table))),
+                             printTree(parallel.parse()));
+                assertTrue("worker threads",
+                           threads.contains("grammatica-parser"));
+                assertEquals("root callbacks",
+                             calls.toString(),
+                             recorder.buffer.toString());
+                recorder.buffer.setLength(0);
+                parser.reset(new StringReader(invalid));
+                parallel.parse();
+                fail("parsing succeeded");
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            } catch (ParserLogException e) {
+                expected = new CallRecorder();
+                assertEquals("parse errors",
+                             failParse(createStatementParser(invalid,
+                                                             expected,
+                                                             table)),
+                             e.getMessage());
+                assertEquals("fallback callbacks",
+                             expected.buffer.toString(),
+                             recorder.buffer.toString());
+            } finally {
+                parallel.close();
+            }
+        }
+        recorder = new CallRecorder();
+        parser = createStatementParser(input, recorder, false);
+        parallel = new ParallelParser(parser, 4);
+        parallel.addSyncId(SEMICOLON);
+        try {
+            parallel.parse();
+            assertTrue("sequential callbacks",
+                       recorder.buffer.toString().startsWith(
+                           "enter File enter Statement "));
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        } finally {
+            parallel.close();
+        }
+    }
+
+    /**
+     * Tests rejecting a parallel parsing segment where the look-ahead
+     * reached the segment end. The grammar is "File = Statement+"
+     * and "Statement = NUMBER [";" "+"] ";"", so the optional part
+     * needs two tokens of look-ahead.
+     */
+    public void testParallelLookAhead() {
+        String                        input = "1 ; 2 ; + ;";
+        RecursiveDescentParser        parser;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+        ArrayList                     list = new ArrayList();
+        Token                         token;
+        Parser                        copy;
+
+        for (int i = 0; i < 2; i++) {
+            if (i == 0) {
+                parser = new RecursiveDescentParser(createTokenizer(input));
+            } else {
+                parser = new TableDrivenParser(createTokenizer(input));
+            }
+            try {
+                pattern = new ProductionPattern(FILE, "File");
+                alt = new ProductionPatternAlternative();
+                alt.addProduction(STATEMENT, 1, -1);
+                pattern.addAlternative(alt);
+                parser.addPattern(pattern);
+                pattern = new ProductionPattern(STATEMENT, "Statement");
+                alt = new ProductionPatternAlternative();
+                alt.addToken(NUMBER, 1, 1);
+                alt.addProduction(SUBPRODUCTION, 0, 1);
+                alt.addToken(SEMICOLON, 1, 1);
+                pattern.addAlternative(alt);
+                parser.addPattern(pattern);
+                pattern = new ProductionPattern(SUBPRODUCTION,
+                                                "Subproduction1");
+                pattern.setSynthetic(true);
+                alt = new ProductionPatternAlternative();
+                alt.addToken(SEMICOLON, 1, 1);
+                alt.addToken(ADD, 1, 1);
+                pattern.addAlternative(alt);
+                parser.addPattern(pattern);
+                parser.prepare();
+                list.clear();
+                while ((token = parser.getTokenizer().next()) != null) {
+                    list.add(token);
+                }
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            } catch (ParseException e) {
+                fail(e.getMessage());
+            }
+            copy = parser.copy(list.toArray(), 0, 2, new Analyzer());
+            assertNull("segment end look-ahead",
+                       ((RecursiveDescentParser) copy).parseSegment(
+                           parser.getRepetition()));
+            copy = parser.copy(list.toArray(), 2, 6, new Analyzer());
+            assertEquals("segment nodes",
+                         1,
+                         ((RecursiveDescentParser) copy).parseSegment(
+                             parser.getRepetition()).size());
+        }
+    }
+
+    /**
+     * Tests parsing with the token pipeline.
+     */
+    public void testPipeline() {
+        StringBuffer  buffer = new StringBuffer();
+        String        input;
+        Parser        parser;
+
+        for (int i = 0; i < 5000; i++) {
+            buffer.append(i + " * (" + i + " + 1) + ");
+        }
+        buffer.append("1");
+        input = buffer.toString();
+        for (int i = 0; i < 2; i++) {
+            parser = (i == 0) ? createRecursiveParser(input)
+                              : createTableParser(input);
+            parser.setUsePipeline(true);
+            assertEquals("parse tree",
+                         printTree(parse(createRecursiveParser(input))),
+                         printTree(parse(parser)));
+            input = "1 + # 2 * (3 $ 4\n5) + (6";
+            parser.reset(new StringReader(input));
+            assertEquals("parse errors",
+                         failParse(createRecursiveParser(input)),
+                         failParse(parser));
+            parser.reset(new StringReader(input));
+            assertNotNull("invalid input", recognize(parser));
+            input = buffer.toString();
+        }
+    }
+
+    /**
+     * Tests detaching production nodes from the parse tree.
+     */
+    public void testDetachable() {
+        String          input = "1 + 2 * 3 + (4 + 5)";
+        Parser          parser;
+        DetachRecorder  recorder;
+
+        for (int i = 0; i < 2; i++) {
+            recorder = new DetachRecorder();
+            if (i == 0) {
+                parser = new RecursiveDescentParser(createTokenizer(input),
+                                                    recorder);
+            } else {
+                parser = new TableDrivenParser(createTokenizer(input),
+                                               recorder);
+            }
+            addPatterns(parser);
+            try {
+                parser.setDetachable(TERM, true);
+            } catch (ParserCreationException e) {
+                fail(e.getMessage());
+            }
+            assertEquals("parse tree",
+                         "Expression(2001)\n" +
+                         "  ADD(1001): \"+\", line: 1, col: 3\n" +
+                         "  ADD(1001): \"+\", line: 1, col: 11\n",
+                         printTree(parse(parser)));
+            assertEquals("detached nodes",
+                         "2002:1 2002:3 2002:1 2002:1 2002:1 ",
+                         recorder.buffer.toString());
+        }
+    }
+
+    /**
+     * Tests recognizing valid and invalid input strings.
+     */
+    public void testRecognize() {
+        Parser          parser;
+        ParseException  error;
+
+        assertNull("valid input",
+                   recognize(createRecursiveParser("1 + 2 * (3 + 4)")));
+        error = recognize(createRecursiveParser("1 +\n2 * * 3 (4"));
+        assertNotNull("invalid input", error);
+        assertEquals("error type",
+                     ParseException.UNEXPECTED_TOKEN_ERROR,
+                     error.getErrorType());
+        assertEquals("error line", 2, error.getLine());
+        assertEquals("error column", 5, error.getColumn());
+        assertEquals("error offset", 8, error.getOffset());
+        error = recognize(createRecursiveParser("1 + (2"));
+        assertEquals("error type",
+                     ParseException.UNEXPECTED_EOF_ERROR,
+                     error.getErrorType());
+        assertEquals("error offset", 6, error.getOffset());
+        error = recognize(createRecursiveParser("1 + 2 3"));
+        assertEquals("error offset", 6, error.getOffset());
+        parser = createRecursiveParser("1 + 2 + # 3 + 4 + 5 + 6");
+        error = recognize(parser);
+        assertEquals("error type",
+                     ParseException.UNEXPECTED_CHAR_ERROR,
+                     error.getErrorType());
+        assertEquals("error offset", 8, error.getOffset());
+        assertTrue("tokenizer stopped",
+                   parser.getTokenizer().getCurrentOffset() < 12);
+    }
+
+    /**
+     * Recognizes the input and reports a test failure if the parser
+     * couldn't be created.
+     *
+     * @param parser         the parser to use
+     *
+     * @return the first parse error, or null
+     */
+    private ParseException recognize(Parser parser) {
+        try {
+            return parser.recognize();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return null; // Unreachable
+    }
+
+    /**
+     * Parses the input and reports a test failure if it failed.
+     *
+     * @param parser         the parser to use
+     *
+     * @return the parse tree
+     */
+    private Node parse(Parser parser) {
+        try {
+            return parser.parse();
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        return null; // Unreachable
+    }
+
+    /**
+     * Tests parsing with parse events instead of a parse tree.
+     */
+    public void testParseEvents() {
+        String          input = "1 + 2 * (3 + 4 * 5) * 6\n+ ((7))";
+        StringBuffer    expected = new StringBuffer();
+        EventRecorder   recorder = new EventRecorder();
+        Parser          parser;
+
+        printEvents(parse(createRecursiveParser(input)), expected);
+        parser = createRecursiveParser(input);
+        try {
+            ((RecursiveDescentParser) parser).parse(recorder);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            fail(e.getMessage());
+        }
+        assertEquals("parse events", expected.toString(),
+                     recorder.buffer.toString());
+        assertTrue("token offset",
+                   recorder.buffer.toString().indexOf(" 1005@28:1 ") > 0);
+    }
+
+    /**
+     * Tests parsing an input string with errors using parse events.
+     */
+    public void testInvalidParseEvents() {
+        String  input = "1 + * 2 (3 + 4";
+        Parser  parser = createRecursiveParser(input);
+        String  expected = failParse(createRecursiveParser(input));
+
+        try {
+            ((RecursiveDescentParser) parser).parse(new EventRecorder());
+            fail("parsing succeeded");
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            assertEquals("parse errors", expected, e.getMessage());
+        }
+    }
+
+    /**
+     * Parses the input and reports a test failure if it succeeded.
+     *
+     * @param parser         the parser to use
+     *
+     * @return the parse error messages
+     */
+    private String failParse(Parser parser) {
+        try {
+            parser.parse();
+            fail("parsing succeeded");
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        } catch (ParserLogException e) {
+            return e.getMessage();
+        }
+        return null; // Unreachable
+    }
+
+    /**
+     * Returns a string representation of a parse tree.
+     *
+     * @param node           the parse tree root node
+     *
+     * @return the string representation of the tree
+     */
+    private String printTree(Node node) {
+        StringWriter  output = new StringWriter();
+
+        node.printTo(new PrintWriter(output));
+        return output.toString();
+    }
+
+    /**
+     * Returns the position spans of all the production nodes in a
+     * parse tree.
+     *
+     * @param node           the parse tree root node
+     *
+     * @return the position spans of the production nodes
+     */
+    private String printSpans(Node node) {
+        StringBuffer  buffer = new StringBuffer();
+        ArrayList     queue = new ArrayList();
+
+        queue.add(node);
+        for (int i = 0; i < queue.size(); i++) {
+            node = (Node) queue.get(i);
+            if (node instanceof Production) {
+                buffer.append(node.getName() + " ");
+                buffer.append(node.getStartLine() + ":");
+                buffer.append(node.getStartColumn() + "-");
+                buffer.append(node.getEndLine() + ":");
+                buffer.append(node.getEndColumn() + " ");
+                buffer.append(node.getStartOffset() + "-");
+                buffer.append(node.getEndOffset() + "\n");
+                for (int j = 0; j < node.getChildCount(); j++) {
+                    queue.add(node.getChildAt(j));
+                }
+            }
+        }
+        return buffer.toString();
+    }
+
+    /**
+     * Appends the parse events corresponding to a parse tree.
+     *
+     * @param node           the parse tree node
+     * @param buffer         the buffer to append to
+     */
+    private void printEvents(Node node, StringBuffer buffer) {
+        Token  token;
+
+        if (node instanceof Token) {
+            token = (Token) node;
+            buffer.append(token.getId());
+            buffer.append("@");
+            buffer.append(token.getStartOffset());
+            buffer.append(":");
+            buffer.append(token.getImage().length());
+            buffer.append(" ");
+        } else {
+            buffer.append("[" + node.getId() + " ");
+            for (int i = 0; i < node.getChildCount(); i++) {
+                printEvents(node.getChildAt(i), buffer);
+            }
+            buffer.append("]" + node.getId() + " ");
+        }
+    }
+
+    /**
+     * Creates a new recursive descent parser for the test grammar.
+     *
+     * @param input          the input to parse
+     *
+     * @return the parser created
+     */
+    private RecursiveDescentParser createRecursiveParser(String input) {
+        RecursiveDescentParser  parser;
+
+        parser = new RecursiveDescentParser(createTokenizer(input));
+        addPatterns(parser);
+        return parser;
+    }
+
+    /**
+     * Creates a new table-driven parser for the test grammar.
+     *
+     * @param input          the input to parse
+     *
+     * @return the parser created
+     */
+    private Parser createTableParser(String input) {
+        Parser  parser;
+
+        parser = new TableDrivenParser(createTokenizer(input));
+        addPatterns(parser);
+        return parser;
+    }
+
+    /**
+     * Creates a new parser for the statement test grammar. The
+     * grammar is "File = Statement+" and "Statement = Expression
+     * ";"", followed by the normal test grammar.
+     *
+     * @param input          the input to parse
+     * @param analyzer       the analyzer to use, or null
+     * @param table          the table-driven parser flag
+     *
+     * @return the parser created
+     */
+    private RecursiveDescentParser createStatementParser(String input,
+                                                         Analyzer analyzer,
+                                                         boolean table) {
+
+        RecursiveDescentParser        parser;
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        if (table) {
+            parser = new TableDrivenParser(createTokenizer(input), analyzer);
+        } else {
+            parser = new RecursiveDescentParser(createTokenizer(input),
+                                                analyzer);
+        }
+        try {
+            pattern = new ProductionPattern(FILE, "File");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(STATEMENT, 1, -1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(STATEMENT, "Statement");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(EXPRESSION, 1, 1);
+            alt.addToken(SEMICOLON, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        addPatterns(parser);
+        return parser;
+    }
+
+    /**
+     * Creates a new tokenizer for the test grammar.
+     *
+     * @param input          the input to tokenize
+     *
+     * @return the tokenizer created
+     */
+    private Tokenizer createTokenizer(String input) {
+        Tokenizer     tokenizer = new Tokenizer(new StringReader(input));
+        TokenPattern  pattern;
+
+        try {
+            tokenizer.addPattern(new TokenPattern(ADD, "ADD",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "+"));
+            tokenizer.addPattern(new TokenPattern(MUL, "MUL",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "*"));
+            tokenizer.addPattern(new TokenPattern(LEFT_PAREN, "LEFT_PAREN",
+                                                  TokenPattern.STRING_TYPE,
+                                                  "("));
+            tokenizer.addPattern(new TokenPattern(RIGHT_PAREN, "RIGHT_PAREN",
+                                                  TokenPattern.STRING_TYPE,
+                                                  ")"));
+            tokenizer.addPattern(new TokenPattern(NUMBER, "NUMBER",
+                                                  TokenPattern.REGEXP_TYPE,
+                                                  "[0-9]+"));
+            tokenizer.addPattern(new TokenPattern(SEMICOLON, "SEMICOLON",
+                                                  TokenPattern.STRING_TYPE,
+                                                  ";"));
+            pattern = new TokenPattern(WHITESPACE, "WHITESPACE",
+                                       TokenPattern.REGEXP_TYPE,
+                                       "[ \\t\\n]+");
+            pattern.setIgnore();
+            tokenizer.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Adds the test grammar production patterns to a parser. The
+     * grammar is "Expression = Term ("+" Term)*", "Term = Factor
+     * ("*" Factor)*" and "Factor = NUMBER | "(" Expression ")"".
+     *
+     * @param parser         the parser to add the patterns to
+     */
+    private void addPatterns(Parser parser) {
+        ProductionPattern             pattern;
+        ProductionPatternAlternative  alt;
+
+        try {
+            pattern = new ProductionPattern(EXPRESSION, "Expression");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(TERM, 1, 1);
+            alt.addProduction(SUBPRODUCTION, 0, -1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(TERM, "Term");
+            alt = new ProductionPatternAlternative();
+            alt.addProduction(FACTOR, 1, 1);
+            alt.addProduction(SUBPRODUCTION + 1, 0, -1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(FACTOR, "Factor");
+            alt = new ProductionPatternAlternative();
+            alt.addToken(NUMBER, 1, 1);
+            pattern.addAlternative(alt);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(LEFT_PAREN, 1, 1);
+            alt.addProduction(EXPRESSION, 1, 1);
+            alt.addToken(RIGHT_PAREN, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(SUBPRODUCTION, "Subproduction1");
+            pattern.setSynthetic(true);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(ADD, 1, 1);
+            alt.addProduction(TERM, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+            pattern = new ProductionPattern(SUBPRODUCTION + 1,
+                                            "Subproduction2");
+            pattern.setSynthetic(true);
+            alt = new ProductionPatternAlternative();
+            alt.addToken(MUL, 1, 1);
+            alt.addProduction(FACTOR, 1, 1);
+            pattern.addAlternative(alt);
+            parser.addPattern(pattern);
+        } catch (ParserCreationException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * A parse listener recording all the parse events.
+     */
+    private class EventRecorder implements ParseListener {
+
+        /**
+         * The recorded parse events.
+         */
+        public StringBuffer buffer = new StringBuffer();
+
+        /**
+         * Records a production start event.
+         *
+         * @param id             the production pattern id
+         */
+        public void startProduction(int id) {
+            buffer.append("[" + id + " ");
+        }
+
+        /**
+         * Records a token event.
+         *
+         * @param id             the token pattern id
+         * @param offset         the token start character offset
+         * @param length         the token length in characters
+         */
+        public void token(int id, int offset, int length) {
+            buffer.append(id + "@" + offset + ":" + length + " ");
+        }
+
+        /**
+         * Records a production end event.
+         *
+         * @param id             the production pattern id
+         */
+        public void endProduction(int id) {
+            buffer.append("]" + id + " ");
+        }
+    }
+
+    /**
+     * An analyzer recording all the detached nodes.
+     */
+    private class DetachRecorder extends Analyzer {
+
+        /**
+         * The recorded detached nodes.
+         */
+        public StringBuffer buffer = new StringBuffer();
+
+        /**
+         * Records a detached node and its number of children.
+         *
+         * @param parent         the parent node
+         * @param node           the detached child node
+         */
+        protected void detach(Production parent, Node node) {
+            assertNull("detached parent", node.getParent());
+            buffer.append(node.getId() + ":" + node.getChildCount() + " ");
+        }
+    }
+
+
+    /**
+     * An analyzer recording the names of the threads used.
+     */
+    private class ThreadRecorder extends Analyzer {
+
+        /**
+         * The recorded thread names, shared between analyzers.
+         */
+        private HashSet threads;
+
+        /**
+         * Creates a new thread recorder.
+         *
+         * @param threads        the set of thread names to add to
+         */
+        public ThreadRecorder(HashSet threads) {
+            this.threads = threads;
+        }
+
+        /**
+         * Records the name of the current thread.
+         *
+         * @param node           the node being exited
+         *
+         * @return the node to add to the parse tree
+         */
+        protected Node exit(Node node) {
+            synchronized (threads) {
+                threads.add(Thread.currentThread().getName());
+            }
+            return node;
+        }
+    }
+
+
+    /**
+     * An analyzer recording the production callbacks.
+     */
+    private class CallRecorder extends Analyzer {
+
+        /**
+         * The recorded production callbacks.
+         */
+        public StringBuffer buffer = new StringBuffer();
+
+        /**
+         * Records entering a production node.
+         *
+         * @param node           the node being entered
+         */
+        protected void enter(Node node) {
+            if (node instanceof Production) {
+                buffer.append("enter " + node.getName() + " ");
+            }
+        }
+
+        /**
+         * Records exiting a production node.
+         *
+         * @param node           the node being exited
+         *
+         * @return the node to add to the parse tree
+         */
+        protected Node exit(Node node) {
+            if (node instanceof Production) {
+                buffer.append("exit " + node.getName() + " ");
+            }
+            return node;
+        }
+
+        /**
+         * Records adding a production child node.
+         *
+         * @param node           the parent node
+         * @param child          the child node, or null
+         *
+         * @throws ParseException if the node analysis discovered errors
+         */
+        protected void child(Production node, Node child)
+            throws ParseException {
+
+            if (child instanceof Production) {
+                buffer.append("child " + node.getName() + " ");
+            }
+            super.child(node, child);
+        }
+    }
+
+
+    /**
+     * A parallel parser using thread recorders as segment analyzers.
+     */
+    private class SegmentParser extends ParallelParser {
+
+        /**
+         * The recorded thread names.
+         */
+        private HashSet threads;
+
+        /**
+         * Creates a new parallel parser with four worker threads.
+         *
+         * @param parser         the parser to use
+         * @param threads        the set of thread names to add to
+         */
+        public SegmentParser(RecursiveDescentParser parser,
+                             HashSet threads) {
+
+            super(parser, 4);
+            this.threads = threads;
+        }
+
+        /**
+         * Creates a new thread recorder for a segment.
+         *
+         * @return the new thread recorder
+         */
+        protected Analyzer newAnalyzer() {
+            return new ThreadRecorder(threads);
+        }
+    }
+}
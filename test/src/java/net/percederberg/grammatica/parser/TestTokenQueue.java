@@ -0,0 +1,101 @@
+/*
+ * TestTokenQueue.java
+ *
+ * This program is free software: you can redistribute it and/or
+ * modify it under the terms of the BSD license.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * LICENSE.txt file for more details.
+ *
+ * Copyright (c) 2003-2015 Per Cederberg. All rights reserved.
+ */
+
+package net.percederberg.grammatica.parser;
+
+import junit.framework.TestCase;
+
+/**
+ * A test case for the TokenQueue class.
+ *
+ * @author   Per Cederberg
+ * @version  1.6
+ */
+public class TestTokenQueue extends TestCase {
+
+    /**
+     * The token pattern used for all tokens.
+     */
+    private static final TokenPattern PATTERN =
+        new TokenPattern(1, "NUMBER", TokenPattern.REGEXP_TYPE, "[0-9]+");
+
+    /**
+     * Tests adding, peeking and consuming tokens.
+     */
+    public void testPeekAndConsume() {
+        TokenQueue  queue = new TokenQueue();
+
+        assertNull("empty peek", queue.peek(0));
+        assertNull("empty consume", queue.consume());
+        for (int i = 0; i < 100; i++) {
+            queue.add(createToken(i));
+            if (i % 3 == 2) {
+                assertToken(queue.consume(), i / 3);
+            }
+        }
+        assertEquals("queue size", 67, queue.size());
+        assertToken(queue.peek(0), 33);
+        assertToken(queue.peek(66), 99);
+        assertNull("peek beyond end", queue.peek(67));
+        for (int i = 33; i < 100; i++) {
+            assertToken(queue.consume(), i);
+        }
+        assertEquals("queue size", 0, queue.size());
+        assertEquals("peak size", 67, queue.getPeakSize());
+    }
+
+    /**
+     * Tests growing the buffer and clearing the queue.
+     */
+    public void testGrowAndClear() {
+        TokenQueue  queue = new TokenQueue();
+
+        for (int i = 0; i < 10; i++) {
+            queue.add(createToken(i));
+        }
+        assertToken(queue.consume(), 0);
+        for (int i = 10; i < 50; i++) {
+            queue.add(createToken(i));
+        }
+        assertEquals("queue size", 49, queue.size());
+        assertToken(queue.peek(0), 1);
+        assertToken(queue.peek(48), 49);
+        queue.clear();
+        assertEquals("queue size", 0, queue.size());
+        assertNull("cleared peek", queue.peek(0));
+        assertEquals("peak size", 0, queue.getPeakSize());
+    }
+
+    /**
+     * Creates a new test token.
+     *
+     * @param value          the token value
+     *
+     * @return the new token
+     */
+    private Token createToken(int value) {
+        return new Token(PATTERN, String.valueOf(value), 1, value);
+    }
+
+    /**
+     * Checks that a token has the specified value.
+     *
+     * @param token          the token to check
+     * @param value          the expected token value
+     */
+    private void assertToken(Token token, int value) {
+        assertNotNull("token " + value, token);
+        assertEquals("token image", String.valueOf(value), token.getImage());
+    }
+}
@@ -15,6 +15,9 @@
 package net.percederberg.grammatica.parser;
 
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 
 import junit.framework.TestCase;
 
@@ -22,7 +25,7 @@ import junit.framework.TestCase;
  * A test case for the Tokenizer class.
  *
  * @author   Per Cederberg
- * @version  1.5
+ * @version  1.6
  */
 public class TestTokenizer extends TestCase {
 
@@ -193,6 +196,256 @@ public class TestTokenizer extends TestCase {
         readToken(tokenizer, EOF);
     }
 
+    /**
+     * Tests re-tokenizing the token list after edits.
+     */
+    public void testRetokenize() {
+        String      input = "12 keyword 0 ABC\nkeyword 45";
+        Tokenizer   tokenizer = createDefaultTokenizer("", false);
+        Token       head = tokenize(input);
+        TokenRange  range;
+
+        range = tokenizer.retokenize(head, 1, 0, "3");
+        input = "132 keyword 0 ABC\nkeyword 45";
+        head = findHead(range);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(head));
+        assertEquals("first token", "132", range.getFirstToken().getImage());
+        assertSame("last token", range.getFirstToken(), range.getLastToken());
+        assertEquals("removed count", 1, range.getRemovedCount());
+        assertEquals("next token", 3, range.getNextToken().getStartOffset());
+        range = tokenizer.retokenize(range.getNextToken(), 12, 3, "7");
+        input = "132 keyword 7BC\nkeyword 45";
+        head = findHead(range);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(head));
+        assertEquals("removed count", 4, range.getRemovedCount());
+        range = tokenizer.retokenize(head, 0, 0, "\n");
+        input = "\n132 keyword 7BC\nkeyword 45";
+        head = findHead(range);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(head));
+        range = tokenizer.retokenize(head, input.length(), 0, " 6");
+        input = input + " 6";
+        head = findHead(range);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(head));
+        assertNull("next token", range.getNextToken());
+        range = tokenizer.retokenize(head, 5, 16, "");
+        input = "\n132 ord 45 6";
+        head = findHead(range);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(head));
+        assertEquals("error count", 3, range.getErrors().getErrorCount());
+    }
+
+    /**
+     * Tests tokenizing in parallel.
+     */
+    public void testTokenizeParallel() {
+        Tokenizer     tokenizer = createDefaultTokenizer("", false);
+        StringBuffer  buffer = new StringBuffer();
+        String        input;
+        Token[]       tokens;
+
+        tokenizer.setUseTokenList(true);
+        for (int i = 0; i < 10000; i++) {
+            buffer.append("keyword " + i + " ABC\n");
+        }
+        input = buffer.toString();
+        tokens = tokenizeParallel(tokenizer, input);
+        assertEquals("token count", 30000, tokens.length);
+        assertEquals("last line", 10000, tokens[29999].getStartLine());
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(findHead(tokens[0])));
+        input = input.replace('\n', ' ').replaceAll("ABC ", "ABC\n  ");
+        tokens = tokenizeParallel(tokenizer, input);
+        assertEquals("token count", 30000, tokens.length);
+        assertEquals("token list", printTokens(tokenize(input)),
+                     printTokens(findHead(tokens[0])));
+        input = input.replaceAll("ABC", "A#C error");
+        try {
+            tokenizer.tokenizeParallel(input, '\n', 4);
+            fail("tokenized with errors");
+        } catch (ParserLogException e) {
+            assertEquals("error count", 20000, e.getErrorCount());
+            assertEquals("error line", 10000, e.getError(19999).getLine());
+            assertEquals("error column", 20, e.getError(19999).getColumn());
+        }
+    }
+
+    /**
+     * Tokenizes a string in parallel and reports a test failure if
+     * it failed.
+     *
+     * @param tokenizer      the tokenizer
+     * @param input          the input string
+     *
+     * @return the tokens found
+     */
+    private Token[] tokenizeParallel(Tokenizer tokenizer, String input) {
+        try {
+            return tokenizer.tokenizeParallel(input, '\n', 4);
+        } catch (ParserLogException e) {
+            fail("couldn't tokenize in parallel: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Tests tokenizing with a token feeder.
+     */
+    public void testFeed() {
+        Tokenizer     tokenizer = createDefaultTokenizer("", false);
+        TokenFeeder   feeder = new TokenFeeder(tokenizer);
+        StringBuffer  buffer = new StringBuffer();
+        ArrayList     list = new ArrayList();
+        String        input;
+        String        expected;
+        char[]        chars;
+        byte[]        bytes;
+        int           errors = 0;
+        int           pos;
+
+        tokenizer.setUseTokenList(true);
+        for (int i = 0; i < 100; i++) {
+            buffer.append("keyword " + i + " ABC\n");
+            buffer.append("A#C error \u00e9 DEF" + i + "\n");
+        }
+        input = buffer.toString();
+        expected = printTokens(tokenize(input));
+        chars = input.toCharArray();
+        for (pos = 0; pos + 7 < chars.length; pos += 7) {
+            errors += feed(list, feeder.feed(chars, pos, 7), feeder);
+        }
+        errors += feed(list, feeder.feed(chars, pos, chars.length - pos),
+                       feeder);
+        errors += feed(list, feeder.endOfInput(), feeder);
+        assertEquals("token count", 700, list.size());
+        assertEquals("error count", 300, errors);
+        assertEquals("token list", expected,
+                     printTokens(findHead((Token) list.get(0))));
+        list.clear();
+        errors = 0;
+        bytes = input.getBytes(Charset.forName("UTF-8"));
+        for (int i = 0; i < bytes.length; i++) {
+            errors += feed(list, feeder.feed(ByteBuffer.wrap(bytes, i, 1)),
+                           feeder);
+        }
+        errors += feed(list, feeder.endOfInput(), feeder);
+        assertEquals("token count", 700, list.size());
+        assertEquals("error count", 300, errors);
+        assertEquals("token list", expected,
+                     printTokens(findHead((Token) list.get(0))));
+        list.clear();
+        chars = new char[] { 'A' };
+        for (int i = 0; i < 100000; i++) {
+            feed(list, feeder.feed(chars), feeder);
+        }
+        feed(list, feeder.feed(" 1 ".toCharArray()), feeder);
+        feed(list, feeder.endOfInput(), feeder);
+        assertEquals("token count", 2, list.size());
+        assertEquals("token length", 100000,
+                     ((Token) list.get(0)).getImage().length());
+    }
+
+    /**
+     * Adds the tokens returned by a token feeder to a list.
+     *
+     * @param list           the list of tokens
+     * @param tokens         the tokens returned
+     * @param feeder         the token feeder
+     *
+     * @return the number of errors found
+     */
+    private int feed(ArrayList list, Token[] tokens, TokenFeeder feeder) {
+        for (int i = 0; i < tokens.length; i++) {
+            list.add(tokens[i]);
+        }
+        return feeder.getErrors().getErrorCount();
+    }
+
+    /**
+     * Tokenizes a string with the token list feature.
+     *
+     * @param input          the input string
+     *
+     * @return the first token in the token list
+     */
+    private Token tokenize(String input) {
+        Tokenizer  tokenizer = createDefaultTokenizer(input, false);
+        Token      first = null;
+        Token      token;
+
+        tokenizer.setUseTokenList(true);
+        while (true) {
+            try {
+                token = tokenizer.next();
+            } catch (ParseException e) {
+                continue;
+            }
+            if (token == null) {
+                return findHead(first);
+            } else if (first == null) {
+                first = token;
+            }
+        }
+    }
+
+    /**
+     * Returns the first token in a token list.
+     *
+     * @param range          the changed token range
+     *
+     * @return the first token in the token list
+     */
+    private Token findHead(TokenRange range) {
+        if (range.getFirstToken() != null) {
+            return findHead(range.getFirstToken());
+        } else if (range.getNextToken() != null) {
+            return findHead(range.getNextToken());
+        } else {
+            return findHead(range.getPreviousToken());
+        }
+    }
+
+    /**
+     * Returns the first token in a token list.
+     *
+     * @param token          any token in the token list
+     *
+     * @return the first token in the token list
+     */
+    private Token findHead(Token token) {
+        while (token.getPreviousToken() != null) {
+            token = token.getPreviousToken();
+        }
+        return token;
+    }
+
+    /**
+     * Returns a string representation of a token list.
+     *
+     * @param token          the first token in the list
+     *
+     * @return the string representation of the token list
+     */
+    private String printTokens(Token token) {
+        StringBuffer  buffer = new StringBuffer();
+
+        for (; token != null; token = token.getNextToken()) {
+            buffer.append(token.toString());
+            buffer.append(", end: ");
+            buffer.append(token.getEndLine());
+            buffer.append(":");
+            buffer.append(token.getEndColumn());
+            buffer.append(", offset: ");
+            buffer.append(token.getStartOffset());
+            buffer.append("\n");
+        }
+        return buffer.toString();
+    }
+
     /**
      * Creates a new tokenizer.
      *
@@ -15,7 +15,6 @@
 package net.percederberg.grammatica.test;
 
 import java.io.StringReader;
-import java.util.ArrayList;
 import java.util.HashMap;
 
 import net.percederberg.grammatica.parser.Node;
@@ -68,7 +67,7 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
         parser = new ArithmeticParser(new StringReader(expression), this);
         parser.prepare();
         node = parser.parse();
-        return ((Integer) node.getValue(0)).intValue();
+        return node.getIntSlot(0);
     }
 
     /**
@@ -127,7 +126,7 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      * @return the node to add to the parse tree
      */
     protected Node exitNumber(Token node) {
-        node.addValue(Integer.valueOf(node.getImage()));
+        node.addIntSlot(Integer.parseInt(node.getImage()));
         return node;
     }
 
@@ -139,7 +138,11 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      * @return the node to add to the parse tree
      */
     protected Node exitIdentifier(Token node) {
-        node.addValue(variables.get(node.getImage()));
+        Integer  value = (Integer) variables.get(node.getImage());
+
+        if (value != null) {
+            node.addIntSlot(value.intValue());
+        }
         return node;
     }
 
@@ -150,22 +153,18 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      *
      * @return the node to add to the parse tree
      */
-    protected Node exitExpression(Production node) {
-        ArrayList  values = getChildValues(node);
-        Integer    value1;
-        Integer    value2;
-        String     op;
-        int        result;
+    protected Node exitExpression(Production node) throws ParseException {
+        Node  rest;
+        int   result;
 
-        if (values.size() == 1) {
-            result = ((Integer) values.get(0)).intValue();
-        } else {
-            value1 = (Integer) values.get(0);
-            value2 = (Integer) values.get(2);
-            op = (String) values.get(1);
-            result = operate(op, value1, value2);
+        result = getIntSlot(getChildAt(node, 0), 0);
+        if (node.getChildCount() > 1) {
+            rest = getChildAt(node, 1);
+            result = operate(getStringValue(rest, 0),
+                             result,
+                             getIntSlot(rest, 0));
         }
-        node.addValue(Integer.valueOf(result));
+        node.addIntSlot(result);
         return node;
     }
 
@@ -176,8 +175,9 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      *
      * @return the node to add to the parse tree
      */
-    protected Node exitExpressionRest(Production node) {
-        node.addValues(getChildValues(node));
+    protected Node exitExpressionRest(Production node) throws ParseException {
+        node.addValue(getStringValue(getChildAt(node, 0), 0));
+        node.addIntSlot(getIntSlot(getChildAt(node, 1), 0));
         return node;
     }
 
@@ -188,22 +188,18 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      *
      * @return the node to add to the parse tree
      */
-    protected Node exitTerm(Production node) {
-        ArrayList  values = getChildValues(node);
-        Integer    value1;
-        Integer    value2;
-        String     op;
-        int        result;
+    protected Node exitTerm(Production node) throws ParseException {
+        Node  rest;
+        int   result;
 
-        if (values.size() == 1) {
-            result = ((Integer) values.get(0)).intValue();
-        } else {
-            value1 = (Integer) values.get(0);
-            value2 = (Integer) values.get(2);
-            op = (String) values.get(1);
-            result = operate(op, value1, value2);
+        result = getIntSlot(getChildAt(node, 0), 0);
+        if (node.getChildCount() > 1) {
+            rest = getChildAt(node, 1);
+            result = operate(getStringValue(rest, 0),
+                             result,
+                             getIntSlot(rest, 0));
         }
-        node.addValue(Integer.valueOf(result));
+        node.addIntSlot(result);
         return node;
     }
 
@@ -214,8 +210,9 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      *
      * @return the node to add to the parse tree
      */
-    protected Node exitTermRest(Production node) {
-        node.addValues(getChildValues(node));
+    protected Node exitTermRest(Production node) throws ParseException {
+        node.addValue(getStringValue(getChildAt(node, 0), 0));
+        node.addIntSlot(getIntSlot(getChildAt(node, 1), 0));
         return node;
     }
 
@@ -232,11 +229,11 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
         int  result;
 
         if (node.getChildCount() == 1) {
-            result = getIntValue(getChildAt(node, 0), 0);
+            result = getIntSlot(getChildAt(node, 0), 0);
         } else {
-            result = getIntValue(getChildAt(node, 1), 0);
+            result = getIntSlot(getChildAt(node, 1), 0);
         }
-        node.addValue(Integer.valueOf(result));
+        node.addIntSlot(result);
         return node;
     }
 
@@ -247,8 +244,8 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      *
      * @return the node to add to the parse tree
      */
-    protected Node exitAtom(Production node) {
-        node.addValues(getChildValues(node));
+    protected Node exitAtom(Production node) throws ParseException {
+        node.addIntSlot(getIntSlot(getChildAt(node, 0), 0));
         return node;
     }
 
@@ -256,15 +253,12 @@ class ArithmeticCalculator extends ArithmeticAnalyzer {
      * Performs a numerical operation.
      *
      * @param op             the operator to use
-     * @param value1         the first value
-     * @param value2         the second value
+     * @param i              the first value
+     * @param j              the second value
      *
      * @return the result of performing the operation
      */
-    private int operate(String op, Integer value1, Integer value2) {
-        int  i = value1.intValue();
-        int  j = value2.intValue();
-
+    private int operate(String op, int i, int j) {
         switch (op.charAt(0)) {
         case '+':
             return i + j;
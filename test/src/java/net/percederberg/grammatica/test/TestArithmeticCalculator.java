@@ -14,15 +14,27 @@
 
 package net.percederberg.grammatica.test;
 
+import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 
 import junit.framework.TestCase;
 
+import net.percederberg.grammatica.parser.Analyzer;
+import net.percederberg.grammatica.parser.CompositeAnalyzer;
+import net.percederberg.grammatica.parser.Node;
+import net.percederberg.grammatica.parser.ParallelAnalyzer;
+import net.percederberg.grammatica.parser.ParseException;
+import net.percederberg.grammatica.parser.ParserLogException;
+import net.percederberg.grammatica.parser.Production;
+import net.percederberg.grammatica.parser.Token;
+
 /**
  * A test case for the ArithmeticCalculator class.
  *
  * @author   Per Cederberg
- * @version  1.0
+ * @version  1.6
  */
 public class TestArithmeticCalculator extends TestCase {
 
@@ -55,6 +67,192 @@ public class TestArithmeticCalculator extends TestCase {
         calculate(VALID_INPUT, 350);
     }
 
+    /**
+     * Tests the calculator with a very long expression. The
+     * right-recursive expression productions must not exhaust the
+     * call stack.
+     */
+    public void testLongExpression() {
+        StringBuffer  buffer = new StringBuffer("1");
+
+        for (int i = 1; i < 100000; i++) {
+            buffer.append(i % 2 == 0 ? " + 1" : " + 2 * 1");
+        }
+        calculate(buffer.toString(), 150000);
+    }
+
+    /**
+     * Tests running several calculators with a composite analyzer.
+     * Each calculator must compute its own values, and the errors
+     * from all calculators must be reported.
+     */
+    public void testCompositeAnalyzer() {
+        HashMap            other = new HashMap();
+        Analyzer[]         list = new Analyzer[2];
+        CompositeAnalyzer  analyzer;
+        ArithmeticParser   parser;
+        Node               node;
+
+        other.put("a", Integer.valueOf(3));
+        list[0] = new ArithmeticCalculator(variables);
+        list[1] = new ArithmeticCalculator(other);
+        analyzer = new CompositeAnalyzer(list);
+        try {
+            parser = new ArithmeticParser(new StringReader(VALID_INPUT));
+            node = analyzer.analyze(parser.parse());
+            analyzer.setValueSpace(node, 0);
+            assertEquals("first result", 350, node.getIntSlot(0));
+            analyzer.setValueSpace(node, 1);
+            assertEquals("second result", 352, node.getIntSlot(0));
+            assertEquals("child count", 2, node.getChildCount());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+        list[0] = new ArithmeticCalculator();
+        list[1] = new ArithmeticCalculator();
+        analyzer = new CompositeAnalyzer(list);
+        try {
+            parser = new ArithmeticParser(new StringReader(VALID_INPUT));
+            analyzer.analyze(parser.parse());
+            fail("analysis with undefined variable succeeded");
+        } catch (ParserLogException e) {
+            assertEquals("error count", 2, e.getErrorCount());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests the composite analyzer callbacks. All analyzers must be
+     * called with the same nodes, the child nodes skipped by the
+     * first analyzer must keep their parent references, and the
+     * errors thrown must not be modified.
+     */
+    public void testCompositeCallbacks() {
+        Analyzer[]         list = new Analyzer[2];
+        CompositeAnalyzer  analyzer;
+        ArithmeticParser   parser;
+        Node               root;
+        Node               token;
+        Node               parent;
+
+        list[0] = new ReplacingAnalyzer();
+        list[1] = new CheckingAnalyzer();
+        analyzer = new CompositeAnalyzer(list);
+        try {
+            parser = new ArithmeticParser(new StringReader("1 + 2"));
+            analyzer.analyze(parser.parse());
+            fail("analysis without errors");
+        } catch (ParserLogException e) {
+            assertEquals("error count", 6, e.getErrorCount());
+            for (int i = 0; i < e.getErrorCount(); i += 2) {
+                assertEquals("first error",
+                             "shared error",
+                             e.getError(i).getInfo());
+                assertEquals("second error",
+                             "entered node",
+                             e.getError(i + 1).getInfo());
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+        try {
+            parser = new ArithmeticParser(new StringReader("1 + 2"));
+            root = parser.parse();
+            token = root;
+            while (token.getChildCount() > 0) {
+                token = token.getChildAt(0);
+            }
+            parent = token.getParent();
+            list[0] = new Analyzer() {
+                protected void child(Production node, Node child)
+                    throws ParseException {
+
+                    if (child instanceof Production) {
+                        node.addChild(child);
+                    }
+                }
+            };
+            list[1] = new Analyzer();
+            new CompositeAnalyzer(list).analyze(root);
+            assertSame("token parent", parent, token.getParent());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Tests running the calculator with a parallel analyzer. The
+     * result and the errors must be the same as for a normal
+     * analysis.
+     */
+    public void testParallelAnalyzer() {
+        StringBuffer        buffer = new StringBuffer("1");
+        ParallelAnalyzer    analyzer;
+        ArithmeticParser    parser;
+        Node                node;
+        ParserLogException  log = null;
+
+        for (int i = 1; i < 100000; i++) {
+            buffer.append(i % 2 == 0 ? " + 1" : " + 2 * a");
+        }
+        analyzer = new ParallelAnalyzer(new ArithmeticCalculator(variables),
+                                        4);
+        analyzer.addSplitId(ArithmeticConstants.TERM);
+        try {
+            parser = new ArithmeticParser(new StringReader(buffer.toString()));
+            node = analyzer.analyze(parser.parse());
+            assertEquals("result", 250000, node.getIntSlot(0));
+            parser = new ArithmeticParser(new StringReader(buffer.toString()));
+            node = analyzer.analyzeInPlace(parser.parse());
+            assertEquals("in-place result", 250000, node.getIntSlot(0));
+            assertParents(node);
+            parser = new ArithmeticParser(new StringReader("x + 1 * y + z"));
+            node = parser.parse();
+            try {
+                new ArithmeticCalculator().analyze(node);
+            } catch (ParserLogException e) {
+                log = e;
+            }
+            analyzer.close();
+            analyzer = new ParallelAnalyzer(new ArithmeticCalculator(), 4);
+            analyzer.addSplitId(ArithmeticConstants.FACTOR);
+            analyzer.analyze(node);
+            fail("analysis with undefined variables succeeded");
+        } catch (ParserLogException e) {
+            assertEquals("error count", log.getErrorCount(), e.getErrorCount());
+            for (int i = 0; i < e.getErrorCount(); i++) {
+                assertEquals("error column",
+                             log.getError(i).getColumn(),
+                             e.getError(i).getColumn());
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            analyzer.close();
+        }
+    }
+
+    /**
+     * Checks that all nodes in a parse tree have their parent
+     * references set to the parent node.
+     *
+     * @param root           the parse tree root node
+     */
+    private void assertParents(Node root) {
+        ArrayList  stack = new ArrayList();
+        Node       node;
+
+        stack.add(root);
+        while (stack.size() > 0) {
+            node = (Node) stack.remove(stack.size() - 1);
+            for (int i = 0; i < node.getChildCount(); i++) {
+                assertSame("parent node", node, node.getChildAt(i).getParent());
+                stack.add(node.getChildAt(i));
+            }
+        }
+    }
+
     /**
      * Calculates an expression and checks the result. If the
      * calculation failed or if the result didn't match the specified
@@ -73,4 +271,90 @@ public class TestArithmeticCalculator extends TestCase {
             fail(e.getMessage());
         }
     }
+
+
+    /**
+     * An analyzer replacing all production nodes, and throwing the
+     * same error for each token.
+     */
+    private class ReplacingAnalyzer extends Analyzer {
+
+        /**
+         * The shared error.
+         */
+        private ParseException error =
+            new ParseException(ParseException.ANALYSIS_ERROR,
+                               "shared error",
+                               -1,
+                               -1);
+
+        /**
+         * Throws the shared error for tokens.
+         *
+         * @param node           the node being entered
+         *
+         * @throws ParseException for all tokens
+         */
+        protected void enter(Node node) throws ParseException {
+            if (node instanceof Token) {
+                throw error;
+            }
+        }
+
+        /**
+         * Replaces production nodes with new nodes.
+         *
+         * @param node           the node being exited
+         *
+         * @return the node to add to the parse tree
+         */
+        protected Node exit(Node node) {
+            if (node instanceof Production) {
+                return new Production(((Production) node).getPattern());
+            }
+            return node;
+        }
+    }
+
+
+    /**
+     * An analyzer checking that all exited nodes have been entered,
+     * and throwing an error for each token.
+     */
+    private class CheckingAnalyzer extends Analyzer {
+
+        /**
+         * The entered nodes.
+         */
+        private IdentityHashMap entered = new IdentityHashMap();
+
+        /**
+         * Records the entered node.
+         *
+         * @param node           the node being entered
+         *
+         * @throws ParseException for all tokens
+         */
+        protected void enter(Node node) throws ParseException {
+            entered.put(node, node);
+            if (node instanceof Token) {
+                throw new ParseException(ParseException.ANALYSIS_ERROR,
+                                         "entered node",
+                                         -1,
+                                         -1);
+            }
+        }
+
+        /**
+         * Checks that the node has been entered.
+         *
+         * @param node           the node being exited
+         *
+         * @return the node to add to the parse tree
+         */
+        protected Node exit(Node node) {
+            assertTrue("node entered", entered.containsKey(node));
+            return node;
+        }
+    }
 }